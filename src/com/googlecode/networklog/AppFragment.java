@@ -56,8 +56,6 @@ import java.lang.StringBuilder;
 import java.util.Arrays;
 import java.util.Set;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -76,12 +74,21 @@ public class AppFragment extends Fragment {
   private Comparator<GroupItem> preSortMethod = null;
   private Comparator<GroupItem> sortMethod = null;
   private Comparator<GroupItem> sortMethodPreSort = null;
-  private ChildrenSort childrenSortMethod = null;
+  private Comparator<ChildItem> childrenSortMethod = null;
+  private Comparator<GroupItem> groupSortMethod = new SortApps();
+  // cache objects to prevent unnecessary allocations
+  private ArrayList<GroupItem> movedItems = new ArrayList<GroupItem>();
+  private ArrayList<ChildItem> movedChildren = new ArrayList<ChildItem>();
   public boolean roundValues;
   public GroupItem cachedSearchItem;
   private ListViewUpdater updater;
   // remember last index return by getItemByAppUid to optimize-out call to binarySearch
   int lastGetItemByAppUidIndex = -1;
+  // groupDataBuffer by uid; replaced whenever groupDataBuffer changes
+  volatile UidIndex uidIndex = new UidIndex(new ArrayList<GroupItem>());
+  // held while log entries are counted and while groupDataBuffer's items are
+  // replaced, so rebuildLogEntries and live entries don't interleave
+  final Object ingestLock = new Object();
   private NetworkLog parent = null;
   private boolean gotInstalledApps = false;
   private boolean doNotRefresh = false;
@@ -100,16 +107,19 @@ public class AppFragment extends Fragment {
     protected long totalBytes;
     protected long lastTimestamp;
     // childrenData bound to adapter, holds original list of children
-    protected HashMap<String, ChildItem> childrenData;
+    protected ConnectionTable childrenData;
     // holds filtered list of children
     // used in place of childrenData in getView, if non-empty
-    protected HashMap<String, ChildItem> childrenDataFiltered;
-    // holds sorted keys into childrenData
-    protected String[] childrenDataSorted;
+    protected ArrayList<ChildItem> childrenDataFiltered;
+    // holds sorted children of childrenData or childrenDataFiltered
+    protected ChildItem[] childrenDataSorted;
+    protected boolean childrenDataSortedAreFiltered = false;
     protected boolean childrenNeedSort = false;
     protected boolean childrenAreFiltered = false;
     protected boolean childrenAreDirty = false;
     protected boolean isExpanded = false;
+    // bytes, packets, throughput or timestamp changed since groupData was sorted
+    protected boolean sortKeyChanged = false;
 
     @Override
       public String toString() {
@@ -133,6 +143,9 @@ public class AppFragment extends Fragment {
     protected String receivedAddress;
     protected String in; // interface (rmnet, wifi, etc)
 
+    // counts or timestamps changed since childrenDataSorted was sorted
+    protected boolean sortKeyChanged = false;
+
     public String toString() {
       // todo: resolver here
       return sentAddress + ":" + sentPort + " -> " + receivedAddress + ":" + receivedPort;
@@ -140,33 +153,27 @@ public class AppFragment extends Fragment {
   }
 
   public void clear() {
-    synchronized(groupData) {
-      synchronized(groupDataBuffer) {
-        for(GroupItem item : groupDataBuffer) {
-          synchronized(item.childrenData) {
-            List<String> list = new ArrayList<String>(item.childrenData.keySet());
-            Iterator<String> itr = list.iterator();
-
-            while(itr.hasNext()) {
-              String host = itr.next();
-              ChildItem childData = item.childrenData.get(host);
+    synchronized(ingestLock) {
+      synchronized(groupData) {
+        synchronized(groupDataBuffer) {
+          for(GroupItem item : groupDataBuffer) {
+            synchronized(item.childrenData) {
+              item.childrenData.clear();
+              item.childrenDataFiltered.clear();
+              item.childrenDataSorted = null;
+              item.childrenAreFiltered = false;
             }
-
-            item.childrenData.clear();
-            item.childrenDataFiltered.clear();
-            item.childrenDataSorted = null;
-            item.childrenAreFiltered = false;
           }
-        }
 
-        groupDataBuffer.clear();
-        groupData.clear();
-        groupDataBufferIsDirty = false;
+          groupDataBuffer.clear();
+          groupData.clear();
+          groupDataBufferIsDirty = false;
+        }
       }
-    }
 
-    getInstalledApps(false);
-    lastGetItemByAppUidIndex = -1;
+      getInstalledApps(false);
+      lastGetItemByAppUidIndex = -1;
+    }
   }
 
   protected static class SortAppsByBytes implements Comparator<GroupItem> {
@@ -205,36 +212,8 @@ public class AppFragment extends Fragment {
     }
   }
 
-  protected interface ChildrenSort {
-    public void setGroupItem(GroupItem item);
-  }
-
-  protected static class SortChildrenByBytes implements Comparator<String>, ChildrenSort {
-    GroupItem item;
-
-    public SortChildrenByBytes() {
-    }
-
-    public SortChildrenByBytes(GroupItem item) {
-      this.item = item;
-    }
-
-    public void setGroupItem(GroupItem item) {
-      this.item = item;
-    }
-
-    public int compare(String o1, String o2) {
-      ChildItem c1;
-      ChildItem c2;
-
-      if(item.childrenAreFiltered) {
-        c1 = item.childrenDataFiltered.get(o1);
-        c2 = item.childrenDataFiltered.get(o2);
-      } else {
-        c1 = item.childrenData.get(o1);
-        c2 = item.childrenData.get(o2);
-      }
-
+  protected static class SortChildrenByBytes implements Comparator<ChildItem> {
+    public int compare(ChildItem c1, ChildItem c2) {
       long totalBytes1 = c1.sentBytes + c1.receivedBytes;
       long totalBytes2 = c2.sentBytes + c2.receivedBytes;
 
@@ -242,32 +221,8 @@ public class AppFragment extends Fragment {
     }
   }
 
-  protected static class SortChildrenByPackets implements Comparator<String>, ChildrenSort {
-    GroupItem item;
-
-    public SortChildrenByPackets() {
-    }
-
-    public SortChildrenByPackets(GroupItem item) {
-      this.item = item;
-    }
-
-    public void setGroupItem(GroupItem item) {
-      this.item = item;
-    }
-
-    public int compare(String o1, String o2) {
-      ChildItem c1;
-      ChildItem c2;
-
-      if(item.childrenAreFiltered) {
-        c1 = item.childrenDataFiltered.get(o1);
-        c2 = item.childrenDataFiltered.get(o2);
-      } else {
-        c1 = item.childrenData.get(o1);
-        c2 = item.childrenData.get(o2);
-      }
-
+  protected static class SortChildrenByPackets implements Comparator<ChildItem> {
+    public int compare(ChildItem c1, ChildItem c2) {
       long totalPackets1 = c1.sentPackets + c1.receivedPackets;
       long totalPackets2 = c2.sentPackets + c2.receivedPackets;
 
@@ -275,32 +230,8 @@ public class AppFragment extends Fragment {
     }
   }
 
-  protected static class SortChildrenByTimestamp implements Comparator<String>, ChildrenSort {
-    GroupItem item;
-
-    public SortChildrenByTimestamp() {
-    }
-
-    public SortChildrenByTimestamp(GroupItem item) {
-      this.item = item;
-    }
-
-    public void setGroupItem(GroupItem item) {
-      this.item = item;
-    }
-
-    public int compare(String o1, String o2) {
-      ChildItem c1;
-      ChildItem c2;
-
-      if(item.childrenAreFiltered) {
-        c1 = item.childrenDataFiltered.get(o1);
-        c2 = item.childrenDataFiltered.get(o2);
-      } else {
-        c1 = item.childrenData.get(o1);
-        c2 = item.childrenData.get(o2);
-      }
-
+  protected static class SortChildrenByTimestamp implements Comparator<ChildItem> {
+    public int compare(ChildItem c1, ChildItem c2) {
       long timestamp1 = c1.sentTimestamp;
       long timestamp2 = c2.sentTimestamp;
 
@@ -316,6 +247,24 @@ public class AppFragment extends Fragment {
     }
   }
 
+  // sorting by preSortMethod, then by sortMethodPreSort, then by sortMethod
+  // gives this order
+  protected class SortApps implements Comparator<GroupItem> {
+    public int compare(GroupItem o1, GroupItem o2) {
+      int result = sortMethod.compare(o1, o2);
+
+      if(result == 0 && sortMethodPreSort != null) {
+        result = sortMethodPreSort.compare(o1, o2);
+      }
+
+      if(result == 0) {
+        result = preSortMethod.compare(o1, o2);
+      }
+
+      return result;
+    }
+  }
+
   protected void setPreSortMethod() {
     switch(preSortBy) {
       case UID:
@@ -380,11 +329,53 @@ public class AppFragment extends Fragment {
 
   protected void sortData() {
     synchronized(groupData) {
-      if(sortMethodPreSort != null) {
-        Collections.sort(groupData, sortMethodPreSort);
+      for(GroupItem item : groupData) {
+        item.sortKeyChanged = false;
+      }
+
+      Collections.sort(groupData, groupSortMethod);
+    }
+  }
+
+  // moves the apps whose sort keys changed since groupData was sorted back
+  // into order; the others are still in order among themselves, so they only
+  // need merging with the moved apps
+  protected void updateSortedData() {
+    synchronized(groupData) {
+      int size = groupData.size();
+      int kept = 0;
+      GroupItem item;
+
+      for(int i = 0; i < size; i++) {
+        item = groupData.get(i);
+
+        if(item.sortKeyChanged) {
+          item.sortKeyChanged = false;
+          movedItems.add(item);
+        } else {
+          groupData.set(kept++, item);
+        }
+      }
+
+      if(movedItems.size() == 0) {
+        return;
+      }
+
+      Collections.sort(movedItems, groupSortMethod);
+
+      // merge from the end, so kept apps are moved before being overwritten
+      int i = kept - 1;
+      int j = movedItems.size() - 1;
+
+      for(int k = size - 1; j >= 0; k--) {
+        if(i >= 0 && groupSortMethod.compare(groupData.get(i), movedItems.get(j)) > 0) {
+          groupData.set(k, groupData.get(i--));
+        } else {
+          groupData.set(k, movedItems.get(j--));
+        }
       }
 
-      Collections.sort(groupData, sortMethod);
+      movedItems.clear();
     }
   }
 
@@ -392,10 +383,89 @@ public class AppFragment extends Fragment {
     synchronized(groupData) {
       for(GroupItem item : groupData) {
         item.childrenNeedSort = true;
+        item.childrenDataSorted = null;
       }
     }
   }
 
+  // sorts the children of item into childrenDataSorted; if they were sorted
+  // before, only those added or changed since are moved into place
+  protected void updateSortedChildren(GroupItem item) {
+    ChildItem[] sorted = item.childrenDataSorted;
+    ChildItem child;
+
+    if(item.childrenAreFiltered == true) {
+      int size = item.childrenDataFiltered.size();
+
+      if(sorted == null || sorted.length != size) {
+        sorted = new ChildItem[size];
+      }
+
+      item.childrenDataFiltered.toArray(sorted);
+      Arrays.sort(sorted, childrenSortMethod);
+      item.childrenDataSorted = sorted;
+      item.childrenDataSortedAreFiltered = true;
+      return;
+    }
+
+    synchronized(item.childrenData) {
+      int size = item.childrenData.size();
+
+      if(sorted == null || item.childrenDataSortedAreFiltered == true || sorted.length > size) {
+        sorted = new ChildItem[size];
+
+        for(int i = 0; i < size; i++) {
+          child = item.childrenData.get(i);
+          child.sortKeyChanged = false;
+          sorted[i] = child;
+        }
+
+        Arrays.sort(sorted, childrenSortMethod);
+        item.childrenDataSorted = sorted;
+        item.childrenDataSortedAreFiltered = false;
+        return;
+      }
+
+      // children are added to the end of childrenData, so those past the
+      // length of sorted are new
+      ChildItem[] result = sorted.length == size ? sorted : new ChildItem[size];
+      int kept = 0;
+
+      for(int i = 0; i < sorted.length; i++) {
+        child = sorted[i];
+
+        if(child.sortKeyChanged) {
+          child.sortKeyChanged = false;
+          movedChildren.add(child);
+        } else {
+          result[kept++] = child;
+        }
+      }
+
+      for(int i = sorted.length; i < size; i++) {
+        child = item.childrenData.get(i);
+        child.sortKeyChanged = false;
+        movedChildren.add(child);
+      }
+
+      Collections.sort(movedChildren, childrenSortMethod);
+
+      int i = kept - 1;
+      int j = movedChildren.size() - 1;
+
+      for(int k = size - 1; j >= 0; k--) {
+        if(i >= 0 && childrenSortMethod.compare(result[i], movedChildren.get(j)) > 0) {
+          result[k] = result[i--];
+        } else {
+          result[k] = movedChildren.get(j--);
+        }
+      }
+
+      movedChildren.clear();
+      item.childrenDataSorted = result;
+    }
+  }
+
   public void setDoNotRefresh(boolean value) {
     doNotRefresh = value;
   }
@@ -436,38 +506,49 @@ public class AppFragment extends Fragment {
       return;
     }
 
-    synchronized(groupDataBuffer) {
-      GroupItem item = null;
+    synchronized(ingestLock) {
+      synchronized(groupDataBuffer) {
+        GroupItem item = null;
 
-      for(GroupItem i : groupDataBuffer) {
-        if(i.app.packageName.equals(app.packageName)) {
-          item = i;
-          break;
+        for(GroupItem i : groupDataBuffer) {
+          if(i.app.packageName.equals(app.packageName)) {
+            item = i;
+            break;
+          }
         }
-      }
 
-      if(item == null) {
-        item = new GroupItem();
-        item.app = app;
-        item.lastTimestamp = 0;
-        item.childrenData = new HashMap<String, ChildItem>();
-        item.childrenDataFiltered = new HashMap<String, ChildItem>();
+        synchronized(groupData) {
+          if(item == null) {
+            item = new GroupItem();
+            item.app = app;
+            item.lastTimestamp = 0;
+            item.childrenData = new ConnectionTable();
+            item.childrenDataFiltered = new ArrayList<ChildItem>();
 
-        if(NetworkLogService.throughputBps) {
-          item.throughputString = "0bps/0bps";
-        } else {
-          item.throughputString = "0B/0B";
+            if(NetworkLogService.throughputBps) {
+              item.throughputString = "0bps/0bps";
+            } else {
+              item.throughputString = "0B/0B";
+            }
+
+            groupData.add(item);
+            insertByUid(item);
+          } else if(item.app.uid != app.uid) {
+            groupDataBuffer.remove(item);
+            item.app = app;
+            insertByUid(item);
+          } else {
+            item.app = app;
+          }
+
+          // moved into place by the updater
+          item.sortKeyChanged = true;
+          groupDataBufferIsDirty = true;
         }
 
-        groupData.add(item);
-        groupDataBuffer.add(item);
-      } else {
-        item.app = app;
+        lastGetItemByAppUidIndex = -1;
+        uidIndex = new UidIndex(groupDataBuffer);
       }
-
-      // groupDataBuffer must always be sorted by UID for binary search
-      Collections.sort(groupDataBuffer, new SortAppsByUid());
-      lastGetItemByAppUidIndex = -1;
     }
 
     if(NetworkLog.filterTextInclude.length() > 0 || NetworkLog.filterTextExclude.length() > 0) {
@@ -477,34 +558,58 @@ public class AppFragment extends Fragment {
     }
   }
 
+  // groupDataBuffer must always be sorted by UID for binary search; item goes
+  // after the apps sharing its uid
+  protected void insertByUid(GroupItem item) {
+    int low = 0;
+    int high = groupDataBuffer.size();
+    int mid;
+
+    while(low < high) {
+      mid = (low + high) >>> 1;
+
+      if(groupDataBuffer.get(mid).app.uid <= item.app.uid) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    groupDataBuffer.add(low, item);
+  }
+
   public void removeApp(String packageName) {
     if(groupData == null || groupDataBuffer == null) {
       return;
     }
 
-    synchronized(groupData) {
-      GroupItem item;
-      Iterator<GroupItem> iterator = groupData.iterator();
-      while(iterator.hasNext()) {
-        item = iterator.next();
-        if(item.app.packageName.equals(packageName)) {
-          item.childrenData.clear();
-          item.childrenDataFiltered.clear();
-          iterator.remove();
+    synchronized(ingestLock) {
+      synchronized(groupData) {
+        GroupItem item;
+        Iterator<GroupItem> iterator = groupData.iterator();
+        while(iterator.hasNext()) {
+          item = iterator.next();
+          if(item.app.packageName.equals(packageName)) {
+            item.childrenData.clear();
+            item.childrenDataFiltered.clear();
+            iterator.remove();
+          }
         }
       }
-    }
 
-    synchronized(groupDataBuffer) {
-      GroupItem item;
-      Iterator<GroupItem> iterator = groupDataBuffer.iterator();
-      while(iterator.hasNext()) {
-        item = iterator.next();
-        if(item.app.packageName.equals(packageName)) {
-          item.childrenData.clear();
-          item.childrenDataFiltered.clear();
-          iterator.remove();
+      synchronized(groupDataBuffer) {
+        GroupItem item;
+        Iterator<GroupItem> iterator = groupDataBuffer.iterator();
+        while(iterator.hasNext()) {
+          item = iterator.next();
+          if(item.app.packageName.equals(packageName)) {
+            item.childrenData.clear();
+            item.childrenDataFiltered.clear();
+            iterator.remove();
+          }
         }
+
+        uidIndex = new UidIndex(groupDataBuffer);
       }
     }
 
@@ -518,52 +623,56 @@ public class AppFragment extends Fragment {
   }
 
   protected void getInstalledApps(final boolean refresh) {
-    synchronized(groupDataBuffer) {
-      synchronized(groupData) {
-        groupData.clear();
-        groupDataBuffer.clear();
-
-        synchronized(ApplicationsTracker.installedAppsLock) {
-          for(ApplicationsTracker.AppEntry app : ApplicationsTracker.installedApps) {
-            if(NetworkLog.state != NetworkLog.State.RUNNING && NetworkLog.initRunner.running == false) {
-              MyLog.d("[AppFragment] Initialization aborted");
-              return;
-            }
+    synchronized(ingestLock) {
+      synchronized(groupDataBuffer) {
+        synchronized(groupData) {
+          groupData.clear();
+          groupDataBuffer.clear();
+
+          synchronized(ApplicationsTracker.installedAppsLock) {
+            for(ApplicationsTracker.AppEntry app : ApplicationsTracker.installedApps) {
+              if(NetworkLog.state != NetworkLog.State.RUNNING && NetworkLog.initRunner.running == false) {
+                MyLog.d("[AppFragment] Initialization aborted");
+                return;
+              }
 
-            GroupItem item = new GroupItem();
-            item.app = app;
-            item.lastTimestamp = 0;
-            item.childrenData = new HashMap<String, ChildItem>();
-            item.childrenDataFiltered = new HashMap<String, ChildItem>();
-            if(NetworkLogService.throughputBps) {
-              item.throughputString = "0bps/0bps";
-            } else {
-              item.throughputString = "0B/0B";
+              GroupItem item = new GroupItem();
+              item.app = app;
+              item.lastTimestamp = 0;
+              item.childrenData = new ConnectionTable();
+              item.childrenDataFiltered = new ArrayList<ChildItem>();
+              item.sortKeyChanged = true;
+              if(NetworkLogService.throughputBps) {
+                item.throughputString = "0bps/0bps";
+              } else {
+                item.throughputString = "0B/0B";
+              }
+              groupData.add(item);
+              groupDataBuffer.add(item);
             }
-            groupData.add(item);
-            groupDataBuffer.add(item);
           }
-        }
 
-        if(refresh == true) {
-          Activity activity = getActivity();
+          if(refresh == true) {
+            Activity activity = getActivity();
 
-          if(activity != null) {
-            activity.runOnUiThread(new Runnable() {
-              public void run() {
-                preSortData();
-                if(NetworkLog.filterTextInclude.length() > 0 || NetworkLog.filterTextExclude.length() > 0) {
-                  setFilter("");
-                } else {
-                  refreshAdapter();
+            if(activity != null) {
+              activity.runOnUiThread(new Runnable() {
+                public void run() {
+                  preSortData();
+                  if(NetworkLog.filterTextInclude.length() > 0 || NetworkLog.filterTextExclude.length() > 0) {
+                    setFilter("");
+                  } else {
+                    refreshAdapter();
+                  }
                 }
-              }
-            });
+              });
+            }
           }
-        }
 
-        // groupDataBuffer must always be sorted by UID for binary search
-        Collections.sort(groupDataBuffer, new SortAppsByUid());
+          // groupDataBuffer must always be sorted by UID for binary search
+          Collections.sort(groupDataBuffer, new SortAppsByUid());
+          uidIndex = new UidIndex(groupDataBuffer);
+        }
       }
     }
   }
@@ -786,7 +895,7 @@ public class AppFragment extends Fragment {
       }
 
       if(NetworkLog.resolvePorts && NetworkLog.resolveCopies) {
-        sentPortString = NetworkLog.resolver.resolveService(String.valueOf(childItem.sentPort));
+        sentPortString = NetworkLog.resolver.resolveService(childItem.sentPort);
       } else {
         sentPortString = String.valueOf(childItem.sentPort);
       }
@@ -806,7 +915,7 @@ public class AppFragment extends Fragment {
       }
 
       if(NetworkLog.resolvePorts && NetworkLog.resolveCopies) {
-        receivedPortString = NetworkLog.resolver.resolveService(String.valueOf(childItem.receivedPort));
+        receivedPortString = NetworkLog.resolver.resolveService(childItem.receivedPort);
       } else {
         receivedPortString = String.valueOf(childItem.receivedPort);
       }
@@ -927,38 +1036,28 @@ public class AppFragment extends Fragment {
       return;
     }
 
-    synchronized(groupDataBuffer) {
-      int index = getItemByAppUid(uid);
+    GroupItem[] items = uidIndex.get(uid);
 
-      if(index < 0) {
-        MyLog.d("updateAppThroughput: No app entry for " + uid);
-        return;
-      }
+    if(items.length == 0) {
+      MyLog.d("updateAppThroughput: No app entry for " + uid);
+      return;
+    }
 
-      GroupItem item;
-      while(true) {
-        item = groupDataBuffer.get(index);
+    for(GroupItem item : items) {
+      groupDataBufferIsDirty = true;
 
-        if(item.app.uid != uid) {
-          break;
-        }
+      item.uploadThroughput = upload;
+      item.downloadThroughput = download;
 
-        groupDataBufferIsDirty = true;
-
-        item.uploadThroughput = upload;
-        item.downloadThroughput = download;
+      if(item.totalThroughput != upload + download) {
         item.totalThroughput = upload + download;
+        item.sortKeyChanged = true;
+      }
 
-        if(NetworkLogService.invertUploadDownload) {
-          item.throughputString = StringUtils.formatToBytes(download) + (NetworkLogService.throughputBps ? "bps/" : "B/") + StringUtils.formatToBytes(upload) + (NetworkLogService.throughputBps ? "bps" : "B");
-        } else {
-          item.throughputString = StringUtils.formatToBytes(upload) + (NetworkLogService.throughputBps ? "bps/" : "B/") + StringUtils.formatToBytes(download) + (NetworkLogService.throughputBps ? "bps" : "B");
-        }
-
-        index++;
-        if(index >= groupDataBuffer.size()) {
-          break;
-        }
+      if(NetworkLogService.invertUploadDownload) {
+        item.throughputString = StringUtils.formatToBytes(download) + (NetworkLogService.throughputBps ? "bps/" : "B/") + StringUtils.formatToBytes(upload) + (NetworkLogService.throughputBps ? "bps" : "B");
+      } else {
+        item.throughputString = StringUtils.formatToBytes(upload) + (NetworkLogService.throughputBps ? "bps/" : "B/") + StringUtils.formatToBytes(download) + (NetworkLogService.throughputBps ? "bps" : "B");
       }
     }
   }
@@ -967,43 +1066,31 @@ public class AppFragment extends Fragment {
     Log.d("NetworkLog", "AppFragment rebuilding entries start");
     long start = System.currentTimeMillis();
     stopUpdater();
-    synchronized(groupDataBuffer) {
-      clear();
+    synchronized(ingestLock) {
+      synchronized(groupDataBuffer) {
+        clear();
 
-      synchronized(NetworkLog.logFragment.listDataUnfiltered) {
-        Iterator<LogFragment.ListItem> iterator = NetworkLog.logFragment.listDataUnfiltered.iterator();
-        LogEntry entry = new LogEntry();
-        while(iterator.hasNext()) {
-          LogFragment.ListItem item = iterator.next();
-
-          entry.uid = item.app.uid;
-          entry.in = item.in;
-          entry.out = item.out;
-          entry.proto = item.proto;
-          entry.src = item.srcAddr;
-          entry.dst = item.dstAddr;
-          entry.len = item.len;
-          entry.spt = item.srcPort;
-          entry.dpt = item.dstPort;
-          entry.timestamp = item.timestamp;
-
-          onNewLogEntry(entry);
+        synchronized(NetworkLog.logFragment.logEntries) {
+          LogEntryStore logEntries = NetworkLog.logFragment.logEntries;
+          LogEntry entry = new LogEntry();
+          int end = logEntries.getEndId();
+
+          for(int id = logEntries.getFirstId(); id != end; id++) {
+            logEntries.getEntry(id, entry);
+            onNewLogEntry(entry);
+          }
         }
+        groupDataBufferIsDirty = true;
       }
-      groupDataBufferIsDirty = true;
     }
     startUpdater();
     long elapsed = System.currentTimeMillis() - start;
     Log.d("NetworkLog", "AppFragment rebuilding entries end -- elapsed: " + elapsed);
   }
 
-  // cache objects to prevent unnecessary allocations
-  private CharArray charBuffer = new CharArray(256);
-  private String srcKey;
-  private String dstKey;
-  private GroupItem newLogItem;
-  private ChildItem newLogChild;
-
+  // connections are keyed by remote address, remote port, protocol and
+  // interface; besides ingestLock only the connection table of the app is
+  // locked, so the filter can work on other apps meanwhile
   public void onNewLogEntry(final LogEntry entry) {
     if(MyLog.enabled && MyLog.level >= 6) {
       MyLog.d(6, "AppFragment: NewLogEntry: [" + entry.uid + "] in=" + entry.in + " out=" + entry.out + " " + entry.src + ":" + entry.spt + " --> " + entry.dst + ":" + entry.dpt + " [" + entry.len + "]");
@@ -1017,124 +1104,101 @@ public class AppFragment extends Fragment {
       return;
     }
 
-    int index = getItemByAppUid(entry.uid);
-
-    if(index < 0) {
-      MyLog.d("No app entry for uid " + entry.uid);
-      return;
-    }
-
-    synchronized(groupDataBuffer) {
-      try {
-        charBuffer.reset();
-        charBuffer.append(entry.src).append(':').append(entry.spt).append(':').append(entry.proto).append(':');
-
-        if(entry.in != null && entry.in.length() > 0) {
-          charBuffer.append(entry.in);
-        } else {
-          charBuffer.append(entry.out);
-        }
-
-        srcKey = StringPool.get(charBuffer);
+    synchronized(ingestLock) {
+      // generally there is one item, but some apps may be grouped under the same uid
+      GroupItem[] items = uidIndex.get(entry.uid);
 
-        charBuffer.reset();
-        charBuffer.append(entry.dst).append(':').append(entry.dpt).append(':').append(entry.proto).append(':');
+      if(items.length == 0) {
+        MyLog.d("No app entry for uid " + entry.uid);
+        return;
+      }
 
-        if(entry.in != null && entry.in.length() > 0) {
-          charBuffer.append(entry.in);
-        } else {
-          charBuffer.append(entry.out);
-        }
+      String iface;
 
-        dstKey = StringPool.get(charBuffer);
-      } catch (ArrayIndexOutOfBoundsException e) {
-        Log.e("NetworkLog", "[AppFragment.onNewEntry] charBuffer too long, skipping entry", e);
-        return;
+      if(entry.in != null && entry.in.length() > 0) {
+        iface = entry.in;
+      } else {
+        iface = entry.out;
       }
 
-      // generally this will iterate once, but some apps may be grouped under the same uid
-      while(true) {
-        newLogItem = groupDataBuffer.get(index);
+      GroupItem item;
+      ChildItem child;
 
-        if(newLogItem.app.uid != entry.uid) {
-          break;
-        }
+      for(int i = 0; i < items.length; i++) {
+        item = items[i];
 
         groupDataBufferIsDirty = true;
 
-        newLogItem.totalPackets++;
-        newLogItem.totalBytes += entry.len;
-        newLogItem.lastTimestamp = entry.timestamp;
+        item.totalPackets++;
+        item.totalBytes += entry.len;
+        item.lastTimestamp = entry.timestamp;
+        item.sortKeyChanged = true;
 
         if(entry.in != null && entry.in.length() != 0) {
-          newLogItem.receivedPackets++;
-          newLogItem.receivedBytes += entry.len;
+          item.receivedPackets++;
+          item.receivedBytes += entry.len;
 
-          synchronized(newLogItem.childrenData) {
-            newLogChild = newLogItem.childrenData.get(srcKey);
+          synchronized(item.childrenData) {
+            child = item.childrenData.get(entry.src, entry.spt, entry.proto, iface);
 
-            if(newLogChild == null) {
-              newLogChild = new ChildItem();
-              newLogItem.childrenData.put(srcKey, newLogChild);
+            if(child == null) {
+              child = new ChildItem();
+              item.childrenData.add(entry.src, entry.spt, entry.proto, iface, child);
             }
 
-            newLogChild.in = entry.in;
-            newLogChild.out = null;
-            newLogChild.proto = entry.proto;
-            newLogChild.receivedPackets++;
-            newLogChild.receivedBytes += entry.len;
-            newLogChild.receivedTimestamp = entry.timestamp;
+            child.in = entry.in;
+            child.out = null;
+            child.proto = entry.proto;
+            child.receivedPackets++;
+            child.receivedBytes += entry.len;
+            child.receivedTimestamp = entry.timestamp;
+            child.sortKeyChanged = true;
 
             if(MyLog.enabled && MyLog.level >= 8) {
-              MyLog.d(8, "Added received packet index=" + index + " in=" + entry.in + " out=" + entry.out + " proto=" + entry.proto + " " + entry.src + ":" + entry.spt + " --> " + entry.dst + ":" + entry.dpt + "; total: " + newLogChild.receivedPackets + "; bytes: " + newLogChild.receivedBytes);
+              MyLog.d(8, "Added received packet uid=" + entry.uid + " in=" + entry.in + " out=" + entry.out + " proto=" + entry.proto + " " + entry.src + ":" + entry.spt + " --> " + entry.dst + ":" + entry.dpt + "; total: " + child.receivedPackets + "; bytes: " + child.receivedBytes);
             }
 
-            newLogChild.receivedPort = entry.spt;
-            newLogChild.receivedAddress = entry.src;
-            newLogChild.sentPort = entry.dpt;
-            newLogChild.sentAddress = entry.dst;
+            child.receivedPort = entry.spt;
+            child.receivedAddress = entry.src;
+            child.sentPort = entry.dpt;
+            child.sentAddress = entry.dst;
 
-            newLogItem.childrenNeedSort = true;
+            item.childrenNeedSort = true;
           }
         }
 
         if(entry.out != null && entry.out.length() != 0) {
-          newLogItem.sentPackets++;
-          newLogItem.sentBytes += entry.len;
+          item.sentPackets++;
+          item.sentBytes += entry.len;
 
-          synchronized(newLogItem.childrenData) {
-            newLogChild = newLogItem.childrenData.get(dstKey);
+          synchronized(item.childrenData) {
+            child = item.childrenData.get(entry.dst, entry.dpt, entry.proto, iface);
 
-            if(newLogChild == null) {
-              newLogChild = new ChildItem();
-              newLogItem.childrenData.put(dstKey, newLogChild);
+            if(child == null) {
+              child = new ChildItem();
+              item.childrenData.add(entry.dst, entry.dpt, entry.proto, iface, child);
             }
 
-            newLogChild.in = null;
-            newLogChild.out = entry.out;
-            newLogChild.proto = entry.proto;
-            newLogChild.sentPackets++;
-            newLogChild.sentBytes += entry.len;
-            newLogChild.sentTimestamp = entry.timestamp;
+            child.in = null;
+            child.out = entry.out;
+            child.proto = entry.proto;
+            child.sentPackets++;
+            child.sentBytes += entry.len;
+            child.sentTimestamp = entry.timestamp;
+            child.sortKeyChanged = true;
 
             if(MyLog.enabled && MyLog.level >= 8) {
-              MyLog.d(8, "Added sent packet index=" + index + " in=" + entry.in + " out=" + entry.out + " " + entry.src + ":" + entry.spt + " --> " + entry.dst + ":" + entry.dpt + "; total: " + newLogChild.sentPackets + "; bytes: " + newLogChild.sentBytes);
+              MyLog.d(8, "Added sent packet uid=" + entry.uid + " in=" + entry.in + " out=" + entry.out + " " + entry.src + ":" + entry.spt + " --> " + entry.dst + ":" + entry.dpt + "; total: " + child.sentPackets + "; bytes: " + child.sentBytes);
             }
 
-            newLogChild.receivedPort = entry.spt;
-            newLogChild.receivedAddress = entry.src;
-            newLogChild.sentPort = entry.dpt;
-            newLogChild.sentAddress = entry.dst;
+            child.receivedPort = entry.spt;
+            child.receivedAddress = entry.src;
+            child.sentPort = entry.dpt;
+            child.sentAddress = entry.dst;
 
-            newLogItem.childrenNeedSort = true;
+            item.childrenNeedSort = true;
           }
         }
-
-        index++;
-
-        if(index >= groupDataBuffer.size()) {
-          break;
-        }
       }
     }
   }
@@ -1166,8 +1230,7 @@ public class AppFragment extends Fragment {
         }
 
         if(groupDataBufferIsDirty) {
-          preSortData();
-          sortData();
+          updateSortedData();
         }
 
         if(groupDataBufferIsDirty && (NetworkLog.filterTextInclude.length() > 0 || NetworkLog.filterTextExclude.length() > 0)) {
@@ -1234,19 +1297,29 @@ public class AppFragment extends Fragment {
 
     private class CustomFilter extends Filter {
       FilterResults results = new FilterResults();
+      FilterPredicate.Item filterItem = new FilterPredicate.Item();
+
+      // fills filterItem with a connection of item; a side without
+      // packets is not matched
+      FilterPredicate.Item getFilterItem(GroupItem item, ChildItem childData) {
+        filterItem.app = item.app;
+        filterItem.in = childData.in;
+        filterItem.out = childData.out;
+        filterItem.proto = childData.proto;
+        filterItem.srcAddr = childData.sentPackets > 0 ? childData.sentAddress : null;
+        filterItem.srcPort = childData.sentPackets > 0 ? childData.sentPort : -1;
+        filterItem.dstAddr = childData.receivedPackets > 0 ? childData.receivedAddress : null;
+        filterItem.dstPort = childData.receivedPackets > 0 ? childData.receivedPort : -1;
+        return filterItem;
+      }
 
       @Override
         protected FilterResults performFiltering(CharSequence constraint) {
           ArrayList<GroupItem> originalItems = new ArrayList<GroupItem>(groupDataBuffer.size());
           ArrayList<GroupItem> filteredItems = new ArrayList<GroupItem>(groupDataBuffer.size());
-          String host;
-          String iface;
           ChildItem childData;
           boolean matched;
-          String sentAddressResolved;
-          String sentPortResolved;
-          String receivedAddressResolved;
-          String receivedPortResolved;
+          FilterSettings settings = FilterSettings.capture();
 
           doNotRefresh = true;
 
@@ -1260,7 +1333,7 @@ public class AppFragment extends Fragment {
             originalItems.addAll(groupDataBuffer);
           }
 
-          if(NetworkLog.filterTextInclude.length() == 0 && NetworkLog.filterTextExclude.length() == 0) {
+          if(!settings.isActive()) {
             if(MyLog.enabled) {
               MyLog.d("[AppFragment] no constraint item count: " + originalItems.size());
             }
@@ -1284,7 +1357,7 @@ public class AppFragment extends Fragment {
               MyLog.d("[AppFragment] item count: " + count);
             }
 
-            if(NetworkLog.filterTextIncludeList.size() == 0) {
+            if(!settings.hasIncludeTerms()) {
               if(MyLog.enabled) {
                 MyLog.d("[AppFragment] no include filter, adding all items");
               }
@@ -1294,20 +1367,20 @@ public class AppFragment extends Fragment {
 
                 synchronized(item.childrenData) {
                   item.childrenDataFiltered.clear();
-                  List<String> list = new ArrayList<String>(item.childrenData.keySet());
-                  Iterator<String> itr = list.iterator();
-                  while(itr.hasNext()) {
-                    host = itr.next();
-                    childData = item.childrenData.get(host);
+                  int children = item.childrenData.size();
+                  for(int j = 0; j < children; j++) {
+                    childData = item.childrenData.get(j);
                     if(MyLog.enabled) {
                       MyLog.d("[AppFragment] adding filtered host " + childData);
                     }
-                    item.childrenDataFiltered.put(host, childData);
+                    item.childrenDataFiltered.add(childData);
                     item.childrenAreFiltered = true;
                   }
                 }
               }
             } else {
+              FilterPredicate includeApp = settings.compileInclude(FilterSettings.APP_FIELDS);
+              FilterPredicate includeConnection = settings.compileInclude(FilterSettings.CONNECTION_FIELDS);
               GroupItem item;
               for(int i = 0; i < count; i++) {
                 item = originalItems.get(i);
@@ -1316,79 +1389,23 @@ public class AppFragment extends Fragment {
                 boolean item_added = false;
                 matched = false;
 
-                if(NetworkLog.filterNameInclude || NetworkLog.filterUidInclude) {
-                  for(String c : NetworkLog.filterTextIncludeList) {
-                    if((NetworkLog.filterNameInclude && item.app.nameLowerCase.contains(c))
-                        || (NetworkLog.filterUidInclude && item.app.uidString.equals(c))) {
-                      matched = true;
-                        }
-                  }
+                if(includeApp.hasFields()) {
+                  filterItem.app = item.app;
+                  matched = includeApp.matches(filterItem);
                 } else {
                   matched = true;
                 }
 
                 if(matched) {
                   // test filter against address/port/iface/proto
-                  if(NetworkLog.filterAddressInclude || NetworkLog.filterPortInclude 
-                      || NetworkLog.filterInterfaceInclude || NetworkLog.filterProtocolInclude) {
+                  if(includeConnection.hasFields()) {
                     synchronized(item.childrenData) {
                       item.childrenDataFiltered.clear();
-                      List<String> list = new ArrayList<String>(item.childrenData.keySet());
-                      // todo: sort by user preference (bytes, timestamp, address, ports)
-                      Collections.sort(list);
-                      Iterator<String> itr = list.iterator();
-                      while(itr.hasNext()) {
-                        host = itr.next();
-                        // MyLog.d("[AppFragment] testing " + host);
-
-                        childData = item.childrenData.get(host);
-
-                        matched = false;
-
-                        if(NetworkLog.resolveHosts) {
-                          sentAddressResolved = NetworkLog.resolver.resolveAddress(childData.sentAddress);
-
-                          if(sentAddressResolved == null) {
-                            sentAddressResolved = "";
-                          }
-
-                          receivedAddressResolved = NetworkLog.resolver.resolveAddress(childData.receivedAddress);
+                      int children = item.childrenData.size();
+                      for(int j = 0; j < children; j++) {
+                        childData = item.childrenData.get(j);
 
-                          if(receivedAddressResolved == null) {
-                            receivedAddressResolved = "";
-                          }
-                        } else {
-                          sentAddressResolved = "";
-                          receivedAddressResolved = "";
-                        }
-
-                        if(NetworkLog.resolvePorts) {
-                          sentPortResolved = NetworkLog.resolver.resolveService(String.valueOf(childData.sentPort));
-                          receivedPortResolved = NetworkLog.resolver.resolveService(String.valueOf(childData.receivedPort));
-                        } else {
-                          sentPortResolved = "";
-                          receivedPortResolved = "";
-                        }
-
-                        if(childData.in != null && childData.in.length() > 0) {
-                          iface = childData.in;
-                        } else {
-                          iface = childData.out;
-                        }
-
-                        for(String c : NetworkLog.filterTextIncludeList) {
-                          if((NetworkLog.filterAddressInclude && 
-                                ((childData.sentPackets > 0 && (childData.sentAddress.contains(c) || StringPool.getLowerCase(sentAddressResolved).contains(c)))
-                                  || (childData.receivedPackets > 0 && (childData.receivedAddress.contains(c) || StringPool.getLowerCase(receivedAddressResolved).contains(c)))))
-                              || (NetworkLog.filterPortInclude && 
-                                ((childData.sentPackets > 0 && (String.valueOf(childData.sentPort).equals(c) || StringPool.getLowerCase(sentPortResolved).equals(c)))
-                                  || (childData.receivedPackets > 0 && (String.valueOf(childData.receivedPort).equals(c) || StringPool.getLowerCase(receivedPortResolved).equals(c)))))
-                              || (NetworkLog.filterInterfaceInclude && iface.contains(c))
-                              || (NetworkLog.filterProtocolInclude && StringPool.getLowerCase(NetworkLog.resolver.resolveProtocol(childData.proto)).equals(c))) {
-                            matched = true;
-                            break;
-                                  }
-                        }
+                        matched = includeConnection.matches(getFilterItem(item, childData));
 
                         if(matched) {
                           if(!item_added) {
@@ -1398,7 +1415,7 @@ public class AppFragment extends Fragment {
                           }
 
                           // MyLog.d("[AppFragment] adding filtered host " + childData);
-                          item.childrenDataFiltered.put(host, childData);
+                          item.childrenDataFiltered.add(childData);
                           item.childrenAreFiltered = true;
                           item.childrenNeedSort = true;
                         }
@@ -1410,16 +1427,12 @@ public class AppFragment extends Fragment {
                     filteredItems.add(item);
 
                     synchronized(item.childrenData) {
-                      List<String> list = new ArrayList<String>(item.childrenData.keySet());
-                      // todo: sort by user preference
-                      Collections.sort(list);
                       item.childrenDataFiltered.clear();
-                      Iterator<String> itr = list.iterator();
-                      while(itr.hasNext()) {
-                        host = itr.next();
-                        childData = item.childrenData.get(host);
+                      int children = item.childrenData.size();
+                      for(int j = 0; j < children; j++) {
+                        childData = item.childrenData.get(j);
                         // MyLog.d("[AppFragment] adding filtered host " + childData);
-                        item.childrenDataFiltered.put(host, childData);
+                        item.childrenDataFiltered.add(childData);
                         item.childrenAreFiltered = true;
                         item.childrenNeedSort = true;
                       }
@@ -1429,7 +1442,9 @@ public class AppFragment extends Fragment {
               }
             }
 
-            if(NetworkLog.filterTextExcludeList.size() > 0) {
+            if(settings.hasExcludeTerms()) {
+              FilterPredicate excludeApp = settings.compileExclude(FilterSettings.APP_FIELDS);
+              FilterPredicate excludeConnection = settings.compileExclude(FilterSettings.CONNECTION_FIELDS);
               count = filteredItems.size();
 
               GroupItem item;
@@ -1439,14 +1454,9 @@ public class AppFragment extends Fragment {
 
                 matched = false;
 
-                if(NetworkLog.filterNameExclude || NetworkLog.filterUidExclude) {
-                  for(String c : NetworkLog.filterTextExcludeList) {
-                    if((NetworkLog.filterNameExclude && item.app.nameLowerCase.contains(c))
-                        || NetworkLog.filterUidExclude && item.app.uidString.equals(c)) 
-                    {
-                      matched = true;
-                    }
-                  }
+                if(excludeApp.hasFields()) {
+                  filterItem.app = item.app;
+                  matched = excludeApp.matches(filterItem);
                 } else {
                   matched = false;
                 }
@@ -1457,64 +1467,16 @@ public class AppFragment extends Fragment {
                   continue;
                 }
 
-                if(NetworkLog.filterAddressExclude || NetworkLog.filterPortExclude
-                    || NetworkLog.filterInterfaceExclude || NetworkLog.filterProtocolExclude) {
-                  List<String> list = new ArrayList<String>(item.childrenDataFiltered.keySet());
-                  Iterator<String> itr = list.iterator();
+                if(excludeConnection.hasFields()) {
+                  Iterator<ChildItem> itr = item.childrenDataFiltered.iterator();
                   while(itr.hasNext()) {
-                    host = itr.next();
-                    childData = item.childrenDataFiltered.get(host);
-
-                    matched = false;
-
-                    if(NetworkLog.resolveHosts) {
-                      sentAddressResolved = NetworkLog.resolver.resolveAddress(childData.sentAddress);
-
-                      if(sentAddressResolved == null) {
-                        sentAddressResolved = "";
-                      }
+                    childData = itr.next();
 
-                      receivedAddressResolved = NetworkLog.resolver.resolveAddress(childData.receivedAddress);
-
-                      if(receivedAddressResolved == null) {
-                        receivedAddressResolved = "";
-                      }
-                    } else {
-                      sentAddressResolved = "";
-                      receivedAddressResolved = "";
-                    }
-
-                    if(NetworkLog.resolvePorts) {
-                      sentPortResolved = NetworkLog.resolver.resolveService(String.valueOf(childData.sentPort));
-                      receivedPortResolved = NetworkLog.resolver.resolveService(String.valueOf(childData.receivedPort));
-                    } else {
-                      sentPortResolved = "";
-                      receivedPortResolved = "";
-                    }
-
-                    if(childData.in != null && childData.in.length() > 0) {
-                      iface = childData.in;
-                    } else {
-                      iface = childData.out;
-                    }
-
-                    for(String c : NetworkLog.filterTextExcludeList) {
-                      if((NetworkLog.filterAddressExclude && 
-                            ((childData.sentPackets > 0 && (childData.sentAddress.contains(c) || StringPool.getLowerCase(sentAddressResolved).contains(c)))
-                             || (childData.receivedPackets > 0 && (childData.receivedAddress.contains(c) || StringPool.getLowerCase(receivedAddressResolved).contains(c)))))
-                          || (NetworkLog.filterPortExclude && 
-                            ((childData.sentPackets > 0 && (String.valueOf(childData.sentPort).equals(c) || StringPool.getLowerCase(sentPortResolved).equals(c)))
-                             || (childData.receivedPackets > 0 && (String.valueOf(childData.receivedPort).equals(c) || StringPool.getLowerCase(receivedPortResolved).equals(c)))))
-                          || (NetworkLog.filterInterfaceExclude && iface.contains(c))
-                          || (NetworkLog.filterProtocolExclude && StringPool.getLowerCase(NetworkLog.resolver.resolveProtocol(childData.proto)).equals(c))) {
-                        matched = true;
-                        break;
-                          }
-                    }
+                    matched = excludeConnection.matches(getFilterItem(item, childData));
 
                     if(matched) {
-                      // MyLog.d("[AppFragment] removing filtered host [" + host + "] " + childData);
-                      item.childrenDataFiltered.remove(host);
+                      // MyLog.d("[AppFragment] removing filtered host " + childData);
+                      itr.remove();
                     }
                   }
 
@@ -1549,7 +1511,6 @@ public class AppFragment extends Fragment {
             groupData.clear();
             groupData.addAll((ArrayList<GroupItem>) results.values);
 
-            preSortData();
             sortData();
           }
           doNotRefresh = false;
@@ -1570,27 +1531,18 @@ public class AppFragment extends Fragment {
     @Override
       public Object getChild(int groupPosition, int childPosition) {
         GroupItem groupItem = groupData.get(groupPosition);
-        HashMap<String, ChildItem> children;
-
-        if(groupItem.childrenAreFiltered == false) {
-          children = groupItem.childrenData;
-        } else {
-          children = groupItem.childrenDataFiltered;
-        }
 
         if(groupItem.childrenNeedSort == true || groupItem.childrenDataSorted == null) {
           groupItem.childrenNeedSort = false;
+          updateSortedChildren(groupItem);
+        }
 
-          if(groupItem.childrenDataSorted == null || groupItem.childrenDataSorted.length < children.size()) {
-            groupItem.childrenDataSorted = new String[children.size()];
-          }
-
-          children.keySet().toArray(groupItem.childrenDataSorted);
-          childrenSortMethod.setGroupItem(groupItem);
-          Arrays.sort(groupItem.childrenDataSorted, (Comparator<String>) childrenSortMethod);
+        if(childPosition >= groupItem.childrenDataSorted.length) {
+          // added since sorting
+          return null;
         }
 
-        return children.get(groupItem.childrenDataSorted[childPosition]);
+        return groupItem.childrenDataSorted[childPosition];
       }
 
     @Override
@@ -1603,7 +1555,9 @@ public class AppFragment extends Fragment {
         GroupItem groupItem = groupData.get(groupPosition);
 
         if(groupItem.childrenAreFiltered == false) {
-          return groupItem.childrenData.size();
+          synchronized(groupItem.childrenData) {
+            return groupItem.childrenData.size();
+          }
         } else {
           return groupItem.childrenDataFiltered.size();
         }
@@ -1763,7 +1717,7 @@ public class AppFragment extends Fragment {
           final String sentPortString;
 
           if(NetworkLog.resolvePorts) {
-            sentPortString = NetworkLog.resolver.resolveService(String.valueOf(item.sentPort));
+            sentPortString = NetworkLog.resolver.resolveService(item.sentPort);
           } else {
             sentPortString = String.valueOf(item.sentPort);
           }
@@ -1778,12 +1732,9 @@ public class AppFragment extends Fragment {
             sentAddressString = NetworkLog.resolver.getResolvedAddress(item.sentAddress);
 
             if(sentAddressString == null) {
-              NetworkResolverUpdater updater = new NetworkResolverUpdater() {
+              NetworkResolverUpdater updater = new NetworkResolverUpdater(host, item.sentAddress) {
                 public void run() {
-                  String tag = (String) host.getTag();
-                  if(tag != null && tag.equals(item.sentAddress)) {
-                    host.setText(resolved + ":" + sentPortString + " (" + iface + ")");
-                  }
+                  ((TextView) getBoundView()).setText(resolved + ":" + sentPortString + " (" + iface + ")");
                 }
               };
 
@@ -1805,7 +1756,7 @@ public class AppFragment extends Fragment {
           final String receivedPortString;
 
           if(NetworkLog.resolvePorts) {
-            receivedPortString = NetworkLog.resolver.resolveService(String.valueOf(item.receivedPort));
+            receivedPortString = NetworkLog.resolver.resolveService(item.receivedPort);
           } else {
             receivedPortString = String.valueOf(item.receivedPort);
           }
@@ -1820,12 +1771,9 @@ public class AppFragment extends Fragment {
             receivedAddressString = NetworkLog.resolver.getResolvedAddress(item.receivedAddress);
 
             if(receivedAddressString == null) {
-              NetworkResolverUpdater updater = new NetworkResolverUpdater() {
+              NetworkResolverUpdater updater = new NetworkResolverUpdater(host, item.receivedAddress) {
                 public void run() {
-                  String tag = (String) host.getTag();
-                  if(tag != null && tag.equals(item.receivedAddress)) {
-                    host.setText(resolved + ":" + receivedPortString + " (" + iface + ")");
-                  }
+                  ((TextView) getBoundView()).setText(resolved + ":" + receivedPortString + " (" + iface + ")");
                 }
               };
 
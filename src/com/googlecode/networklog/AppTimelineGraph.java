@@ -76,14 +76,19 @@ public class AppTimelineGraph extends GraphActivity
 
       graphView.graphSeries.clear();
 
-      if(NetworkLog.logFragment == null || NetworkLog.logFragment.listData == null || NetworkLog.logFragment.listData.size() == 0) {
+      if(NetworkLog.logFragment == null || NetworkLog.logFragment.getItemCount() == 0) {
         SysUtils.showError(this, getString(R.string.graph_error_nodata_title), getString(R.string.graph_error_nodata_text));
         finish();
         return;
       }
 
-      synchronized(NetworkLog.logFragment.listData) {
-        for(LogFragment.ListItem item : NetworkLog.logFragment.listData) {
+      synchronized(NetworkLog.logFragment.logEntries) {
+        LogFragment.ListItem item = new LogFragment.ListItem();
+        int count = NetworkLog.logFragment.getItemCount();
+
+        for(int i = 0; i < count; i++) {
+          NetworkLog.logFragment.getItem(i, item);
+
           if(item.app.uid == app_uid) {
             //Log.d("NetworkLog", "Testing packet [" + (item.in == null ? "null" : item.in) + "] " + item.srcAddr + ":" + item.srcPort + " -> [" + (item.out == null ? "null" : item.out) + "] " + item.dstAddr + ":" + item.dstPort);
             try {
@@ -217,7 +222,7 @@ public class AppTimelineGraph extends GraphActivity
 
         final String portString;
         if(NetworkLog.resolvePorts) {
-          portString = NetworkLog.resolver.resolveService(String.valueOf(hostPort.port));
+          portString = NetworkLog.resolver.resolveService(hostPort.port);
         } else {
           portString = String.valueOf(hostPort.port);
         }
@@ -49,6 +49,7 @@ public class ApplicationsTracker {
     String packageName;
     int uid;
     String uidString;
+    int throughputIndex = -1; // index of ThroughputTracker data, once counted
 
     public String toString() {
       return "(" + uidString + ") " + name;
@@ -0,0 +1,362 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Compact binary logfile format.
+//
+// The logfile starts with a HEADER_SIZE header (magic + version) followed
+// by fixed-width RECORD_SIZE records, so records can be located by index
+// for seeking.  All values are big-endian:
+//
+//    0  timestamp   long
+//    8  uid         int
+//   12  in          int, dictionary id
+//   16  out         int, dictionary id
+//   20  src         int, dictionary id
+//   24  dst         int, dictionary id
+//   28  proto       int, dictionary id
+//   32  spt         unsigned short
+//   34  dpt         unsigned short
+//   36  len         int
+//
+// Strings are kept in an append-only dictionary file next to the logfile
+// (<logfile>.dict) as a sequence of [unsigned short length][UTF-8 bytes];
+// a string's id is its position in the sequence.  Dictionary entries are
+// always written before the records that use them.
+
+package com.googlecode.networklog;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class BinaryLogfile {
+  public static final int HEADER_SIZE = 32;
+  public static final int RECORD_SIZE = 40;
+  public static final int VERSION = 1;
+  static final byte[] MAGIC = { 'N', 'L', 'O', 'G' };
+  static final int MAX_STRING_LENGTH = 1024;
+
+  public static String getDictionaryFile(String logfile) {
+    return logfile + ".dict";
+  }
+
+  /**
+   * @return true if file exists and starts with the binary logfile magic
+   */
+  public static boolean isBinary(String filename) {
+    RandomAccessFile file = null;
+
+    try {
+      file = new RandomAccessFile(filename, "r");
+      return isBinary(file);
+    } catch(IOException e) {
+      return false;
+    } finally {
+      if(file != null) {
+        try {
+          file.close();
+        } catch(IOException e) {
+          // ignored
+        }
+      }
+    }
+  }
+
+  // leaves file positioned at the first record
+  static boolean isBinary(RandomAccessFile file) throws IOException {
+    if(file.length() < HEADER_SIZE) {
+      return false;
+    }
+
+    byte[] header = new byte[HEADER_SIZE];
+    file.seek(0);
+    file.readFully(header);
+
+    for(int i = 0; i < MAGIC.length; i++) {
+      if(header[i] != MAGIC[i]) {
+        file.seek(0);
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  public static void writeHeader(OutputStream output) throws IOException {
+    byte[] header = new byte[HEADER_SIZE];
+    System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+    putInt(header, 4, VERSION);
+    output.write(header);
+  }
+
+  static void putLong(byte[] buffer, int offset, long value) {
+    putInt(buffer, offset, (int) (value >>> 32));
+    putInt(buffer, offset + 4, (int) value);
+  }
+
+  static void putInt(byte[] buffer, int offset, int value) {
+    buffer[offset] = (byte) (value >>> 24);
+    buffer[offset + 1] = (byte) (value >>> 16);
+    buffer[offset + 2] = (byte) (value >>> 8);
+    buffer[offset + 3] = (byte) value;
+  }
+
+  static void putShort(byte[] buffer, int offset, int value) {
+    buffer[offset] = (byte) (value >>> 8);
+    buffer[offset + 1] = (byte) value;
+  }
+
+  static long getLong(byte[] buffer, int offset) {
+    return ((long) getInt(buffer, offset) << 32) | (getInt(buffer, offset + 4) & 0xffffffffL);
+  }
+
+  static int getInt(byte[] buffer, int offset) {
+    return ((buffer[offset] & 0xff) << 24)
+      | ((buffer[offset + 1] & 0xff) << 16)
+      | ((buffer[offset + 2] & 0xff) << 8)
+      | (buffer[offset + 3] & 0xff);
+  }
+
+  static int getShort(byte[] buffer, int offset) {
+    return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+  }
+
+  /**
+   * Encodes entries into records, adding unseen strings to the dictionary.
+   */
+  public static class Encoder {
+    String dictionaryFile;
+    HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    FileOutputStream dictionary;
+    long dictionaryLength;
+    boolean failed = false; // dictionary could not be restored after an error
+
+    // strings given ids since the last flushDictionary(), and their entries
+    ArrayList<String> staged = new ArrayList<String>();
+    byte[] pending = new byte[4096];
+    int pendingLength = 0;
+
+    public Encoder(String logfile) throws IOException {
+      dictionaryFile = getDictionaryFile(logfile);
+
+      // continue numbering after the strings already in the dictionary
+      Decoder decoder = new Decoder(logfile);
+      decoder.loadDictionary();
+
+      for(int i = 0; i < decoder.strings.size(); i++) {
+        ids.put(decoder.strings.get(i), i);
+      }
+
+      // drop a partial entry left by an interrupted write
+      File file = new File(dictionaryFile);
+
+      if(file.length() > decoder.dictionaryLength) {
+        RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+        truncate.setLength(decoder.dictionaryLength);
+        truncate.close();
+      }
+
+      dictionaryLength = decoder.dictionaryLength;
+      dictionary = new FileOutputStream(dictionaryFile, true);
+    }
+
+    public void encode(LogEntry entry, byte[] buffer, int offset) {
+      putLong(buffer, offset, entry.timestamp);
+      putInt(buffer, offset + 8, entry.uid);
+      putInt(buffer, offset + 12, getId(entry.in));
+      putInt(buffer, offset + 16, getId(entry.out));
+      putInt(buffer, offset + 20, getId(entry.src));
+      putInt(buffer, offset + 24, getId(entry.dst));
+      putInt(buffer, offset + 28, getId(entry.proto));
+      putShort(buffer, offset + 32, entry.spt);
+      putShort(buffer, offset + 34, entry.dpt);
+      putInt(buffer, offset + 36, entry.len);
+    }
+
+    int getId(String string) {
+      if(string == null) {
+        string = "";
+      }
+
+      Integer id = ids.get(string);
+
+      if(id != null) {
+        return id;
+      }
+
+      byte[] bytes;
+
+      try {
+        bytes = string.getBytes("UTF-8");
+      } catch(UnsupportedEncodingException e) {
+        bytes = string.getBytes();
+      }
+
+      int length = bytes.length > MAX_STRING_LENGTH ? MAX_STRING_LENGTH : bytes.length;
+
+      if(pendingLength + 2 + length > pending.length) {
+        byte[] newPending = new byte[(pendingLength + 2 + length) * 2];
+        System.arraycopy(pending, 0, newPending, 0, pendingLength);
+        pending = newPending;
+      }
+
+      putShort(pending, pendingLength, length);
+      System.arraycopy(bytes, 0, pending, pendingLength + 2, length);
+      pendingLength += 2 + length;
+
+      int newId = ids.size();
+      ids.put(string, newId);
+      staged.add(string);
+      return newId;
+    }
+
+    /**
+     * Writes out strings added since the last call; must be called before
+     * writing the records that use them, which must be dropped if it
+     * fails, as their strings are then given new ids.
+     */
+    public void flushDictionary() throws IOException {
+      if(failed) {
+        throw new IOException("Dictionary " + dictionaryFile + " is damaged");
+      }
+
+      if(pendingLength == 0) {
+        return;
+      }
+
+      try {
+        dictionary.write(pending, 0, pendingLength);
+      } catch(IOException e) {
+        for(String string : staged) {
+          ids.remove(string);
+        }
+
+        staged.clear();
+        pendingLength = 0;
+
+        try {
+          // drop whatever part was written
+          dictionary.getChannel().truncate(dictionaryLength);
+        } catch(IOException truncateException) {
+          failed = true;
+        }
+
+        throw e;
+      }
+
+      dictionaryLength += pendingLength;
+      staged.clear();
+      pendingLength = 0;
+    }
+
+    public void close() throws IOException {
+      try {
+        flushDictionary();
+      } finally {
+        dictionary.close();
+      }
+    }
+  }
+
+  /**
+   * Decodes records into entries using the dictionary.
+   */
+  public static class Decoder {
+    String dictionaryFile;
+    ArrayList<String> strings = new ArrayList<String>();
+    long dictionaryLength = 0;
+    byte[] bytes = new byte[256];
+    boolean reload = true; // false once shared between threads
+
+    public Decoder(String logfile) {
+      dictionaryFile = getDictionaryFile(logfile);
+    }
+
+    /**
+     * Reads dictionary entries appended since the last call.
+     */
+    public void loadDictionary() throws IOException {
+      File file = new File(dictionaryFile);
+
+      if(!file.exists() || file.length() <= dictionaryLength) {
+        return;
+      }
+
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      int length;
+
+      try {
+        long skipped = 0;
+
+        while(skipped < dictionaryLength) {
+          skipped += input.skip(dictionaryLength - skipped);
+        }
+
+        while(true) {
+          try {
+            length = input.readUnsignedShort();
+
+            if(length > bytes.length) {
+              bytes = new byte[length];
+            }
+
+            input.readFully(bytes, 0, length);
+          } catch(EOFException e) {
+            // end of dictionary, or an entry still being written
+            break;
+          }
+
+          strings.add(StringPool.get(new String(bytes, 0, length, "UTF-8")));
+          dictionaryLength += 2 + length;
+        }
+      } finally {
+        input.close();
+      }
+    }
+
+    String getString(int id) throws IOException {
+      if(id < 0) {
+        return "";
+      }
+
+      if(id >= strings.size()) {
+        if(reload) {
+          // dictionary grew since it was loaded
+          loadDictionary();
+        }
+
+        if(id >= strings.size()) {
+          return "";
+        }
+      }
+
+      return strings.get(id);
+    }
+
+    public void decode(byte[] buffer, int offset, LogEntry entry) throws IOException {
+      entry.timestamp = getLong(buffer, offset);
+      entry.uid = getInt(buffer, offset + 8);
+      entry.uidString = StringPool.get(entry.uid);
+      entry.in = getString(getInt(buffer, offset + 12));
+      entry.out = getString(getInt(buffer, offset + 16));
+      entry.src = getString(getInt(buffer, offset + 20));
+      entry.dst = getString(getInt(buffer, offset + 24));
+      entry.proto = getString(getInt(buffer, offset + 28));
+      entry.spt = getShort(buffer, offset + 32);
+      entry.dpt = getShort(buffer, offset + 34);
+      entry.len = getInt(buffer, offset + 36);
+    }
+  }
+}
@@ -80,6 +80,11 @@ public class ClearLog
 
       BufferedOutputStream fileWriter = new BufferedOutputStream(new FileOutputStream(file));
 
+      if(loader.isBinary()) {
+        // records are copied as-is; the string dictionary is left in place
+        BinaryLogfile.writeHeader(fileWriter);
+      }
+
       if(starting_pos != -1) {
         progress_max = (int)(length - starting_pos);
         progress = 0;
@@ -119,6 +124,13 @@ public class ClearLog
         if(!file.renameTo(logfile)) {
           Log.w("NetworkLog", "Failed to rename " + file + " to " + logfile);
         }
+
+        // shift the timestamp index along with the remaining entries
+        if(starting_pos != -1) {
+          LogfileIndex.truncate(logfile.getPath(), starting_pos, loader.isBinary() ? BinaryLogfile.HEADER_SIZE : 0);
+        } else {
+          new File(LogfileIndex.getIndexFile(logfile.getPath())).delete();
+        }
       } else {
         Log.w("NetworkLog", "Failed to delete " + logfile);
       }
@@ -0,0 +1,141 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Connections of one app, keyed by remote address, remote port, protocol
+// and interface.
+//
+// Keys are kept as parallel arrays next to the connections, in the order
+// they were added, and found through an open-addressing table of indexes
+// into them; so a lookup needs neither a key String built from the fields
+// nor a map entry.  The Strings are pooled, so comparing them mostly ends
+// at the reference check.
+//
+// The table is its own lock: callers synchronize on it around lookups,
+// additions and reads, so updates to different apps don't contend.
+
+package com.googlecode.networklog;
+
+public class ConnectionTable {
+  static final int INITIAL_CAPACITY = 8; // must be power of 2
+
+  String[] addresses;
+  int[] ports;
+  String[] protos;
+  String[] ifaces;
+  int[] hashes;
+  AppFragment.ChildItem[] children;
+  int size = 0;
+
+  // index + 1 of the connection in each slot; 0 if empty
+  int[] slots;
+  int mask;
+
+  public ConnectionTable() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  void allocate(int capacity) {
+    addresses = new String[capacity];
+    ports = new int[capacity];
+    protos = new String[capacity];
+    ifaces = new String[capacity];
+    hashes = new int[capacity];
+    children = new AppFragment.ChildItem[capacity];
+    // at most half full
+    slots = new int[capacity * 2];
+    mask = slots.length - 1;
+    size = 0;
+  }
+
+  void grow() {
+    String[] oldAddresses = addresses;
+    int[] oldPorts = ports;
+    String[] oldProtos = protos;
+    String[] oldIfaces = ifaces;
+    int[] oldHashes = hashes;
+    AppFragment.ChildItem[] oldChildren = children;
+    int oldSize = size;
+
+    allocate(addresses.length * 2);
+
+    for(int i = 0; i < oldSize; i++) {
+      insert(oldAddresses[i], oldPorts[i], oldProtos[i], oldIfaces[i], oldHashes[i], oldChildren[i]);
+    }
+  }
+
+  static int hash(String address, int port, String proto, String iface) {
+    int hash = address == null ? 0 : address.hashCode();
+    hash = 31 * hash + port;
+    hash = 31 * hash + (proto == null ? 0 : proto.hashCode());
+    hash = 31 * hash + (iface == null ? 0 : iface.hashCode());
+    return hash ^ (hash >>> 16);
+  }
+
+  static boolean same(String a, String b) {
+    return a == b || (a != null && a.equals(b));
+  }
+
+  /**
+   * @return connection with the key, or null if there is none
+   */
+  public AppFragment.ChildItem get(String address, int port, String proto, String iface) {
+    int hash = hash(address, port, proto, iface);
+    int index;
+
+    for(int slot = hash & mask; (index = slots[slot]) != 0; slot = (slot + 1) & mask) {
+      index--;
+
+      if(hashes[index] == hash && ports[index] == port && same(addresses[index], address)
+          && same(protos[index], proto) && same(ifaces[index], iface)) {
+        return children[index];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Adds a connection whose key is not in the table yet.
+   */
+  public void add(String address, int port, String proto, String iface, AppFragment.ChildItem child) {
+    if(size == addresses.length) {
+      grow();
+    }
+
+    insert(address, port, proto, iface, hash(address, port, proto, iface), child);
+  }
+
+  void insert(String address, int port, String proto, String iface, int hash, AppFragment.ChildItem child) {
+    int slot = hash & mask;
+
+    while(slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+
+    addresses[size] = address;
+    ports[size] = port;
+    protos[size] = proto;
+    ifaces[size] = iface;
+    hashes[size] = hash;
+    children[size] = child;
+    slots[slot] = ++size;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return connection at index, in the order they were added
+   */
+  public AppFragment.ChildItem get(int index) {
+    return children[index];
+  }
+
+  public void clear() {
+    allocate(INITIAL_CAPACITY);
+  }
+}
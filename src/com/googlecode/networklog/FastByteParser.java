@@ -0,0 +1,181 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+   */
+
+package com.googlecode.networklog;
+
+import java.lang.RuntimeException;
+import java.nio.ByteBuffer;
+
+// FastParser over ASCII bytes in a byte[] or ByteBuffer, so lines can be
+// parsed in place in a read buffer or mapped file without first being
+// widened into a char[]
+
+public class FastByteParser {
+  byte[] line;
+  ByteBuffer lineBuffer; // used instead of line if set
+  int start;
+  int len; // end of line
+  int pos;
+  byte delimiter;
+
+  public FastByteParser() {
+    this(' ');
+  }
+
+  public FastByteParser(char delimiter) {
+    this.delimiter = (byte) delimiter;
+  }
+
+  public void setLine(byte[] line, int len) {
+    setLine(line, 0, len);
+  }
+
+  /**
+   * Parses line[start] up to line[end].
+   */
+  public void setLine(byte[] line, int start, int end) {
+    if(MyLog.enabled && MyLog.level >= 6) {
+      MyLog.d(6, "setLine line: [" + new String(line, start, end - start) + "] len: " + (end - start));
+    }
+    this.line = line;
+    this.lineBuffer = null;
+    this.start = start;
+    this.len = end;
+    pos = start;
+  }
+
+  /**
+   * Parses buffer.get(start) up to buffer.get(end), ignoring the buffer's
+   * position and limit.
+   */
+  public void setLine(ByteBuffer buffer, int start, int end) {
+    this.line = null;
+    this.lineBuffer = buffer;
+    this.start = start;
+    this.len = end;
+    pos = start;
+  }
+
+  byte at(int index) {
+    return line != null ? line[index] : lineBuffer.get(index);
+  }
+
+  String substring(int from) {
+    StringBuilder sb = new StringBuilder(len - from);
+
+    for(int i = from; i < len; i++) {
+      sb.append((char) (at(i) & 0xff));
+    }
+
+    return sb.toString();
+  }
+
+  public void setDelimiter(char delimiter) {
+    this.delimiter = (byte) delimiter;
+  }
+
+  public long getLong() {
+    int newpos = pos;
+    long value = 0;
+    boolean neg = false;
+
+    if(pos >= len) {
+      throw new RuntimeException("pos at end of string");
+    }
+
+    if(at(pos) == '-') {
+      neg = true;
+      newpos++;
+    }
+
+    if(at(pos) == '+') {
+      pos++;
+      newpos++;
+    }
+
+    byte thisbyte = 0;
+
+    while(newpos < len && (thisbyte = at(newpos)) != delimiter && thisbyte >= '0' && thisbyte <= '9') {
+      value = value * 10 + (thisbyte - '0');
+      newpos++;
+    }
+
+    if(pos == newpos) {
+      throw new RuntimeException("expected long but found [" + (char) at(pos) + "] in [" + substring(pos) + "]");
+    }
+
+    pos = newpos;
+    eatDelimiter();
+    return neg ? -value : value;
+  }
+
+  public int getInt() {
+    int newpos = pos;
+    int value = 0;
+    boolean neg = false;
+
+    if(pos >= len) {
+      throw new RuntimeException("pos at end of string");
+    }
+
+    if(at(pos) == '-') {
+      neg = true;
+      newpos++;
+    }
+
+    if(at(pos) == '+') {
+      pos++;
+      newpos++;
+    }
+
+    byte thisbyte = 0;
+
+    while(newpos < len && (thisbyte = at(newpos)) != delimiter && thisbyte >= '0' && thisbyte <= '9') {
+      value = value * 10 + (thisbyte - '0');
+      newpos++;
+    }
+
+    if(pos == newpos) {
+      throw new RuntimeException("expected int but found [" + (char) at(pos) + "] in [" + substring(pos) + "]");
+    }
+
+    pos = newpos;
+    eatDelimiter();
+    return neg ? -value : value;
+  }
+
+  public String getString() {
+    int newpos = pos;
+    String value;
+
+    while(newpos < len && at(newpos) != delimiter) {
+      newpos++;
+    }
+
+    if(pos == newpos) {
+      value = "";
+    } else if(line != null) {
+      value = StringPool.get(line, pos, newpos - pos);
+    } else {
+      value = StringPool.get(lineBuffer, pos, newpos - pos);
+    }
+
+    pos = newpos;
+    eatDelimiter();
+    return value;
+  }
+
+  public void eatDelimiter() {
+    if(pos < len && at(pos) != delimiter) {
+      throw new RuntimeException("expected [" + (char) delimiter + "] but got " + (char) at(pos) + " in [" + substring(pos) + "]");
+    }
+    pos++;
+  }
+
+  public boolean hasMore() {
+    return pos < len;
+  }
+}
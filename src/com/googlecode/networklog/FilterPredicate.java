@@ -0,0 +1,300 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Filter terms compiled for the fields they are matched against.
+//
+// Each term becomes a test per enabled field, and an item matches if any
+// test does.  Whatever can be worked out from the term alone is done once
+// here rather than per item: uid and port terms become ints, service and
+// protocol names become the ports and protocol numbers they name, and
+// substring tests know the first char to look for.  Testing an item does
+// not allocate.
+
+package com.googlecode.networklog;
+
+import java.util.ArrayList;
+
+public class FilterPredicate {
+  // fields of an entry or connection being tested
+  public static class Item {
+    ApplicationsTracker.AppEntry app;
+    String in;
+    String out;
+    String proto;
+    String srcAddr; // null to skip
+    int srcPort; // -1 to skip
+    String dstAddr; // null to skip
+    int dstPort; // -1 to skip
+
+    // hostnames found for the addresses; lookups that found none are retried
+    String srcAddrResolvedFor;
+    String srcAddrResolved;
+    String dstAddrResolvedFor;
+    String dstAddrResolved;
+
+    String getInterface() {
+      return in != null && in.length() > 0 ? in : out;
+    }
+
+    String getSrcAddrResolved() {
+      if(srcAddrResolvedFor != srcAddr || srcAddrResolved == null) {
+        srcAddrResolved = NetworkLog.resolver.resolveAddress(srcAddr);
+        srcAddrResolvedFor = srcAddr;
+      }
+
+      return srcAddrResolved;
+    }
+
+    String getDstAddrResolved() {
+      if(dstAddrResolvedFor != dstAddr || dstAddrResolved == null) {
+        dstAddrResolved = NetworkLog.resolver.resolveAddress(dstAddr);
+        dstAddrResolvedFor = dstAddr;
+      }
+
+      return dstAddrResolved;
+    }
+  }
+
+  static abstract class Test {
+    abstract boolean matches(Item item);
+  }
+
+  // term contained in a string, ignoring case of the string
+  static abstract class ContainsTest extends Test {
+    final String term;
+    final int length;
+    final char lower;
+    final char upper;
+
+    ContainsTest(String term) {
+      this.term = term;
+      length = term.length();
+      lower = length > 0 ? Character.toLowerCase(term.charAt(0)) : 0;
+      upper = length > 0 ? Character.toUpperCase(term.charAt(0)) : 0;
+    }
+
+    boolean contains(String string) {
+      if(string == null) {
+        return false;
+      }
+
+      if(length == 0) {
+        return true;
+      }
+
+      char c;
+
+      for(int i = 0, last = string.length() - length; i <= last; i++) {
+        c = string.charAt(i);
+
+        if((c == lower || c == upper) && string.regionMatches(true, i + 1, term, 1, length - 1)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+
+  static class NameTest extends Test {
+    final String term;
+
+    NameTest(String term) {
+      this.term = term;
+    }
+
+    boolean matches(Item item) {
+      return item.app.nameLowerCase.contains(term);
+    }
+  }
+
+  static class UidTest extends Test {
+    final int uid;
+
+    UidTest(int uid) {
+      this.uid = uid;
+    }
+
+    boolean matches(Item item) {
+      return item.app.uid == uid;
+    }
+  }
+
+  static class AddressTest extends ContainsTest {
+    final boolean resolveHosts;
+
+    AddressTest(String term, boolean resolveHosts) {
+      super(term);
+      this.resolveHosts = resolveHosts;
+    }
+
+    boolean matches(Item item) {
+      if(item.srcAddr != null && (item.srcAddr.contains(term) || (resolveHosts && contains(item.getSrcAddrResolved())))) {
+        return true;
+      }
+
+      return item.dstAddr != null && (item.dstAddr.contains(term) || (resolveHosts && contains(item.getDstAddrResolved())));
+    }
+  }
+
+  static class PortTest extends Test {
+    final int[] ports;
+
+    PortTest(int[] ports) {
+      this.ports = ports;
+    }
+
+    boolean matches(Item item) {
+      for(int port : ports) {
+        if(item.srcPort == port || item.dstPort == port) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+
+  static class InterfaceTest extends ContainsTest {
+    InterfaceTest(String term) {
+      super(term);
+    }
+
+    boolean matches(Item item) {
+      String iface = item.getInterface();
+      return iface != null && iface.contains(term);
+    }
+  }
+
+  static class ProtocolTest extends Test {
+    final String term;
+    final String[] protocols; // protocol numbers named term
+
+    ProtocolTest(String term, String[] protocols) {
+      this.term = term;
+      this.protocols = protocols;
+    }
+
+    boolean matches(Item item) {
+      if(item.proto == null) {
+        return false;
+      }
+
+      if(item.proto.equalsIgnoreCase(term)) {
+        return true;
+      }
+
+      for(String protocol : protocols) {
+        if(item.proto.equals(protocol)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+
+  static final int NOT_A_NUMBER = Integer.MIN_VALUE;
+
+  final Test[] tests;
+  final int fields;
+
+  FilterPredicate(Test[] tests, int fields) {
+    this.tests = tests;
+    this.fields = fields;
+  }
+
+  /**
+   * @param terms lower case terms
+   * @param fields FilterSettings field flags to match terms against
+   */
+  public static FilterPredicate compile(String[] terms, int fields, boolean resolveHosts, boolean resolvePorts) {
+    ArrayList<Test> tests = new ArrayList<Test>();
+
+    for(String term : terms) {
+      int number = parseNumber(term);
+
+      if((fields & FilterSettings.NAME) != 0) {
+        tests.add(new NameTest(term));
+      }
+
+      if((fields & FilterSettings.UID) != 0 && number != NOT_A_NUMBER) {
+        tests.add(new UidTest(number));
+      }
+
+      if((fields & FilterSettings.ADDRESS) != 0) {
+        tests.add(new AddressTest(term, resolveHosts));
+      }
+
+      if((fields & FilterSettings.PORT) != 0) {
+        int[] ports;
+
+        if(number >= 0 && number <= 65535) {
+          ports = new int[] { number };
+        } else if(resolvePorts && number == NOT_A_NUMBER) {
+          ports = NetworkLog.resolver.getServicePorts(term);
+        } else {
+          ports = new int[0];
+        }
+
+        if(ports.length > 0) {
+          tests.add(new PortTest(ports));
+        }
+      }
+
+      if((fields & FilterSettings.INTERFACE) != 0) {
+        tests.add(new InterfaceTest(term));
+      }
+
+      if((fields & FilterSettings.PROTOCOL) != 0) {
+        tests.add(new ProtocolTest(term, NetworkLog.resolver.getProtocols(term)));
+      }
+    }
+
+    return new FilterPredicate(tests.toArray(new Test[tests.size()]), fields);
+  }
+
+  // value of a term written as an int the way String.valueOf() would
+  static int parseNumber(String term) {
+    int length = term.length();
+    int start = length > 0 && term.charAt(0) == '-' ? 1 : 0;
+
+    if(length == start || length - start > 9 || (term.charAt(start) == '0' && length > 1)) {
+      return NOT_A_NUMBER;
+    }
+
+    int value = 0;
+
+    for(int i = start; i < length; i++) {
+      char c = term.charAt(i);
+
+      if(c < '0' || c > '9') {
+        return NOT_A_NUMBER;
+      }
+
+      value = value * 10 + (c - '0');
+    }
+
+    return start == 1 ? -value : value;
+  }
+
+  /**
+   * @return whether terms are matched against any field
+   */
+  public boolean hasFields() {
+    return fields != 0;
+  }
+
+  public boolean matches(Item item) {
+    for(Test test : tests) {
+      if(test.matches(item)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,179 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Snapshot of the filter settings of NetworkLog, with its terms compiled
+// into FilterPredicates.
+//
+// A list filtered with one snapshot can be brought up to date with a newer
+// one without testing every entry again: if the new filter is narrower,
+// only the entries in the list can still match; if it is wider, the entries
+// in the list still match and only the others need testing.
+//
+// An entry matches a set of terms if any term matches any of the enabled
+// fields.  Name, address and interface fields match terms they contain,
+// while uid, port and protocol fields must equal the term; so a longer term
+// containing an older one only matches a subset when no field of the latter
+// kind is enabled.
+
+package com.googlecode.networklog;
+
+public class FilterSettings {
+  static final int NAME = 1;
+  static final int UID = 2;
+  static final int ADDRESS = 4;
+  static final int PORT = 8;
+  static final int INTERFACE = 16;
+  static final int PROTOCOL = 32;
+
+  // fields that must equal a term to match
+  static final int EXACT_FIELDS = UID | PORT | PROTOCOL;
+
+  // fields of an app, and of one of its connections
+  static final int APP_FIELDS = NAME | UID;
+  static final int CONNECTION_FIELDS = ADDRESS | PORT | INTERFACE | PROTOCOL;
+
+  static final String[] NO_TERMS = new String[0];
+
+  String[] include;
+  int includeFields;
+  String[] exclude;
+  int excludeFields;
+  boolean resolveHosts;
+  boolean resolvePorts;
+
+  FilterPredicate includePredicate;
+  FilterPredicate excludePredicate;
+
+  public static FilterSettings capture() {
+    FilterSettings settings = new FilterSettings();
+
+    // the lists keep their old terms once the text is emptied
+    if(NetworkLog.filterTextInclude.length() > 0) {
+      settings.include = NetworkLog.filterTextIncludeList.toArray(NO_TERMS);
+    } else {
+      settings.include = NO_TERMS;
+    }
+
+    if(NetworkLog.filterTextExclude.length() > 0) {
+      settings.exclude = NetworkLog.filterTextExcludeList.toArray(NO_TERMS);
+    } else {
+      settings.exclude = NO_TERMS;
+    }
+
+    settings.includeFields = getFields(NetworkLog.filterNameInclude, NetworkLog.filterUidInclude,
+        NetworkLog.filterAddressInclude, NetworkLog.filterPortInclude,
+        NetworkLog.filterInterfaceInclude, NetworkLog.filterProtocolInclude);
+
+    settings.excludeFields = getFields(NetworkLog.filterNameExclude, NetworkLog.filterUidExclude,
+        NetworkLog.filterAddressExclude, NetworkLog.filterPortExclude,
+        NetworkLog.filterInterfaceExclude, NetworkLog.filterProtocolExclude);
+
+    settings.resolveHosts = NetworkLog.resolveHosts;
+    settings.resolvePorts = NetworkLog.resolvePorts;
+
+    settings.includePredicate = settings.compileInclude(settings.includeFields);
+    settings.excludePredicate = settings.compileExclude(settings.excludeFields);
+    return settings;
+  }
+
+  static int getFields(boolean name, boolean uid, boolean address, boolean port, boolean iface, boolean protocol) {
+    return (name ? NAME : 0) | (uid ? UID : 0) | (address ? ADDRESS : 0)
+      | (port ? PORT : 0) | (iface ? INTERFACE : 0) | (protocol ? PROTOCOL : 0);
+  }
+
+  public boolean hasIncludeTerms() {
+    return include.length > 0;
+  }
+
+  public boolean hasExcludeTerms() {
+    return exclude.length > 0;
+  }
+
+  public boolean isActive() {
+    return include.length > 0 || exclude.length > 0;
+  }
+
+  /**
+   * @return include terms compiled for those of fields they are enabled for
+   */
+  public FilterPredicate compileInclude(int fields) {
+    return FilterPredicate.compile(include, includeFields & fields, resolveHosts, resolvePorts);
+  }
+
+  /**
+   * @return exclude terms compiled for those of fields they are enabled for
+   */
+  public FilterPredicate compileExclude(int fields) {
+    return FilterPredicate.compile(exclude, excludeFields & fields, resolveHosts, resolvePorts);
+  }
+
+  /**
+   * @return true if item matches an include term, if any, and no exclude term
+   */
+  public boolean matches(FilterPredicate.Item item) {
+    if(include.length > 0 && !includePredicate.matches(item)) {
+      return false;
+    }
+
+    if(exclude.length > 0 && excludePredicate.matches(item)) {
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * @return true if every entry matching this filter also matches other,
+   * i.e. this filter is at most as wide as other
+   */
+  public boolean isNarrowerThan(FilterSettings other) {
+    if(resolveHosts != other.resolveHosts || resolvePorts != other.resolvePorts) {
+      return false;
+    }
+
+    // hostnames resolved since an entry was filtered may change whether it
+    // matches
+    if(resolveHosts && ((includeFields | excludeFields | other.includeFields | other.excludeFields) & ADDRESS) != 0) {
+      return false;
+    }
+
+    // no include terms include everything
+    boolean includeNarrower = other.include.length == 0
+      || (include.length > 0 && matchesSubset(include, includeFields, other.include, other.includeFields));
+
+    // no exclude terms exclude nothing
+    boolean excludeWider = other.exclude.length == 0
+      || (exclude.length > 0 && matchesSubset(other.exclude, other.excludeFields, exclude, excludeFields));
+
+    return includeNarrower && excludeWider;
+  }
+
+  // whether whatever matches terms on fields also matches otherTerms on otherFields
+  static boolean matchesSubset(String[] terms, int fields, String[] otherTerms, int otherFields) {
+    if((fields & ~otherFields) != 0) {
+      return false;
+    }
+
+    boolean containsOnly = (fields & EXACT_FIELDS) == 0;
+
+    for(String term : terms) {
+      boolean covered = false;
+
+      for(String otherTerm : otherTerms) {
+        if(term.equals(otherTerm) || (containsOnly && term.contains(otherTerm))) {
+          covered = true;
+          break;
+        }
+      }
+
+      if(!covered) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
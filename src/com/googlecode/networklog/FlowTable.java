@@ -0,0 +1,266 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Open-addressing map of IPv4 flow (src, spt, dst, dpt, proto) to uid
+// using primitive arrays, with time-based eviction
+
+package com.googlecode.networklog;
+
+import java.util.Arrays;
+
+public class FlowTable {
+  public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+  final static int defaultCapacity = 8192; // must be power of 2
+  final static long defaultTtl = 30 * 60 * 1000;
+
+  int capacity;
+  int mask;
+  int maxSize;
+  int size;
+  long ttl;
+
+  // slot is used if used[slot] is true
+  boolean[] used;
+  int[] srcs;
+  int[] dsts;
+  int[] ports; // spt << 16 | dpt
+  int[] protos;
+  int[] uids;
+  long[] lastUsed;
+
+  public FlowTable() {
+    this(defaultCapacity, defaultTtl);
+  }
+
+  public FlowTable(int capacity, long ttl) {
+    this.capacity = capacity;
+    this.ttl = ttl;
+    mask = capacity - 1;
+    maxSize = capacity / 4 * 3;
+    allocate();
+  }
+
+  private void allocate() {
+    used = new boolean[capacity];
+    srcs = new int[capacity];
+    dsts = new int[capacity];
+    ports = new int[capacity];
+    protos = new int[capacity];
+    uids = new int[capacity];
+    lastUsed = new long[capacity];
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    allocate();
+  }
+
+  /**
+   * @return uid of flow, or NOT_FOUND
+   */
+  public int get(int src, int spt, int dst, int dpt, int proto) {
+    int port = (spt << 16) | (dpt & 0xffff);
+    int slot = hash(src, dst, port, proto) & mask;
+
+    while(used[slot]) {
+      if(srcs[slot] == src && dsts[slot] == dst && ports[slot] == port && protos[slot] == proto) {
+        lastUsed[slot] = System.currentTimeMillis();
+        return uids[slot];
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return NOT_FOUND;
+  }
+
+  public void put(int src, int spt, int dst, int dpt, int proto, int uid) {
+    if(size >= maxSize) {
+      evict();
+    }
+
+    int port = (spt << 16) | (dpt & 0xffff);
+    int slot = hash(src, dst, port, proto) & mask;
+
+    while(used[slot]) {
+      if(srcs[slot] == src && dsts[slot] == dst && ports[slot] == port && protos[slot] == proto) {
+        break;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    if(!used[slot]) {
+      used[slot] = true;
+      srcs[slot] = src;
+      dsts[slot] = dst;
+      ports[slot] = port;
+      protos[slot] = proto;
+      size++;
+    }
+
+    uids[slot] = uid;
+    lastUsed[slot] = System.currentTimeMillis();
+  }
+
+  // drops flows unused for longer than ttl; if that frees less than a
+  // quarter of the flows, drops the least recently used quarter instead so
+  // that evicting again is not needed right away.  Flows used at the same
+  // time, e.g. all those added from one netstat refresh, are dropped in
+  // slot order so that exactly a quarter goes.
+  void evict() {
+    long cutoff = System.currentTimeMillis() - ttl;
+    long[] times = new long[size];
+    int expired = 0;
+    int n = 0;
+
+    for(int i = 0; i < capacity; i++) {
+      if(used[i]) {
+        times[n++] = lastUsed[i];
+
+        if(lastUsed[i] < cutoff) {
+          expired++;
+        }
+      }
+    }
+
+    int minEvicted = size / 4;
+    int tiedEvicted = 0; // flows used at cutoff that are also dropped
+
+    if(expired < minEvicted) {
+      // the minEvicted-th least recently used flow and those before it
+      Arrays.sort(times, 0, n);
+      cutoff = times[minEvicted - 1];
+      tiedEvicted = minEvicted;
+
+      for(int i = 0; i < minEvicted - 1 && times[i] < cutoff; i++) {
+        tiedEvicted--;
+      }
+    }
+
+    if(MyLog.enabled) {
+      MyLog.d("[FlowTable] Evicting flows unused since " + cutoff + " and " + tiedEvicted + " used then; size: " + size);
+    }
+
+    // rehash survivors into fresh arrays
+    boolean[] oldUsed = used;
+    int[] oldSrcs = srcs;
+    int[] oldDsts = dsts;
+    int[] oldPorts = ports;
+    int[] oldProtos = protos;
+    int[] oldUids = uids;
+    long[] oldLastUsed = lastUsed;
+
+    allocate();
+
+    int slot;
+    for(int i = 0; i < capacity; i++) {
+      if(!oldUsed[i] || oldLastUsed[i] < cutoff) {
+        continue;
+      }
+
+      if(oldLastUsed[i] == cutoff && tiedEvicted > 0) {
+        tiedEvicted--;
+        continue;
+      }
+
+      slot = hash(oldSrcs[i], oldDsts[i], oldPorts[i], oldProtos[i]) & mask;
+
+      while(used[slot]) {
+        slot = (slot + 1) & mask;
+      }
+
+      used[slot] = true;
+      srcs[slot] = oldSrcs[i];
+      dsts[slot] = oldDsts[i];
+      ports[slot] = oldPorts[i];
+      protos[slot] = oldProtos[i];
+      uids[slot] = oldUids[i];
+      lastUsed[slot] = oldLastUsed[i];
+      size++;
+    }
+  }
+
+  static int hash(int src, int dst, int port, int proto) {
+    int h = src * 31 + dst;
+    h = h * 31 + port;
+    h = h * 31 + proto;
+    // spread bits since only the low bits select the slot
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
+
+  /**
+   * Packs dotted IPv4 address into an int
+   * @return packed address in the low 32 bits, or -1 if not IPv4
+   */
+  public static long parseAddress(String address) {
+    if(address == null) {
+      return -1;
+    }
+
+    int length = address.length();
+    long result = 0;
+    int octet = 0;
+    int digits = 0;
+    int dots = 0;
+    char c;
+
+    for(int i = 0; i < length; i++) {
+      c = address.charAt(i);
+
+      if(c >= '0' && c <= '9') {
+        octet = octet * 10 + (c - '0');
+
+        if(++digits > 3 || octet > 255) {
+          return -1;
+        }
+      } else if(c == '.' && digits > 0 && dots < 3) {
+        result = (result << 8) | octet;
+        octet = 0;
+        digits = 0;
+        dots++;
+      } else {
+        return -1;
+      }
+    }
+
+    if(dots != 3 || digits == 0) {
+      return -1;
+    }
+
+    return (result << 8) | octet;
+  }
+
+  public static int getProtocolNumber(String proto) {
+    if(proto == null) {
+      return 0;
+    }
+
+    if(proto.equals("TCP")) {
+      return 6;
+    } else if(proto.equals("UDP")) {
+      return 17;
+    } else if(proto.equals("ICMP")) {
+      return 1;
+    }
+
+    if(proto.length() > 0 && proto.charAt(0) >= '0' && proto.charAt(0) <= '9') {
+      try {
+        return Integer.parseInt(proto);
+      } catch(NumberFormatException e) {
+        return 0;
+      }
+    }
+
+    return 0;
+  }
+}
@@ -81,8 +81,16 @@ public class HistoryLoader {
         }
 
         starting_pos = loader.seekToTimestampPosition(latest - history_size);
+
+        if (starting_pos == -1) {
+          // nothing to read
+          loader.closeLogfile();
+          return;
+        }
       }
 
+      loader.startMappedRead(starting_pos);
+
       dialog_max = (int)(length - starting_pos);
       dialog_progress = 0;
       
@@ -154,7 +162,7 @@ public class HistoryLoader {
                 NetworkLog.logFragment.setDoNotRefresh(false);
                 NetworkLog.appFragment.setDoNotRefresh(false);
 
-                StringPool.clearCharPool();
+                StringPool.logStats();
                 NetworkLog.logFragment.appFragmentNeedsRebuild = true;
                 NetworkLog.logFragment.updaterRunOnce();
 
@@ -0,0 +1,193 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Hostnames found by HostResolver, kept on disk so they are known again
+// right after a restart.
+//
+// The file is a MAGIC header followed by records of the time the entry
+// expires, the address and its hostname, empty if it has none.  Each
+// lookup appends a record, written in one call so that a record is never
+// interleaved with another; a later record of an address replaces earlier
+// ones.  Once the file holds many more records than addresses it is
+// rewritten with only the latest record of each.  A partial record left by
+// an interrupted write is cut off when loading.
+
+package com.googlecode.networklog;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class HostCacheFile {
+  static final int MAGIC = 0x4e4c4843; // "NLHC"
+  static final int MAX_FILE_SIZE = 4 * 1024 * 1024;
+
+  // records kept beyond those of the addresses cached before rewriting
+  static final int MAX_STALE_RECORDS = HostResolver.MAX_CACHED;
+
+  // expired entries older than this are not loaded
+  static final long MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+  final File file;
+  FileOutputStream output;
+  int records = 0;
+
+  public HostCacheFile(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @return entries in the order they were written, the latest of each
+   * address last
+   */
+  public synchronized LinkedHashMap<String, HostResolver.CacheEntry> load() {
+    LinkedHashMap<String, HostResolver.CacheEntry> entries = new LinkedHashMap<String, HostResolver.CacheEntry>();
+    records = 0;
+
+    if(!file.exists() || file.length() > MAX_FILE_SIZE) {
+      file.delete();
+      return entries;
+    }
+
+    try {
+      byte[] bytes = new byte[(int) file.length()];
+      DataInputStream input = new DataInputStream(new FileInputStream(file));
+      input.readFully(bytes);
+      input.close();
+
+      ByteArrayInputStream buffer = new ByteArrayInputStream(bytes);
+      DataInputStream reader = new DataInputStream(buffer);
+      long oldest = System.currentTimeMillis() - MAX_AGE;
+      int length = 0;
+
+      if(reader.readInt() != MAGIC) {
+        file.delete();
+        return entries;
+      }
+
+      try {
+        while(true) {
+          length = bytes.length - buffer.available();
+
+          long expires = reader.readLong();
+          String address = StringPool.get(reader.readUTF());
+          String hostname = reader.readUTF();
+
+          records++;
+          entries.remove(address);
+
+          if(expires > oldest) {
+            entries.put(address, new HostResolver.CacheEntry(hostname.length() > 0 ? hostname : null, expires));
+          }
+        }
+      } catch(EOFException e) {
+        // end of file, or a partial record
+      }
+
+      if(length < bytes.length) {
+        RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+        truncate.setLength(length);
+        truncate.close();
+      }
+    } catch(IOException e) {
+      Log.w("NetworkLog", "Exception loading hostname cache", e);
+      file.delete();
+      entries.clear();
+      records = 0;
+    }
+
+    return entries;
+  }
+
+  static byte[] encode(String address, HostResolver.CacheEntry entry) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    DataOutputStream record = new DataOutputStream(bytes);
+    record.writeLong(entry.expires);
+    record.writeUTF(address);
+    record.writeUTF(entry.hostname != null ? entry.hostname : "");
+    record.close();
+    return bytes.toByteArray();
+  }
+
+  public synchronized void append(String address, HostResolver.CacheEntry entry) {
+    try {
+      if(output == null) {
+        boolean exists = file.length() > 0;
+        output = new FileOutputStream(file, true);
+
+        if(!exists) {
+          new DataOutputStream(output).writeInt(MAGIC);
+        }
+      }
+
+      output.write(encode(address, entry));
+      output.flush();
+      records++;
+    } catch(IOException e) {
+      Log.w("NetworkLog", "Exception writing hostname cache", e);
+      close();
+    }
+  }
+
+  /**
+   * @return whether the file holds enough superseded records to be rewritten
+   */
+  public synchronized boolean needsRewrite(int cached) {
+    return records > cached + MAX_STALE_RECORDS;
+  }
+
+  /**
+   * Replaces the file with a record for each of entries.
+   */
+  public synchronized void rewrite(Map<String, HostResolver.CacheEntry> entries) {
+    close();
+
+    File newFile = new File(file.getPath() + ".new");
+
+    try {
+      DataOutputStream newOutput = new DataOutputStream(new FileOutputStream(newFile));
+      newOutput.writeInt(MAGIC);
+
+      for(Map.Entry<String, HostResolver.CacheEntry> entry : entries.entrySet()) {
+        newOutput.write(encode(entry.getKey(), entry.getValue()));
+      }
+
+      newOutput.close();
+
+      if(!newFile.renameTo(file)) {
+        throw new IOException("Failed to rename " + newFile + " to " + file);
+      }
+
+      records = entries.size();
+    } catch(IOException e) {
+      Log.w("NetworkLog", "Exception rewriting hostname cache", e);
+      newFile.delete();
+    }
+  }
+
+  public synchronized void close() {
+    if(output != null) {
+      try {
+        output.close();
+      } catch(IOException e) {
+        // ignored
+      }
+
+      output = null;
+    }
+  }
+}
@@ -0,0 +1,361 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Resolves addresses to hostnames on a small pool of worker threads.
+//
+// An address is queued once however often it is asked for while waiting;
+// callers get null meanwhile and, if they passed an updater, have it run
+// once the hostname is found.  Updaters of lookups finishing together are
+// run in one batch on the UI thread, at most once per BATCH_DELAY, and
+// only the latest updater of a view is kept.  When the queue is full the
+// address that has waited longest is dropped, as it has most likely
+// scrolled out of view.  Workers are started as addresses are queued, up
+// to WORKERS, and exit after idling for IDLE_TIMEOUT.
+//
+// Hostnames are kept for TTL in a cache of at most MAX_CACHED addresses,
+// dropping the least recently used.  Addresses without a hostname, or whose
+// lookup failed, are kept for NEGATIVE_TTL so they are not looked up again
+// on every refresh.  An expired hostname is still returned while it is
+// looked up again.
+//
+// Given a HostCacheFile, lookups are also written to it, and what it holds
+// is loaded on a thread of its own; lookups wait for it to be loaded and
+// are skipped for addresses it knows.
+//
+// Lookups go through a Lookup, so a stub can stand in for DNS.
+
+package com.googlecode.networklog;
+
+import android.util.Log;
+import android.view.View;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class HostResolver {
+  public interface Lookup {
+    /**
+     * @return hostname of address, or address itself if it has none
+     */
+    public String lookup(String address) throws Exception;
+  }
+
+  public static final Lookup DNS = new Lookup() {
+    public String lookup(String address) throws Exception {
+      return InetAddress.getByName(address).getHostName();
+    }
+  };
+
+  static final int WORKERS = 4;
+  static final int MAX_QUEUED = 256;
+  static final int MAX_CACHED = 2048;
+  static final long TTL = 60 * 60 * 1000;
+  static final long NEGATIVE_TTL = 5 * 60 * 1000;
+  static final long IDLE_TIMEOUT = 30 * 1000;
+  static final long BATCH_DELAY = 16; // about a frame
+
+  static class CacheEntry {
+    final String hostname; // null if address has none
+    final long expires;
+
+    CacheEntry(String hostname, long expires) {
+      this.hostname = hostname;
+      this.expires = expires;
+    }
+  }
+
+  final Lookup lookup;
+  final HostCacheFile cacheFile;
+
+  // the following are guarded by this
+  final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+    @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+        return size() > MAX_CACHED;
+      }
+  };
+
+  // addresses queued or being looked up, with the updaters waiting for them
+  final HashMap<String, ArrayList<NetworkResolverUpdater>> pending = new HashMap<String, ArrayList<NetworkResolverUpdater>>();
+  final ArrayDeque<String> queue = new ArrayDeque<String>();
+  int workers = 0;
+  int idleWorkers = 0;
+  boolean loaded;
+
+  // updaters of finished lookups waiting to be run
+  ArrayList<NetworkResolverUpdater> batch = new ArrayList<NetworkResolverUpdater>();
+  boolean batchPosted = false;
+
+  public HostResolver(Lookup lookup, HostCacheFile cacheFile) {
+    this.lookup = lookup;
+    this.cacheFile = cacheFile;
+    loaded = cacheFile == null;
+
+    if(cacheFile != null) {
+      new Thread(new Runnable() {
+        public void run() {
+          load();
+        }
+      }, "HostCacheLoader").start();
+    }
+  }
+
+  void load() {
+    LinkedHashMap<String, CacheEntry> entries = null;
+
+    try {
+      entries = cacheFile.load();
+
+      if(MyLog.enabled) {
+        MyLog.d("Loaded " + entries.size() + " cached hostnames");
+      }
+    } finally {
+      // workers wait for this even if loading failed
+      synchronized(this) {
+        if(entries != null) {
+          // entries looked up meanwhile are newer
+          for(Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+            if(!cache.containsKey(entry.getKey())) {
+              cache.put(entry.getKey(), entry.getValue());
+            }
+          }
+        }
+
+        loaded = true;
+        notifyAll();
+      }
+    }
+
+    rewriteIfNeeded();
+  }
+
+  // cacheFile is locked before this, so nothing is appended between taking
+  // the snapshot and writing it
+  void rewriteIfNeeded() {
+    synchronized(cacheFile) {
+      LinkedHashMap<String, CacheEntry> snapshot;
+
+      synchronized(this) {
+        if(!cacheFile.needsRewrite(cache.size())) {
+          return;
+        }
+
+        snapshot = new LinkedHashMap<String, CacheEntry>(cache);
+      }
+
+      cacheFile.rewrite(snapshot);
+    }
+  }
+
+  /**
+   * @return cached hostname of address, or null if there is none
+   */
+  public synchronized String getCached(String address) {
+    CacheEntry entry = cache.get(address);
+    return entry == null ? null : entry.hostname;
+  }
+
+  /**
+   * @return hostname of address, or null if it is not known yet; it is then
+   * looked up, and updater, if any, posted once it is found
+   */
+  public synchronized String resolve(String address, NetworkResolverUpdater updater) {
+    CacheEntry entry = cache.get(address);
+    String hostname = null;
+
+    if(entry != null) {
+      if(entry.expires > System.currentTimeMillis()) {
+        return entry.hostname;
+      }
+
+      hostname = entry.hostname;
+    }
+
+    ArrayList<NetworkResolverUpdater> updaters = pending.get(address);
+
+    if(updaters == null) {
+      updaters = new ArrayList<NetworkResolverUpdater>();
+      pending.put(address, updaters);
+
+      if(queue.size() == MAX_QUEUED) {
+        String dropped = queue.poll();
+        pending.remove(dropped);
+
+        if(MyLog.enabled && MyLog.level >= 1) {
+          MyLog.d(1, "Resolver queue full, dropped " + dropped);
+        }
+      }
+
+      queue.add(address);
+
+      if(idleWorkers > 0) {
+        // workers may also be waiting for cacheFile to load
+        notifyAll();
+      } else if(workers < WORKERS) {
+        workers++;
+        new Thread(new Worker(), "NetResolv" + workers).start();
+      }
+    }
+
+    if(hostname == null && updater != null) {
+      // a view is rebound each time its row is drawn; keep the latest only
+      View view = updater.getBoundView();
+
+      if(view != null) {
+        for(int i = updaters.size() - 1; i >= 0; i--) {
+          if(updaters.get(i).isBoundTo(view)) {
+            updaters.remove(i);
+          }
+        }
+      }
+
+      updaters.add(updater);
+    }
+
+    return hostname;
+  }
+
+  void resolved(String address, String hostname) {
+    long ttl = hostname != null ? TTL : NEGATIVE_TTL;
+    CacheEntry entry = new CacheEntry(hostname, System.currentTimeMillis() + ttl);
+
+    synchronized(this) {
+      cache.put(address, entry);
+    }
+
+    if(cacheFile != null) {
+      cacheFile.append(address, entry);
+      rewriteIfNeeded();
+    }
+
+    update(address, hostname);
+  }
+
+  void update(String address, String hostname) {
+    ArrayList<NetworkResolverUpdater> updaters;
+
+    synchronized(this) {
+      updaters = pending.remove(address);
+    }
+
+    if(hostname == null || updaters == null || updaters.size() == 0) {
+      return;
+    }
+
+    for(NetworkResolverUpdater updater : updaters) {
+      updater.setResolved(hostname);
+    }
+
+    synchronized(this) {
+      batch.addAll(updaters);
+
+      if(batchPosted) {
+        return;
+      }
+
+      batchPosted = true;
+    }
+
+    NetworkLog.handler.postDelayed(runBatch, BATCH_DELAY);
+  }
+
+  final Runnable runBatch = new Runnable() {
+    public void run() {
+      ArrayList<NetworkResolverUpdater> updaters;
+
+      synchronized(HostResolver.this) {
+        updaters = batch;
+        batch = new ArrayList<NetworkResolverUpdater>();
+        batchPosted = false;
+      }
+
+      // rows recycled since being drawn now show other addresses
+      for(NetworkResolverUpdater updater : updaters) {
+        if(!updater.isStale()) {
+          updater.run();
+        }
+      }
+    }
+  };
+
+  class Worker implements Runnable {
+    public void run() {
+      String address;
+      CacheEntry cached;
+
+      while(true) {
+        synchronized(HostResolver.this) {
+          long idleSince = System.currentTimeMillis();
+
+          while(queue.isEmpty()) {
+            long timeout = IDLE_TIMEOUT - (System.currentTimeMillis() - idleSince);
+
+            if(timeout <= 0) {
+              workers--;
+              return;
+            }
+
+            idleWorkers++;
+
+            try {
+              HostResolver.this.wait(timeout);
+            } catch(InterruptedException e) {
+              idleWorkers--;
+              workers--;
+              return;
+            }
+
+            idleWorkers--;
+          }
+
+          address = queue.poll();
+
+          while(!loaded) {
+            try {
+              HostResolver.this.wait();
+            } catch(InterruptedException e) {
+              break;
+            }
+          }
+
+          cached = cache.get(address);
+        }
+
+        if(cached != null && cached.expires > System.currentTimeMillis()) {
+          // loaded from cacheFile since it was queued
+          update(address, cached.hostname);
+          continue;
+        }
+
+        String hostname = null;
+
+        try {
+          if(MyLog.enabled && MyLog.level >= 1) {
+            MyLog.d(1, "Resolving " + address);
+          }
+
+          hostname = lookup.lookup(address);
+
+          if(MyLog.enabled && MyLog.level >= 1) {
+            MyLog.d(1, "Resolved " + address + " to " + hostname);
+          }
+        } catch(Exception e) {
+          Log.d("NetworkLog", e.toString(), e);
+        }
+
+        if(hostname != null && hostname.equals(address)) {
+          hostname = null;
+        }
+
+        resolved(address, hostname);
+      }
+    }
+  }
+}
@@ -21,6 +21,50 @@ public class LogEntry {
   boolean validated;
   boolean valid;
 
+  // reference count for entries obtained from LogEntryPool; consumers that
+  // keep data must copy the fields out before releasing
+  int references;
+  boolean pooled;
+
+  public void retain(int count) {
+    synchronized(this) {
+      references += count;
+    }
+  }
+
+  public void release() {
+    if(!pooled) {
+      return;
+    }
+
+    boolean recycle;
+
+    synchronized(this) {
+      recycle = --references == 0;
+    }
+
+    if(recycle) {
+      LogEntryPool.recycle(this);
+    }
+  }
+
+  public void reset() {
+    uid = 0;
+    uidString = null;
+    in = null;
+    out = null;
+    proto = null;
+    src = null;
+    dst = null;
+    len = 0;
+    spt = 0;
+    dpt = 0;
+    timestamp = 0;
+    validated = false;
+    valid = false;
+    references = 0;
+  }
+
   public boolean isValid() {
     if(validated) {
       return valid;
@@ -42,12 +86,13 @@ public class LogEntry {
       return false;
     }
 
-    if(StringUtils.contains(src, "{}:=")) {
+    // addresses may be IPv6, so ':' is allowed in them
+    if(!StringUtils.isAddress(src)) {
       valid = false;
       return false;
     }
 
-    if(StringUtils.contains(dst, "{}:=")) {
+    if(!StringUtils.isAddress(dst)) {
       valid = false;
       return false;
     }
@@ -0,0 +1,183 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+   */
+
+// Single-pass parser for the KEY=value fields of a kmsg/nflog entry
+
+package com.googlecode.networklog;
+
+public class LogEntryParser {
+  static final int FIELD_IN    = (1 << 0);
+  static final int FIELD_OUT   = (1 << 1);
+  static final int FIELD_SRC   = (1 << 2);
+  static final int FIELD_DST   = (1 << 3);
+  static final int FIELD_LEN   = (1 << 4);
+  static final int FIELD_PROTO = (1 << 5);
+  static final int FIELD_SPT   = (1 << 6);
+  static final int FIELD_DPT   = (1 << 7);
+  static final int FIELD_UID   = (1 << 8);
+
+  static final int REQUIRED_FIELDS = FIELD_IN | FIELD_OUT | FIELD_SRC | FIELD_DST | FIELD_LEN | FIELD_PROTO;
+
+  FastParser parser = new FastParser();
+  char[] line;
+
+  /**
+   * Parses the fields between start and end of line into entry in one
+   * forward scan.  Only the first occurrence of each key is used.
+   * @return false if a required field is missing
+   */
+  public boolean parseEntry(char[] line, int start, int end, LogEntry entry) {
+    int pos = start;
+    int found = 0;
+    int field, equals;
+
+    this.line = line;
+    parser.setLine(line, end);
+
+    entry.spt = 0;
+    entry.dpt = 0;
+    entry.uid = -1;
+    entry.uidString = "-1";
+    entry.validated = false;
+
+    while(pos < end) {
+      if(line[pos] == ' ') {
+        pos++;
+        continue;
+      }
+
+      equals = pos;
+
+      while(equals < end && line[equals] != '=' && line[equals] != ' ') {
+        equals++;
+      }
+
+      if(equals >= end || line[equals] != '=') {
+        // flag without value (e.g. DF, SYN)
+        pos = equals;
+        continue;
+      }
+
+      field = getField(pos, equals - pos);
+
+      if(field == 0 || (found & field) != 0) {
+        pos = skipValue(equals + 1, end);
+        continue;
+      }
+
+      found |= field;
+      pos = equals + 1;
+
+      if(pos >= end || line[pos] == ' ') {
+        // empty value (e.g. OUT= on input packets)
+        if(field == FIELD_IN) {
+          entry.in = "";
+        } else if(field == FIELD_OUT) {
+          entry.out = "";
+        } else {
+          return false;
+        }
+        continue;
+      }
+
+      parser.setPos(pos);
+
+      switch(field) {
+        case FIELD_IN:
+          entry.in = parser.getString();
+          break;
+        case FIELD_OUT:
+          entry.out = parser.getString();
+          break;
+        case FIELD_SRC:
+          entry.src = parser.getString();
+          break;
+        case FIELD_DST:
+          entry.dst = parser.getString();
+          break;
+        case FIELD_LEN:
+          entry.len = parser.getInt();
+          break;
+        case FIELD_PROTO:
+          entry.proto = parser.getString();
+          break;
+        case FIELD_SPT:
+          entry.spt = parser.getInt();
+          break;
+        case FIELD_DPT:
+          entry.dpt = parser.getInt();
+          break;
+        case FIELD_UID:
+          entry.uid = parser.getInt();
+          parser.setPos(pos);
+          entry.uidString = parser.getString();
+          break;
+      }
+
+      pos = parser.pos;
+    }
+
+    return (found & REQUIRED_FIELDS) == REQUIRED_FIELDS;
+  }
+
+  int skipValue(int pos, int end) {
+    while(pos < end && line[pos] != ' ') {
+      pos++;
+    }
+    return pos;
+  }
+
+  // dispatch on key length and first character
+  int getField(int pos, int length) {
+    switch(length) {
+      case 2:
+        if(line[pos] == 'I' && line[pos + 1] == 'N') {
+          return FIELD_IN;
+        }
+        return 0;
+
+      case 3:
+        switch(line[pos]) {
+          case 'O':
+            return matches(pos, "OUT") ? FIELD_OUT : 0;
+          case 'S':
+            if(matches(pos, "SRC")) {
+              return FIELD_SRC;
+            }
+            return matches(pos, "SPT") ? FIELD_SPT : 0;
+          case 'D':
+            if(matches(pos, "DST")) {
+              return FIELD_DST;
+            }
+            return matches(pos, "DPT") ? FIELD_DPT : 0;
+          case 'L':
+            return matches(pos, "LEN") ? FIELD_LEN : 0;
+          case 'U':
+            return matches(pos, "UID") ? FIELD_UID : 0;
+          default:
+            return 0;
+        }
+
+      case 5:
+        return matches(pos, "PROTO") ? FIELD_PROTO : 0;
+
+      default:
+        return 0;
+    }
+  }
+
+  boolean matches(int pos, String key) {
+    int length = key.length();
+
+    for(int i = 0; i < length; i++) {
+      if(line[pos + i] != key.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,48 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Recycles LogEntry objects on the ingest path to avoid per-packet
+// allocations; see LogEntry.retain() and LogEntry.release()
+
+package com.googlecode.networklog;
+
+public class LogEntryPool {
+  final static int maxPoolSize = 1024;
+  final static LogEntry[] pool = new LogEntry[maxPoolSize];
+  static int poolSize = 0;
+
+  /**
+   * @return a reset entry holding one reference for the caller
+   */
+  public static LogEntry obtain() {
+    LogEntry entry = null;
+
+    synchronized(pool) {
+      if(poolSize > 0) {
+        entry = pool[--poolSize];
+        pool[poolSize] = null;
+      }
+    }
+
+    if(entry == null) {
+      entry = new LogEntry();
+      entry.pooled = true;
+    }
+
+    entry.references = 1;
+    return entry;
+  }
+
+  static void recycle(LogEntry entry) {
+    entry.reset();
+
+    synchronized(pool) {
+      if(poolSize < maxPoolSize) {
+        pool[poolSize++] = entry;
+      }
+    }
+  }
+}
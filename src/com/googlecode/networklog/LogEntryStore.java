@@ -0,0 +1,405 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Column store of log entries, kept as a ring buffer of parallel arrays
+// rather than one object per entry.  Entries are appended at the end and
+// the oldest entries are dropped once maxSize is reached.
+//
+// Each entry has an int id, assigned in increasing order as it is added;
+// an id stays valid until the entry is dropped, so lists of ids can serve
+// as filtered views.  Ids are compared by their difference so that they
+// may wrap around.  Strings are stored as references to pooled Strings,
+// which cost the same as an index into a table of them.
+
+package com.googlecode.networklog;
+
+public class LogEntryStore {
+  static final int INITIAL_CAPACITY = 1024;
+
+  int maxSize;
+  int capacity = 0;
+  int head = 0; // index of the oldest entry
+  int size = 0;
+  int first = 0; // id of the oldest entry
+
+  ApplicationsTracker.AppEntry[] apps;
+  String[] ins;
+  String[] outs;
+  String[] protos;
+  String[] srcAddrs;
+  String[] dstAddrs;
+  char[] srcPorts;
+  char[] dstPorts;
+  int[] lens;
+  long[] timestamps;
+
+  public LogEntryStore(int maxSize) {
+    this.maxSize = maxSize;
+    allocate(Math.min(INITIAL_CAPACITY, Math.max(maxSize, 1)));
+  }
+
+  void allocate(int newCapacity) {
+    ApplicationsTracker.AppEntry[] newApps = new ApplicationsTracker.AppEntry[newCapacity];
+    String[] newIns = new String[newCapacity];
+    String[] newOuts = new String[newCapacity];
+    String[] newProtos = new String[newCapacity];
+    String[] newSrcAddrs = new String[newCapacity];
+    String[] newDstAddrs = new String[newCapacity];
+    char[] newSrcPorts = new char[newCapacity];
+    char[] newDstPorts = new char[newCapacity];
+    int[] newLens = new int[newCapacity];
+    long[] newTimestamps = new long[newCapacity];
+
+    // copy entries in order, so the oldest is at index 0
+    int count = Math.min(size, newCapacity);
+    int skip = size - count;
+
+    for(int i = 0; i < count; i++) {
+      int from = index(first + skip + i);
+      newApps[i] = apps[from];
+      newIns[i] = ins[from];
+      newOuts[i] = outs[from];
+      newProtos[i] = protos[from];
+      newSrcAddrs[i] = srcAddrs[from];
+      newDstAddrs[i] = dstAddrs[from];
+      newSrcPorts[i] = srcPorts[from];
+      newDstPorts[i] = dstPorts[from];
+      newLens[i] = lens[from];
+      newTimestamps[i] = timestamps[from];
+    }
+
+    apps = newApps;
+    ins = newIns;
+    outs = newOuts;
+    protos = newProtos;
+    srcAddrs = newSrcAddrs;
+    dstAddrs = newDstAddrs;
+    srcPorts = newSrcPorts;
+    dstPorts = newDstPorts;
+    lens = newLens;
+    timestamps = newTimestamps;
+
+    capacity = newCapacity;
+    head = 0;
+    first += skip;
+    size = count;
+  }
+
+  int index(int id) {
+    int index = head + (id - first);
+    return index >= capacity ? index - capacity : index;
+  }
+
+  // makes room for one more entry and returns its index
+  int append() {
+    if(size == capacity) {
+      if(capacity < maxSize) {
+        allocate(Math.min(capacity * 2, maxSize));
+      } else {
+        removeFirst(1);
+      }
+    }
+
+    size++;
+    return index(first + size - 1);
+  }
+
+  /**
+   * @return id of the new entry
+   */
+  public int add(ApplicationsTracker.AppEntry app, LogEntry entry) {
+    int index = append();
+    apps[index] = app;
+    ins[index] = entry.in;
+    outs[index] = entry.out;
+    protos[index] = entry.proto;
+    srcAddrs[index] = entry.src;
+    dstAddrs[index] = entry.dst;
+    srcPorts[index] = (char) entry.spt;
+    dstPorts[index] = (char) entry.dpt;
+    lens[index] = entry.len;
+    timestamps[index] = entry.timestamp;
+    return first + size - 1;
+  }
+
+  /**
+   * Adds a copy of an entry of another store.
+   * @return id of the new entry
+   */
+  public int add(LogEntryStore store, int id) {
+    int from = store.index(id);
+    int index = append();
+    apps[index] = store.apps[from];
+    ins[index] = store.ins[from];
+    outs[index] = store.outs[from];
+    protos[index] = store.protos[from];
+    srcAddrs[index] = store.srcAddrs[from];
+    dstAddrs[index] = store.dstAddrs[from];
+    srcPorts[index] = store.srcPorts[from];
+    dstPorts[index] = store.dstPorts[from];
+    lens[index] = store.lens[from];
+    timestamps[index] = store.timestamps[from];
+    return first + size - 1;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getFirstId() {
+    return first;
+  }
+
+  // id the next entry will get
+  public int getEndId() {
+    return first + size;
+  }
+
+  public boolean contains(int id) {
+    int offset = id - first;
+    return offset >= 0 && offset < size;
+  }
+
+  public ApplicationsTracker.AppEntry getApp(int id) {
+    return apps[index(id)];
+  }
+
+  public String getIn(int id) {
+    return ins[index(id)];
+  }
+
+  public String getOut(int id) {
+    return outs[index(id)];
+  }
+
+  public String getProto(int id) {
+    return protos[index(id)];
+  }
+
+  public String getSrcAddr(int id) {
+    return srcAddrs[index(id)];
+  }
+
+  public String getDstAddr(int id) {
+    return dstAddrs[index(id)];
+  }
+
+  public int getSrcPort(int id) {
+    return srcPorts[index(id)];
+  }
+
+  public int getDstPort(int id) {
+    return dstPorts[index(id)];
+  }
+
+  public int getLen(int id) {
+    return lens[index(id)];
+  }
+
+  public long getTimestamp(int id) {
+    return timestamps[index(id)];
+  }
+
+  /**
+   * Fills entry with the fields of an entry.
+   */
+  public void getEntry(int id, LogEntry entry) {
+    int index = index(id);
+    entry.uid = apps[index].uid;
+    entry.uidString = apps[index].uidString;
+    entry.in = ins[index];
+    entry.out = outs[index];
+    entry.proto = protos[index];
+    entry.src = srcAddrs[index];
+    entry.dst = dstAddrs[index];
+    entry.spt = srcPorts[index];
+    entry.dpt = dstPorts[index];
+    entry.len = lens[index];
+    entry.timestamp = timestamps[index];
+  }
+
+  /**
+   * Drops the oldest count entries.
+   */
+  public void removeFirst(int count) {
+    if(count > size) {
+      count = size;
+    }
+
+    for(int i = 0; i < count; i++) {
+      // release references
+      int index = index(first + i);
+      apps[index] = null;
+      ins[index] = null;
+      outs[index] = null;
+      protos[index] = null;
+      srcAddrs[index] = null;
+      dstAddrs[index] = null;
+    }
+
+    head = index(first + count);
+    first += count;
+    size -= count;
+
+    if(size == 0) {
+      head = 0;
+    }
+  }
+
+  /**
+   * Drops entries older than timestamp from the start of the store.
+   * @return number of entries dropped
+   */
+  public int removeOlderThan(long timestamp) {
+    int count = 0;
+
+    while(count < size && timestamps[index(first + count)] < timestamp) {
+      count++;
+    }
+
+    removeFirst(count);
+    return count;
+  }
+
+  /**
+   * Drops the entries of an app.  Ids of the entries that follow them
+   * change, so lists of ids must be rebuilt.
+   * @return number of entries dropped
+   */
+  public int removeApp(String packageName) {
+    int kept = 0;
+    int from, to;
+
+    for(int i = 0; i < size; i++) {
+      from = index(first + i);
+
+      if(apps[from].packageName.equals(packageName)) {
+        continue;
+      }
+
+      if(kept != i) {
+        to = index(first + kept);
+        apps[to] = apps[from];
+        ins[to] = ins[from];
+        outs[to] = outs[from];
+        protos[to] = protos[from];
+        srcAddrs[to] = srcAddrs[from];
+        dstAddrs[to] = dstAddrs[from];
+        srcPorts[to] = srcPorts[from];
+        dstPorts[to] = dstPorts[from];
+        lens[to] = lens[from];
+        timestamps[to] = timestamps[from];
+      }
+
+      kept++;
+    }
+
+    int removed = size - kept;
+
+    // release references of the now unused entries at the end
+    for(int i = kept; i < size; i++) {
+      to = index(first + i);
+      apps[to] = null;
+      ins[to] = null;
+      outs[to] = null;
+      protos[to] = null;
+      srcAddrs[to] = null;
+      dstAddrs[to] = null;
+    }
+
+    size = kept;
+    return removed;
+  }
+
+  public void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+
+    if(size > maxSize) {
+      removeFirst(size - maxSize);
+    }
+
+    if(capacity > maxSize) {
+      allocate(Math.max(maxSize, 1));
+    }
+  }
+
+  public void clear() {
+    removeFirst(size);
+
+    if(capacity > INITIAL_CAPACITY) {
+      allocate(INITIAL_CAPACITY);
+    }
+  }
+
+  /**
+   * Ids of a subset of the entries of a store, in increasing order.
+   */
+  public static class IdList {
+    int[] ids = new int[256];
+    int start = 0;
+    int end = 0;
+
+    public int size() {
+      return end - start;
+    }
+
+    public int get(int position) {
+      return ids[start + position];
+    }
+
+    public void add(int id) {
+      if(end == ids.length) {
+        if(start > ids.length / 2) {
+          // reclaim space of removed ids
+          System.arraycopy(ids, start, ids, 0, end - start);
+        } else {
+          int[] newIds = new int[ids.length * 2];
+          System.arraycopy(ids, start, newIds, 0, end - start);
+          ids = newIds;
+        }
+
+        end -= start;
+        start = 0;
+      }
+
+      ids[end++] = id;
+    }
+
+    /**
+     * @return position of the first id not before id, or size() if none
+     */
+    public int search(int id) {
+      int low = start;
+      int high = end;
+
+      while(low < high) {
+        int mid = (low + high) >>> 1;
+
+        if(ids[mid] - id < 0) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+
+      return low - start;
+    }
+
+    /**
+     * Removes ids of entries dropped from the start of the store.
+     */
+    public void removeBefore(int firstId) {
+      while(start < end && ids[start] - firstId < 0) {
+        start++;
+      }
+    }
+
+    public void clear() {
+      start = 0;
+      end = 0;
+    }
+  }
+}
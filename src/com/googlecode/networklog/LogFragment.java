@@ -13,7 +13,7 @@ import android.os.Bundle;
 import android.widget.TextView;
 import android.widget.LinearLayout;
 import android.widget.ListView;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.Filter;
 import android.widget.Filterable;
@@ -44,20 +44,16 @@ import android.text.ClipboardManager;
 
 import android.support.v4.app.Fragment;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-
 public class LogFragment extends Fragment {
-  // bound to adapter
-  protected LinkedList<ListItem> listData;
+  // ids of logEntries bound to adapter while a filter is set
+  protected LogEntryStore.IdList listData;
+  protected boolean listDataFiltered = false;
+  // filter listData was built with; null if it must be rebuilt from scratch
+  protected FilterSettings listDataFilter;
   // buffers incoming log entries
-  protected LinkedList<ListItem> listDataBuffer;
-  // holds all entries, used for filtering
-  protected LinkedList<ListItem> listDataUnfiltered;
+  protected LogEntryStore listDataBuffer;
+  // holds all entries; only changed on the UI thread
+  protected LogEntryStore logEntries;
   private CustomAdapter adapter;
   private ListViewUpdater updater;
   private NetworkLog parent = null;
@@ -65,20 +61,12 @@ public class LogFragment extends Fragment {
   private boolean doNotRefresh = false;
   public boolean needsRefresh = false;
 
-  protected class ListItem {
-    protected ApplicationsTracker.AppEntry app;
-    protected String in;
-    protected String out;
-    protected String proto;
-    protected String srcAddr;
-    protected int srcPort;
-    protected String dstAddr;
-    protected int dstPort;
+  // fields of one entry of logEntries
+  protected static class ListItem extends FilterPredicate.Item {
     protected int len;
     protected long timestamp;
 
-    ListItem(ApplicationsTracker.AppEntry app) {
-      this.app = app;
+    ListItem() {
     }
 
     @Override
@@ -88,18 +76,52 @@ public class LogFragment extends Fragment {
   }
 
   public void clear() {
-    synchronized(listData) {
-      synchronized(listDataBuffer) {
-        synchronized(listDataUnfiltered) {
-          listData.clear();
-          listDataBuffer.clear();
-          listDataUnfiltered.clear();
-          refreshAdapter();
-        }
+    synchronized(listDataBuffer) {
+      synchronized(logEntries) {
+        listData.clear();
+        listDataBuffer.clear();
+        logEntries.clear();
+        refreshAdapter();
       }
     }
   }
 
+  /**
+   * @return number of entries shown, i.e. matching the filter
+   */
+  public int getItemCount() {
+    if(logEntries == null) {
+      return 0;
+    }
+
+    return listDataFiltered ? listData.size() : logEntries.size();
+  }
+
+  public int getItemId(int position) {
+    return listDataFiltered ? listData.get(position) : logEntries.getFirstId() + position;
+  }
+
+  /**
+   * Fills item with the entry shown at position.
+   */
+  public ListItem getItem(int position, ListItem item) {
+    return getListItem(getItemId(position), item);
+  }
+
+  ListItem getListItem(int id, ListItem item) {
+    item.app = logEntries.getApp(id);
+    item.in = logEntries.getIn(id);
+    item.out = logEntries.getOut(id);
+    item.proto = logEntries.getProto(id);
+    item.srcAddr = logEntries.getSrcAddr(id);
+    item.srcPort = logEntries.getSrcPort(id);
+    item.dstAddr = logEntries.getDstAddr(id);
+    item.dstPort = logEntries.getDstPort(id);
+    item.len = logEntries.getLen(id);
+    item.timestamp = logEntries.getTimestamp(id);
+    return item;
+  }
+
   public void setDoNotRefresh(boolean value) {
     doNotRefresh = value;
   }
@@ -144,12 +166,6 @@ public class LogFragment extends Fragment {
       super.onCreate(savedInstanceState);
       setRetainInstance(true);
 
-      listData = new LinkedList<ListItem>();
-      listDataBuffer = new LinkedList<ListItem>();
-      listDataUnfiltered = new LinkedList<ListItem>();
-
-      adapter = new CustomAdapter(getActivity().getApplicationContext(), R.layout.logitem, listData);
-
       if(NetworkLog.settings == null) {
         NetworkLog activity = (NetworkLog) getActivity();
 
@@ -165,6 +181,12 @@ public class LogFragment extends Fragment {
         maxLogEntries = 75000;
       }
 
+      listData = new LogEntryStore.IdList();
+      listDataBuffer = new LogEntryStore((int) maxLogEntries);
+      logEntries = new LogEntryStore((int) maxLogEntries);
+
+      adapter = new CustomAdapter();
+
       MyLog.d("LogFragment onCreate");
     }
 
@@ -207,7 +229,7 @@ public class LogFragment extends Fragment {
       inflater.inflate(R.layout.log_context_menu, menu);
 
       AdapterContextMenuInfo info = (AdapterContextMenuInfo) menuInfo;
-      ListItem listItem = listData.get(info.position);
+      ListItem listItem = getItem(info.position, new ListItem());
 
       if(NetworkLogService.toastBlockedApps.get(listItem.app.packageName) != null) {
         menu.findItem(R.id.log_toggle_app_notifications).setTitle(R.string.enable_notifications);
@@ -228,7 +250,7 @@ public class LogFragment extends Fragment {
         return super.onContextItemSelected(item);
 
       AdapterContextMenuInfo info = (AdapterContextMenuInfo) item.getMenuInfo();
-      ListItem listItem = listData.get(info.position);
+      ListItem listItem = getItem(info.position, new ListItem());
 
       switch(item.getItemId()) {
         case R.id.log_copy_src_ip:
@@ -281,7 +303,7 @@ public class LogFragment extends Fragment {
       }
 
       if(NetworkLog.resolvePorts && NetworkLog.resolveCopies) {
-        srcPort = NetworkLog.resolver.resolveService(String.valueOf(item.srcPort));
+        srcPort = NetworkLog.resolver.resolveService(item.srcPort);
       } else {
         srcPort = String.valueOf(item.srcPort);
       }
@@ -315,7 +337,7 @@ public class LogFragment extends Fragment {
       }
 
       if(NetworkLog.resolvePorts && NetworkLog.resolveCopies) {
-        dstPort = NetworkLog.resolver.resolveService(String.valueOf(item.dstPort));
+        dstPort = NetworkLog.resolver.resolveService(item.dstPort);
       } else {
         dstPort = String.valueOf(item.dstPort);
       }
@@ -380,7 +402,7 @@ public class LogFragment extends Fragment {
   private class CustomOnItemClickListener implements OnItemClickListener {
     @Override
       public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-        showGraph(listData.get(position));
+        showGraph(getItem(position, new ListItem()));
       }
   }
 
@@ -411,135 +433,87 @@ public class LogFragment extends Fragment {
       return;
     }
 
-    final ListItem item = new ListItem(appEntry);
-
-    item.in = entry.in;
-    item.out = entry.out;
-
-    item.srcAddr = entry.src;
-    item.srcPort = entry.spt;
-
-    item.dstAddr = entry.dst;
-    item.dstPort = entry.dpt;
-
-    item.proto = entry.proto;
-    item.len = entry.len;
-    item.timestamp = entry.timestamp;
-
     if(MyLog.enabled && MyLog.level >= 6) {
-      MyLog.d(6, "LogFragment: NewLogEntry: [" + item.app.uidString + "] in=" + item.in + " out=" + item.out + " " + item.srcAddr + ":" + item.srcPort + " --> " + item.dstAddr + ":" + item.dstPort + " proto=" + item.proto + " len=" + item.len);
+      MyLog.d(6, "LogFragment: NewLogEntry: [" + appEntry.uidString + "] in=" + entry.in + " out=" + entry.out + " " + entry.src + ":" + entry.spt + " --> " + entry.dst + ":" + entry.dpt + " proto=" + entry.proto + " len=" + entry.len);
     }
 
+    // the oldest entries are dropped once maxLogEntries is reached
     synchronized(listDataBuffer) {
-      listDataBuffer.add(item);
-
-      while(listDataBuffer.size() > maxLogEntries) {
-        if(MyLog.enabled) {
-          MyLog.d("Log buffer size reached maxLogEntries limit; truncating");
-        }
-        listDataBuffer.removeFirst();
-      }
+      listDataBuffer.add(appEntry, entry);
     }
   }
 
-  public void clearLogEntriesOlderThan(long timerange) {
-    MyLog.d("Clearing logFragment entries older than " + timerange);
+  ListItem filterItem = new ListItem();
 
-    // Add any items in listDataBuffer to listDataUnfiltered
-    synchronized(listDataBuffer) {
-      synchronized(listDataUnfiltered) {
-        for(ListItem item : listDataBuffer) {
-          if(MyLog.enabled) {
-            MyLog.d("Adding buffer item " + item);
-          }
-          listDataUnfiltered.add(item);
-        }
+  // moves buffered entries to logEntries, adding those matching the
+  // filter to listData; called with listDataBuffer and logEntries locked
+  int addBufferedEntries() {
+    int count = listDataBuffer.size();
+    int id = listDataBuffer.getFirstId();
+    int newId;
 
-        listDataBuffer.clear();
+    for(int i = 0; i < count; i++, id++) {
+      newId = logEntries.add(listDataBuffer, id);
+
+      // each new entry is tested once, against the filter of listData; while
+      // listData awaits a rebuild, the rebuild picks them up instead
+      if(listDataFiltered && listDataFilter != null
+          && listDataFilter.matches(getListItem(newId, filterItem))) {
+        listData.add(newId);
       }
     }
 
-    long timestamp = System.currentTimeMillis() - timerange;
+    listDataBuffer.clear();
+    listData.removeBefore(logEntries.getFirstId());
+    return count;
+  }
+
+  public void clearLogEntriesOlderThan(final long timerange) {
+    MyLog.d("Clearing logFragment entries older than " + timerange);
+
+    // logEntries is only changed on the UI thread
+    NetworkLog.handler.post(new Runnable() {
+      public void run() {
+        long timestamp = System.currentTimeMillis() - timerange;
 
-    MyLog.d("Setting timestamp " + timestamp);
+        MyLog.d("Setting timestamp " + timestamp);
 
-    // Remove items older than timerange
-    synchronized(listDataUnfiltered) {
-      Iterator<ListItem> iterator = listDataUnfiltered.iterator();
-      while(iterator.hasNext()) {
-        ListItem item = iterator.next();
+        synchronized(listDataBuffer) {
+          synchronized(logEntries) {
+            addBufferedEntries();
 
-        if(MyLog.enabled) {
-          MyLog.d("Checking item " + item.app.uid + " " + item.app.name + " " + item.timestamp);
-        }
+            // entries are in timestamp order
+            int removed = logEntries.removeOlderThan(timestamp);
+            listData.removeBefore(logEntries.getFirstId());
 
-        if(item.timestamp < timestamp) {
-          if(MyLog.enabled) {
-            MyLog.d("Removing item");
+            if(MyLog.enabled) {
+              MyLog.d("Removed " + removed + " entries");
+            }
           }
-          iterator.remove();
-        } else {
-          // remaining entries should be >= timestamp
-          break;
         }
-      }
-
-      synchronized(listData) {
-        listData.clear();
-        listData.addAll(listDataUnfiltered);
-      }
-    }
 
-    NetworkLog.handler.post(new Runnable() {
-      public void run() {
-        if(NetworkLog.filterTextInclude.length() > 0 || NetworkLog.filterTextExclude.length() > 0) {
-          setFilter("");
-        } else {
-          refreshAdapter();
-        }
+        refreshAdapter();
       }
     });
   }
 
   public void removeApp(String packageName) {
-    if(listData == null || listDataBuffer == null || listDataUnfiltered == null) {
+    if(listData == null || listDataBuffer == null || logEntries == null) {
       return;
     }
 
     synchronized(listDataBuffer) {
-      synchronized(listDataUnfiltered) {
-        synchronized(listData) {
-          ListItem item;
-          Iterator<ListItem> iterator;
-
-          iterator = listDataBuffer.iterator();
-          while(iterator.hasNext()) {
-            item = iterator.next();
-            if(item.app.packageName.equals(packageName)) {
-              iterator.remove();
-            }
-          }
+      synchronized(logEntries) {
+        listDataBuffer.removeApp(packageName);
+        logEntries.removeApp(packageName);
 
-          iterator = listDataUnfiltered.iterator();
-          while(iterator.hasNext()) {
-            item = iterator.next();
-            if(item.app.packageName.equals(packageName)) {
-              iterator.remove();
-            }
-          }
-
-          iterator = listData.iterator();
-          while(iterator.hasNext()) {
-            item = iterator.next();
-            if(item.app.packageName.equals(packageName)) {
-              iterator.remove();
-            }
-          }
-        }
+        // ids have changed; listData is rebuilt by the filter
+        listData.clear();
+        listDataFilter = null;
       }
     }
 
-    if(NetworkLog.filterTextInclude.length() > 0 || NetworkLog.filterTextExclude.length() > 0) {
+    if(listDataFiltered) {
       setFilter("");
     } else {
       refreshAdapter();
@@ -547,26 +521,17 @@ public class LogFragment extends Fragment {
   }
 
   public void pruneLogEntries() {
-    if(listData == null || listDataBuffer == null || listDataUnfiltered == null) {
+    if(listData == null || listDataBuffer == null || logEntries == null) {
       return;
     }
 
     synchronized(listDataBuffer) {
-      while(listDataBuffer.size() > maxLogEntries) {
-        listDataBuffer.removeFirst();
-      }
+      listDataBuffer.setMaxSize((int) maxLogEntries);
     }
 
-    synchronized(listDataUnfiltered) {
-      while(listDataUnfiltered.size() > maxLogEntries) {
-        listDataUnfiltered.removeFirst();
-      }
-    }
-
-    synchronized(listData) {
-      while(listData.size() > maxLogEntries) {
-        listData.removeFirst();
-      }
+    synchronized(logEntries) {
+      logEntries.setMaxSize((int) maxLogEntries);
+      listData.removeBefore(logEntries.getFirstId());
     }
 
     refreshAdapter();
@@ -586,49 +551,16 @@ public class LogFragment extends Fragment {
         MyLog.d(4, "LogFragmentUpdater enter");
       }
 
-      if(listDataBuffer == null || listData == null || listDataUnfiltered == null) {
+      if(listDataBuffer == null || listData == null || logEntries == null) {
         return;
       }
 
-      int i = 0;
-      boolean included = true;
-      boolean excluded = false;
-
+      int i;
       long start = System.currentTimeMillis();
 
       synchronized(listDataBuffer) {
-        synchronized(listData) {
-          synchronized(listDataUnfiltered) {
-            for(ListItem item : listDataBuffer) {
-              if(NetworkLog.filterTextInclude.length() > 0) {
-                included = testIncludeFilter(item);
-              }
-
-              if(NetworkLog.filterTextExclude.length() > 0) {
-                excluded = testExcludeFilter(item);
-              }
-
-              if(included == true && excluded == false) {
-                listData.add(item);
-              }
-              listDataUnfiltered.add(item);
-              i++;
-            }
-
-            listDataBuffer.clear();
-          }
-        }
-      }
-
-      synchronized(listDataUnfiltered) {
-        while(listDataUnfiltered.size() > maxLogEntries) {
-          listDataUnfiltered.removeFirst();
-        }
-      }
-
-      synchronized(listData) {
-        while(listData.size() > maxLogEntries) {
-          listData.removeFirst();
+        synchronized(logEntries) {
+          i = addBufferedEntries();
         }
       }
 
@@ -690,135 +622,46 @@ public class LogFragment extends Fragment {
     }
   }
 
-  String srcAddrResolved;
-  String srcPortResolved;
-  String dstAddrResolved;
-  String dstPortResolved;
-  String iface;
-  boolean matched;
-
-  public boolean testIncludeFilter(ListItem item) {
-    matched = false;
-    if(NetworkLog.resolveHosts) {
-      srcAddrResolved = NetworkLog.resolver.resolveAddress(item.srcAddr);
-
-      if(srcAddrResolved == null) {
-        srcAddrResolved = "";
-      }
-
-      dstAddrResolved = NetworkLog.resolver.resolveAddress(item.dstAddr);
-
-      if(dstAddrResolved == null) {
-        dstAddrResolved = "";
-      }
-    } else {
-      srcAddrResolved = "";
-      dstAddrResolved = "";
-    }
-
-    if(NetworkLog.resolvePorts) {
-      srcPortResolved = NetworkLog.resolver.resolveService(String.valueOf(item.srcPort));
-      dstPortResolved = NetworkLog.resolver.resolveService(String.valueOf(item.dstPort));
-    } else {
-      srcPortResolved = "";
-      dstPortResolved = "";
-    }
-
-    if(item.in != null && item.in.length() > 0) {
-      iface = item.in;
-    } else {
-      iface = item.out;
-    }
-
-    for(String c : NetworkLog.filterTextIncludeList) {
-      if((NetworkLog.filterNameInclude && item.app.nameLowerCase.contains(c))
-          || (NetworkLog.filterUidInclude && item.app.uidString.equals(c))
-          || (NetworkLog.filterAddressInclude &&
-            ((item.srcAddr.contains(c) || StringPool.getLowerCase(srcAddrResolved).contains(c))
-             || (item.dstAddr.contains(c) || StringPool.getLowerCase(dstAddrResolved).contains(c))))
-          || (NetworkLog.filterPortInclude &&
-            ((String.valueOf(item.srcPort).equals(c) || StringPool.getLowerCase(srcPortResolved).equals(c))
-             || (String.valueOf(item.dstPort).equals(c) || StringPool.getLowerCase(dstPortResolved).equals(c))))
-          || (NetworkLog.filterInterfaceInclude && iface.contains(c))
-          || (NetworkLog.filterProtocolInclude &&
-            (item.proto.equals(c) || StringPool.getLowerCase(NetworkLog.resolver.resolveProtocol(item.proto)).equals(c))))
-      {
-        matched = true;
-        break;
-      }
-    }
-    return matched;
+  // result of CustomFilter
+  private static class FilteredIds {
+    LogEntryStore.IdList ids;
+    boolean filtered;
+    FilterSettings settings;
+    int endId; // entries from here on were added after filtering
   }
 
-  boolean testExcludeFilter(ListItem item) {
-    matched = false;
-
-    if(NetworkLog.resolveHosts) {
-      srcAddrResolved = NetworkLog.resolver.resolveAddress(item.srcAddr);
+  private class CustomAdapter extends BaseAdapter implements Filterable {
+    LayoutInflater mInflater = (LayoutInflater) getActivity().getSystemService(Activity.LAYOUT_INFLATER_SERVICE);
+    CustomFilter filter;
 
-      if(srcAddrResolved == null) {
-        srcAddrResolved = "";
+    @Override
+      public int getCount() {
+        return getItemCount();
       }
 
-      dstAddrResolved = NetworkLog.resolver.resolveAddress(item.dstAddr);
-
-      if(dstAddrResolved == null) {
-        dstAddrResolved = "";
+    @Override
+      public ListItem getItem(int position) {
+        return LogFragment.this.getItem(position, new ListItem());
       }
-    } else {
-      srcAddrResolved = "";
-      dstAddrResolved = "";
-    }
-
-    if(NetworkLog.resolvePorts) {
-      srcPortResolved = NetworkLog.resolver.resolveService(String.valueOf(item.srcPort)); // fixme: get from stringpool
-      dstPortResolved = NetworkLog.resolver.resolveService(String.valueOf(item.dstPort)); // fixme: get from stringpool
-    } else {
-      srcPortResolved = "";
-      dstPortResolved = "";
-    }
-
-    if(item.in != null && item.in.length() > 0) {
-      iface = item.in;
-    } else {
-      iface = item.out;
-    }
 
-    for(String c : NetworkLog.filterTextExcludeList) {
-      if((NetworkLog.filterNameExclude && item.app.nameLowerCase.contains(c))
-          || (NetworkLog.filterUidExclude && item.app.uidString.equals(c))
-          || (NetworkLog.filterAddressExclude && ((item.srcAddr.contains(c) || StringPool.getLowerCase(srcAddrResolved).contains(c)) || (item.dstAddr.contains(c) || StringPool.getLowerCase(dstAddrResolved).contains(c))))
-          || (NetworkLog.filterPortExclude && ((String.valueOf(item.srcPort).equals(c) || StringPool.getLowerCase(srcPortResolved).equals(c)) || (String.valueOf(item.dstPort).equals(c) || StringPool.getLowerCase(dstPortResolved).equals(c))))
-          || (NetworkLog.filterInterfaceExclude && iface.contains(c))
-          || (NetworkLog.filterProtocolExclude &&
-            (item.proto.equals(c) || StringPool.getLowerCase(NetworkLog.resolver.resolveProtocol(item.proto)).equals(c))))
-      {
-        matched = true;
-        break;
+    @Override
+      public long getItemId(int position) {
+        return LogFragment.this.getItemId(position);
       }
-    }
-    return matched;
-  }
-
-  private class CustomAdapter extends ArrayAdapter<ListItem> implements Filterable {
-    LayoutInflater mInflater = (LayoutInflater) getActivity().getSystemService(Activity.LAYOUT_INFLATER_SERVICE);
-    CustomFilter filter;
-
-    public CustomAdapter(Context context, int resource, List<ListItem> objects) {
-      super(context, resource, objects);
-    }
 
     private class CustomFilter extends Filter {
+      static final int CHUNK_SIZE = 1024;
       FilterResults results = new FilterResults();
+      ListItem item = new ListItem();
 
       @Override
         protected FilterResults performFiltering(CharSequence constraint) {
-          ArrayList<ListItem> originalItems = new ArrayList<ListItem>(listDataUnfiltered.size());
-          ArrayList<ListItem> filteredItems = new ArrayList<ListItem>(listDataUnfiltered.size());
-          int[] includedItemsIndex = new int[listDataUnfiltered.size()];
-          int includedItemsPos = 0;
-          int iteratorPos = -1;
-          ListItem item;
+          FilteredIds filtered = new FilteredIds();
+          filtered.ids = new LogEntryStore.IdList();
+          filtered.settings = FilterSettings.capture();
+          LogEntryStore.IdList base = null;
+          FilterSettings baseSettings = null;
+          int id;
 
           doNotRefresh = true;
 
@@ -826,92 +669,121 @@ public class LogFragment extends Fragment {
             MyLog.d("[LogFragment] performFiltering");
           }
 
-          synchronized(listDataUnfiltered) {
-            originalItems.addAll(listDataUnfiltered);
+          synchronized(logEntries) {
+            id = logEntries.getFirstId();
+            filtered.endId = logEntries.getEndId();
+
+            if(listDataFiltered && listDataFilter != null) {
+              base = listData;
+              baseSettings = listDataFilter;
+            }
           }
 
-          if(NetworkLog.filterTextInclude.length() == 0 && NetworkLog.filterTextExclude.length() == 0) {
-            MyLog.d("[LogFragment] no constraint item count: " + originalItems.size());
-            results.values = originalItems;
-            results.count = originalItems.size();
+          if(!filtered.settings.isActive()) {
+            MyLog.d("[LogFragment] no constraint");
+            filtered.filtered = false;
           } else {
-            if(MyLog.enabled) {
-              MyLog.d("[LogFragment] item count: " + originalItems.size());
+            filtered.filtered = true;
+
+            // start from the current result where the filters allow:
+            // if narrower, entries not in it cannot match; if wider,
+            // entries in it still match
+            boolean narrower = base != null && filtered.settings.isNarrowerThan(baseSettings);
+            boolean wider = base != null && baseSettings.isNarrowerThan(filtered.settings);
+
+            if(base != null && !narrower && !wider) {
+              base = null;
             }
 
-            if(NetworkLog.filterTextIncludeList.size() > 0) {
-              Iterator<ListItem> iterator = originalItems.iterator();
-              while(iterator.hasNext()) {
-                item = iterator.next();
-                iteratorPos++;
+            if(MyLog.enabled) {
+              MyLog.d("[LogFragment] filtering " + (base == null ? "all entries" : narrower ? "current matches" : "current non-matches"));
+            }
 
-                if(MyLog.enabled) {
-                  MyLog.d("[LogFragment] testing filtered item " + item + "; includes: [" + NetworkLog.filterTextInclude + "]");
+            int pos;
+            boolean inBase;
+
+            // logEntries is locked a chunk at a time so the UI thread can
+            // keep adding entries
+            while(id - filtered.endId < 0) {
+              synchronized(logEntries) {
+                if(id - logEntries.getFirstId() < 0) {
+                  // dropped meanwhile
+                  id = logEntries.getFirstId();
+                } else if(!logEntries.contains(id)) {
+                  // entries were removed; the filter will be run again
+                  break;
                 }
 
-                matched = testIncludeFilter(item);
+                // base may have been trimmed meanwhile
+                pos = base == null ? 0 : base.search(id);
 
-                if(matched) {
-                  if(MyLog.enabled) {
-                    MyLog.d("[LogFragment] adding filtered item " + item);
-                  }
-                  includedItemsIndex[includedItemsPos++] = iteratorPos;
-                }
-              }
-            } else {
-              int count = originalItems.size();
-              for(int i = 0; i < count; i++) {
-                includedItemsIndex[includedItemsPos++] = i;
-              }
-            }
+                for(int i = 0; i < CHUNK_SIZE && id - filtered.endId < 0; i++) {
+                  if(base != null) {
+                    while(pos < base.size() && base.get(pos) - id < 0) {
+                      pos++;
+                    }
 
-            if(NetworkLog.filterTextExcludeList.size() > 0) {
-              for(int i = 0; i < includedItemsPos; i++) {
-                item = originalItems.get(includedItemsIndex[i]);
+                    inBase = pos < base.size() && base.get(pos) == id;
 
-                if(MyLog.enabled) {
-                  MyLog.d("[LogFragment] testing filtered item " + item + "; excludes: [" + NetworkLog.filterTextExclude + "]");
-                }
+                    if(!inBase && narrower) {
+                      // skip to the next entry of base
+                      id = pos < base.size() ? base.get(pos) : filtered.endId;
+                      continue;
+                    }
 
-                matched = testExcludeFilter(item);
+                    if(inBase && wider) {
+                      filtered.ids.add(id++);
+                      continue;
+                    }
+                  }
 
-                if(matched) {
-                  if(MyLog.enabled) {
-                    MyLog.d("[LogFragment] excluding filtered item " + item);
+                  if(filtered.settings.matches(getListItem(id, item))) {
+                    filtered.ids.add(id);
                   }
-                } else {
-                  filteredItems.add(item);
+
+                  id++;
                 }
               }
-            } else {
-              // no exclusion filter, add all included items to filteredItems
-              for(int i = 0; i < includedItemsPos; i++) {
-                filteredItems.add(originalItems.get(includedItemsIndex[i]));
-              }
             }
-
-            results.values = filteredItems;
-            results.count = filteredItems.size();
           }
 
+          results.values = filtered;
+          results.count = filtered.ids.size();
+
           if(MyLog.enabled) {
             MyLog.d("[LogFragment] filter returning " + results.count + " items");
           }
           return results;
         }
 
-      @SuppressWarnings("unchecked")
-        @Override
+      @Override
         protected void publishResults(CharSequence constraint, FilterResults results) {
           if(MyLog.enabled) {
             MyLog.d("[LogFragment] Publishing filter results");
           }
 
-          synchronized(listData) {
-            listData.clear();
-            listData.addAll((ArrayList<ListItem>) results.values);
+          FilteredIds filtered = (FilteredIds) results.values;
+
+          synchronized(logEntries) {
+            listData = filtered.ids;
+            listDataFiltered = filtered.filtered;
+            listDataFilter = filtered.settings;
+
+            if(listDataFiltered) {
+              // test entries added since filtering started
+              int endId = logEntries.getEndId();
+
+              for(int id = filtered.endId; id - endId < 0; id++) {
+                if(logEntries.contains(id) && listDataFilter.matches(getListItem(id, filterItem))) {
+                  listData.add(id);
+                }
+              }
+
+              listData.removeBefore(logEntries.getFirstId());
+            }
+
             if(MyLog.enabled) {
-              MyLog.d("[LogFilter] listdata size after filter: " + listData.size());
+              MyLog.d("[LogFilter] listdata size after filter: " + getItemCount());
             }
           }
 
@@ -943,8 +815,6 @@ public class LogFragment extends Fragment {
         TextView len;
         TextView timestamp;
 
-        final ListItem item = getItem(position);
-
         if(convertView == null) {
           convertView = mInflater.inflate(R.layout.logitem, null);
           holder = new ViewHolder(convertView);
@@ -953,6 +823,11 @@ public class LogFragment extends Fragment {
 
         holder = (ViewHolder) convertView.getTag();
 
+        // item is reused by the holder, so resolver callbacks keep their own copy of the address
+        final ListItem item = LogFragment.this.getItem(position, holder.item);
+        final String srcAddrString = item.srcAddr;
+        final String dstAddrString = item.dstAddr;
+
         icon = holder.getIcon();
         icon.setTag(item.app.packageName);
         icon.setImageDrawable(ApplicationsTracker.loadIcon(getActivity().getApplicationContext(), icon, item.app.packageName));
@@ -982,12 +857,9 @@ public class LogFragment extends Fragment {
           String resolved = NetworkLog.resolver.getResolvedAddress(item.srcAddr);
 
           if(resolved == null) {
-            NetworkResolverUpdater updater = new NetworkResolverUpdater() {
+            NetworkResolverUpdater updater = new NetworkResolverUpdater(srcAddr, srcAddrString) {
               public void run() {
-                String tag = (String) srcAddr.getTag();
-                if(tag != null && tag.equals(item.srcAddr)) {
-                  srcAddr.setText("SRC: " + resolved);
-                }
+                ((TextView) getBoundView()).setText("SRC: " + resolved);
               }
             };
             resolved = NetworkLog.resolver.resolveAddress(item.srcAddr, updater);
@@ -1005,7 +877,7 @@ public class LogFragment extends Fragment {
         srcPort = holder.getSrcPort();
 
         if(NetworkLog.resolvePorts) {
-          srcPort.setText(NetworkLog.resolver.resolveService(String.valueOf(item.srcPort)));
+          srcPort.setText(NetworkLog.resolver.resolveService(item.srcPort));
         } else {
           srcPort.setText(String.valueOf(item.srcPort));
         }
@@ -1016,12 +888,9 @@ public class LogFragment extends Fragment {
         if(NetworkLog.resolveHosts) {
           String resolved = NetworkLog.resolver.getResolvedAddress(item.dstAddr);
           if(resolved == null) {
-            NetworkResolverUpdater updater = new NetworkResolverUpdater() {
+            NetworkResolverUpdater updater = new NetworkResolverUpdater(dstAddr, dstAddrString) {
               public void run() {
-                String tag = (String) dstAddr.getTag();
-                if(tag != null && tag.equals(item.dstAddr)) {
-                  dstAddr.setText("DST: " + resolved);
-                }
+                ((TextView) getBoundView()).setText("DST: " + resolved);
               }
             };
             resolved = NetworkLog.resolver.resolveAddress(item.dstAddr, updater);
@@ -1039,7 +908,7 @@ public class LogFragment extends Fragment {
         dstPort = holder.getDstPort();
 
         if(NetworkLog.resolvePorts) {
-          dstPort.setText(NetworkLog.resolver.resolveService(String.valueOf(item.dstPort)));
+          dstPort.setText(NetworkLog.resolver.resolveService(item.dstPort));
         } else {
           dstPort.setText(String.valueOf(item.dstPort));
         }
@@ -1056,6 +925,7 @@ public class LogFragment extends Fragment {
   }
 
   private class ViewHolder {
+    private ListItem item = new ListItem();
     private View mView;
     private ImageView mIcon = null;
     private TextView mName = null;
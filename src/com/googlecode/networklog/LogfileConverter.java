@@ -0,0 +1,160 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Converts a logfile between the CSV and BinaryLogfile formats
+//
+// The original is renamed to logfile.old until the converted logfile and
+// its dictionary are in place, so if converting is interrupted the
+// original can be restored by recover().
+
+package com.googlecode.networklog;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+public class LogfileConverter {
+  /**
+   * @return true if logfile has entries in the format other than requested
+   */
+  public static boolean needsConversion(String logfile, boolean binary) {
+    File file = new File(logfile);
+
+    if(!file.exists() || file.length() == 0) {
+      return false;
+    }
+
+    return BinaryLogfile.isBinary(logfile) != binary;
+  }
+
+  /**
+   * Restores the original of an interrupted conversion of logfile, or
+   * deletes it if the converted logfile is complete.
+   */
+  public static void recover(String logfile) throws IOException {
+    String old = logfile + ".old";
+    File file = new File(logfile);
+    File oldFile = new File(old);
+    File dictionary = new File(BinaryLogfile.getDictionaryFile(logfile));
+    File oldDictionary = new File(BinaryLogfile.getDictionaryFile(old));
+
+    if(!oldFile.exists()) {
+      return;
+    }
+
+    // a binary logfile without records has no dictionary
+    if(file.exists() && (dictionary.exists() || file.length() <= BinaryLogfile.HEADER_SIZE || !BinaryLogfile.isBinary(logfile))) {
+      oldFile.delete();
+      oldDictionary.delete();
+      return;
+    }
+
+    Log.w("NetworkLog", "Restoring " + old + " after interrupted conversion");
+
+    // the index is only replaced once conversion is complete
+    file.delete();
+
+    if(!oldFile.renameTo(file)) {
+      throw new IOException("Failed to rename " + old + " to " + logfile);
+    }
+
+    // otherwise the original dictionary was never moved
+    if(oldDictionary.exists()) {
+      dictionary.delete();
+
+      if(!oldDictionary.renameTo(dictionary)) {
+        throw new IOException("Failed to rename " + oldDictionary + " to " + dictionary);
+      }
+    }
+  }
+
+  /**
+   * Rewrites logfile in place in the binary or CSV format, if it is not
+   * already in that format.
+   */
+  public static void convert(String logfile, boolean binary) throws IOException {
+    recover(logfile);
+
+    if(!needsConversion(logfile, binary)) {
+      return;
+    }
+
+    Log.d("NetworkLog", "Converting " + logfile + " to " + (binary ? "binary" : "CSV"));
+
+    long start = System.currentTimeMillis();
+    String converted = logfile + ".convert";
+    String old = logfile + ".old";
+
+    new File(converted).delete();
+    new File(BinaryLogfile.getDictionaryFile(converted)).delete();
+    new File(LogfileIndex.getIndexFile(converted)).delete();
+
+    LogfileLoader loader = new LogfileLoader();
+    LogfileWriter writer = null;
+    LogEntry entry;
+
+    try {
+      loader.openLogfile(logfile);
+      writer = new LogfileWriter(converted, binary, 0);
+      writer.open();
+
+      while((entry = loader.readEntry()) != null) {
+        writer.append(entry);
+      }
+
+      writer.flushBuffer();
+    } finally {
+      loader.closeLogfile();
+
+      if(writer != null) {
+        writer.closeOutput();
+      }
+    }
+
+    // keep the original until the converted logfile is in place
+    File file = new File(logfile);
+    File oldFile = new File(old);
+    File dictionary = new File(BinaryLogfile.getDictionaryFile(logfile));
+    File oldDictionary = new File(BinaryLogfile.getDictionaryFile(old));
+
+    oldFile.delete();
+    oldDictionary.delete();
+
+    if(!file.renameTo(oldFile)) {
+      throw new IOException("Failed to rename " + logfile + " to " + old);
+    }
+
+    if(dictionary.exists() && !dictionary.renameTo(oldDictionary)) {
+      oldFile.renameTo(file);
+      throw new IOException("Failed to rename " + dictionary + " to " + oldDictionary);
+    }
+
+    if(!new File(converted).renameTo(file)) {
+      recover(logfile);
+      throw new IOException("Failed to rename " + converted + " to " + logfile);
+    }
+
+    File convertedDictionary = new File(BinaryLogfile.getDictionaryFile(converted));
+
+    if(binary && convertedDictionary.exists() && !convertedDictionary.renameTo(dictionary)) {
+      recover(logfile);
+      throw new IOException("Failed to rename " + convertedDictionary + " to " + dictionary);
+    }
+
+    oldFile.delete();
+    oldDictionary.delete();
+
+    File index = new File(LogfileIndex.getIndexFile(logfile));
+    index.delete();
+
+    if(!new File(LogfileIndex.getIndexFile(converted)).renameTo(index)) {
+      Log.w("NetworkLog", "Failed to rename " + LogfileIndex.getIndexFile(converted) + " to " + index);
+    }
+
+    Log.d("NetworkLog", "Converted " + logfile + " in " + (System.currentTimeMillis() - start) + " ms");
+  }
+}
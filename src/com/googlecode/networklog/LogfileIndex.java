@@ -0,0 +1,248 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Sparse timestamp index kept next to the logfile (<logfile>.idx).
+//
+// LogfileWriter appends an ENTRY_SIZE entry of [long timestamp][long offset]
+// whenever INDEX_INTERVAL_BYTES of logfile or INDEX_INTERVAL_TIME of entries
+// have been written since the previous one.  The offset is the start of the
+// line (or record) holding the first entry with that timestamp, so readers
+// can narrow a timestamp search to a single block.  Entries are appended
+// only after the logfile data they point at has been written.
+
+package com.googlecode.networklog;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class LogfileIndex {
+  public static final int ENTRY_SIZE = 16;
+  public static final long INDEX_INTERVAL_BYTES = 64 * 1024;
+  public static final long INDEX_INTERVAL_TIME = 60 * 1000;
+
+  long[] timestamps = new long[0];
+  long[] offsets = new long[0];
+  int size = 0;
+
+  public static String getIndexFile(String logfile) {
+    return logfile + ".idx";
+  }
+
+  /**
+   * Loads the index for logfile, if any.  Entries pointing past
+   * logfileLength are ignored.
+   */
+  public void load(String logfile, long logfileLength) {
+    File file = new File(getIndexFile(logfile));
+    size = 0;
+
+    if(!file.exists()) {
+      return;
+    }
+
+    int capacity = (int) (file.length() / ENTRY_SIZE);
+    timestamps = new long[capacity];
+    offsets = new long[capacity];
+
+    DataInputStream input = null;
+    long timestamp, offset;
+
+    try {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+      while(size < capacity) {
+        timestamp = input.readLong();
+        offset = input.readLong();
+
+        if(offset >= logfileLength) {
+          break;
+        }
+
+        timestamps[size] = timestamp;
+        offsets[size] = offset;
+        size++;
+      }
+    } catch(EOFException e) {
+      // partial trailing entry
+    } catch(IOException e) {
+      MyLog.d("[LogfileIndex] Error loading index: " + e);
+      size = 0;
+    } finally {
+      if(input != null) {
+        try {
+          input.close();
+        } catch(IOException e) {
+          // ignored
+        }
+      }
+    }
+
+    if(MyLog.enabled) {
+      MyLog.d("[LogfileIndex] Loaded " + size + " index entries for " + logfile);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return index of the last entry for which matches() is false, or -1
+   */
+  public int findBefore(long target, boolean seekAhead) {
+    int min = 0;
+    int max = size;
+    int mid;
+
+    while(min < max) {
+      mid = (min + max) >>> 1;
+
+      if(matches(timestamps[mid], target, seekAhead)) {
+        max = mid;
+      } else {
+        min = mid + 1;
+      }
+    }
+
+    return min - 1;
+  }
+
+  // true for the entries a timestamp search looks for the first of
+  public static boolean matches(long timestamp, long target, boolean seekAhead) {
+    return seekAhead ? timestamp > target : timestamp >= target;
+  }
+
+  public long getTimestamp(int entry) {
+    return timestamps[entry];
+  }
+
+  public long getOffset(int entry) {
+    return offsets[entry];
+  }
+
+  /**
+   * Appends index entries for a logfile.
+   */
+  public static class Writer {
+    String indexFile;
+    FileOutputStream output;
+    byte[] pending = new byte[ENTRY_SIZE * 64];
+    int pendingLength = 0;
+    long lastOffset = -1;
+    long lastTimestamp = 0;
+
+    public Writer(String logfile, long logfileLength) throws IOException {
+      indexFile = getIndexFile(logfile);
+      File file = new File(indexFile);
+
+      if(file.exists() && logfileLength == 0) {
+        // logfile was deleted or emptied
+        file.delete();
+      } else if(file.exists()) {
+        // pick up where the index left off, dropping entries that point
+        // past the end of the logfile
+        LogfileIndex index = new LogfileIndex();
+        index.load(logfile, logfileLength);
+
+        if(index.size * ENTRY_SIZE != file.length()) {
+          RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+          truncate.setLength(index.size * ENTRY_SIZE);
+          truncate.close();
+        }
+
+        if(index.size > 0) {
+          lastOffset = index.offsets[index.size - 1];
+          lastTimestamp = index.timestamps[index.size - 1];
+        }
+      }
+
+      output = new FileOutputStream(file, true);
+    }
+
+    /**
+     * Called for each entry before it is written at offset.
+     */
+    public void update(long timestamp, long offset) {
+      if(lastOffset != -1 && offset - lastOffset < INDEX_INTERVAL_BYTES
+          && timestamp - lastTimestamp < INDEX_INTERVAL_TIME) {
+        return;
+      }
+
+      if(pendingLength == pending.length) {
+        byte[] newPending = new byte[pending.length * 2];
+        System.arraycopy(pending, 0, newPending, 0, pendingLength);
+        pending = newPending;
+      }
+
+      BinaryLogfile.putLong(pending, pendingLength, timestamp);
+      BinaryLogfile.putLong(pending, pendingLength + 8, offset);
+      pendingLength += ENTRY_SIZE;
+
+      lastOffset = offset;
+      lastTimestamp = timestamp;
+    }
+
+    /**
+     * Writes out pending entries; must be called after the logfile data
+     * they point at has been written.
+     */
+    public void flush() throws IOException {
+      if(pendingLength > 0) {
+        output.write(pending, 0, pendingLength);
+        pendingLength = 0;
+      }
+    }
+
+    public void close() throws IOException {
+      flush();
+      output.close();
+    }
+  }
+
+  /**
+   * Rewrites the index of a logfile whose data before start was removed
+   * and the remainder moved to newStart.
+   */
+  public static void truncate(String logfile, long start, long newStart) throws IOException {
+    File file = new File(getIndexFile(logfile));
+
+    if(!file.exists()) {
+      return;
+    }
+
+    LogfileIndex index = new LogfileIndex();
+    index.load(logfile, Long.MAX_VALUE);
+
+    File newFile = new File(getIndexFile(logfile) + ".new");
+    FileOutputStream output = new FileOutputStream(newFile);
+    byte[] entry = new byte[ENTRY_SIZE];
+
+    try {
+      for(int i = 0; i < index.size; i++) {
+        if(index.offsets[i] < start) {
+          continue;
+        }
+
+        BinaryLogfile.putLong(entry, 0, index.timestamps[i]);
+        BinaryLogfile.putLong(entry, 8, index.offsets[i] - start + newStart);
+        output.write(entry);
+      }
+    } finally {
+      output.close();
+    }
+
+    if(!file.delete() || !newFile.renameTo(file)) {
+      newFile.delete();
+      throw new IOException("Failed to replace " + file);
+    }
+  }
+}
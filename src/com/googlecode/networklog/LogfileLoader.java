@@ -13,31 +13,38 @@ import java.io.RandomAccessFile;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
+// Reads entries from a logfile in either the CSV or the BinaryLogfile format
+
 public class LogfileLoader {
+  static final long NO_TIMESTAMP = Long.MIN_VALUE;
+  static final int SCAN_SIZE = 1024;
+  static final int MAX_LINE_SIZE = 64 * 1024;
+
   RandomAccessFile logfile = null;
+  String filename;
+  MappedLogfileReader mapped = null; // set while reading with startMappedRead()
+  LogfileIndex index = new LogfileIndex();
+  byte[] probe = new byte[256]; // window for reading timestamps while seeking
+  long nextLine; // start of the line after the last one probed
+  boolean binary = false;
+  BinaryLogfile.Decoder decoder = null;
   LogEntry entry = new LogEntry();
-  FastParser parser = new FastParser(',');
+  FastByteParser parser = new FastByteParser(',');
   int buffer_size = 1024 * 16;
-  byte[] buffer = new byte[buffer_size]; // read a nice sized chunk of data
-  byte[] partial_buffer = new byte[128]; // for holding partial lines from end of buffer
-  byte[] line = new byte[128]; // a single line in the log file
+  byte[] buffer = new byte[buffer_size]; // read a nice sized chunk of data; grows to hold a long line
   int buffer_length = 0;
-  int buffer_pos = 0;
-  short partial_buffer_length = 0;
-  short line_length = 0;
-  short line_pos = 0;
+  int buffer_pos = 0; // start of the next line
+  int scan_pos = 0; // where to continue looking for the end of the next line
+  boolean skipping = false; // discarding the rest of a too long line
   long read_so_far = 0;
   long processed_so_far = 0;
-  StringBuilder sb = new StringBuilder(128);
-  char[] chars = new char[128];
   long length = 0;  // file length
 
   public void reset() {
     buffer_length = 0;
     buffer_pos = 0;
-    partial_buffer_length = 0;
-    line_length = 0;
-    line_pos = 0;
+    scan_pos = 0;
+    skipping = false;
     read_so_far = 0;
     processed_so_far = 0;
     length = 0;
@@ -45,11 +52,39 @@ public class LogfileLoader {
 
   public void openLogfile(String filename) throws FileNotFoundException, IllegalArgumentException, IOException {
     reset();
+    this.filename = filename;
     logfile = new RandomAccessFile(filename, "r");
     getLength();
+    index.load(filename, length);
+
+    binary = BinaryLogfile.isBinary(logfile);
+
+    if(binary) {
+      decoder = new BinaryLogfile.Decoder(filename);
+      decoder.loadDictionary();
+    } else {
+      decoder = null;
+    }
+  }
+
+  public boolean isBinary() {
+    return binary;
+  }
+
+  /**
+   * Reads the rest of the logfile from start onwards with a
+   * MappedLogfileReader; subsequent readEntry() calls return its entries.
+   */
+  public void startMappedRead(long start) throws IOException {
+    mapped = new MappedLogfileReader(filename, binary, start, length);
   }
 
   public void closeLogfile() throws IOException {
+    if(mapped != null) {
+      mapped.close();
+      mapped = null;
+    }
+
     if(logfile != null) {
       logfile.close();
       logfile = null;
@@ -62,110 +97,301 @@ public class LogfileLoader {
   }
 
   public long getLatestTimestamp() throws IOException {
-    long start_pos = length - 512;
-
-    if (start_pos < 0) {
-      start_pos = 0;
+    if(binary) {
+      long records = getRecordCount();
+      return records == 0 ? -1 : getRecordTimestamp(records - 1);
     }
 
-    logfile.seek(start_pos);
+    // walk back over lines at the end of the file until one parses
+    long position = length;
+    long lineStart;
+    long timestamp;
 
-    String line;
-    if (start_pos > 0) {
-      line = logfile.readLine();
-    }
+    while(position > 0) {
+      lineStart = getLineStart(position - 1);
 
-    long timestamp = -1;
+      if(lineStart < position - 1) {
+        timestamp = readLineTimestamp(lineStart);
 
-    while (true) {
-      line = logfile.readLine();
-      if(line == null) {
-        return timestamp;
+        if(timestamp != NO_TIMESTAMP) {
+          return timestamp;
+        }
       }
-      timestamp = Long.parseLong(line.split("[^0-9-]+", 2)[0]);
+
+      position = lineStart;
     }
+
+    return -1;
   }
 
   public long seekToTimestampPosition(long target) throws IOException {
     return seekToTimestampPosition(target, false);
   }
 
+  /**
+   * Seeks to the first entry with a timestamp at or after target, or with
+   * seekAhead to the first entry after target.  The search is narrowed to
+   * one block using the LogfileIndex when there is one.
+   * @return position, or -1 if no entry is at or after target (only
+   * without seekAhead)
+   */
   public long seekToTimestampPosition(long target, boolean seekAhead) throws IOException {
-    long result = 0;
-    long min = 0;
-    long max = getLength();
-    long mid;
+    long start = binary ? BinaryLogfile.HEADER_SIZE : 0;
+    long end = binary ? getRecordPosition(getRecordCount()) : length;
+    int entry = index.findBefore(target, seekAhead);
+
+    if(entry >= 0 && checkIndexEntry(entry)) {
+      start = index.getOffset(entry);
+    }
+
+    if(entry + 1 < index.size() && checkIndexEntry(entry + 1)) {
+      end = index.getOffset(entry + 1);
+    }
+
+    if(MyLog.enabled && MyLog.level >= 7) {
+      MyLog.d(7, "[LogfileLoader] searching " + start + " to " + end + " for " + target);
+    }
+
+    long result;
+
+    if(binary) {
+      result = searchRecords(start, end, target, seekAhead);
+    } else {
+      result = searchLines(start, end, target, seekAhead);
+    }
+
+    if(result == -1) {
+      // exiting
+      return -1;
+    }
+
+    if(!seekAhead && result >= (binary ? getRecordPosition(getRecordCount()) : length)) {
+      MyLog.d("[LogfileLoader] No packets found within time range");
+      return -1;
+    }
+
+    logfile.seek(result);
+    return result;
+  }
+
+  // verifies that an index entry points at an entry with its timestamp, in
+  // case the index is out of date with the logfile
+  boolean checkIndexEntry(int entry) throws IOException {
+    long offset = index.getOffset(entry);
     long timestamp;
-    String line;
 
-    // nearest match binary search to find timestamp within logfile
-    while(max >= min) {
+    if(binary) {
+      if((offset - BinaryLogfile.HEADER_SIZE) % BinaryLogfile.RECORD_SIZE != 0 || offset >= getRecordPosition(getRecordCount())) {
+        timestamp = NO_TIMESTAMP;
+      } else {
+        timestamp = getRecordTimestamp((offset - BinaryLogfile.HEADER_SIZE) / BinaryLogfile.RECORD_SIZE);
+      }
+    } else {
+      if(offset >= length || getLineStart(offset) != offset) {
+        timestamp = NO_TIMESTAMP;
+      } else {
+        timestamp = readLineTimestamp(offset);
+      }
+    }
+
+    if(timestamp != index.getTimestamp(entry)) {
+      MyLog.d("[LogfileLoader] Ignoring stale index entry " + entry);
+      return false;
+    }
+
+    return true;
+  }
+
+  long getRecordCount() {
+    if(length < BinaryLogfile.HEADER_SIZE) {
+      return 0;
+    }
+
+    return (length - BinaryLogfile.HEADER_SIZE) / BinaryLogfile.RECORD_SIZE;
+  }
+
+  long getRecordPosition(long record) {
+    return BinaryLogfile.HEADER_SIZE + record * BinaryLogfile.RECORD_SIZE;
+  }
+
+  long getRecordTimestamp(long record) throws IOException {
+    logfile.seek(getRecordPosition(record));
+    return logfile.readLong();
+  }
+
+  // binary search over the fixed-width records between start and end for
+  // the first record matching the search
+  long searchRecords(long start, long end, long target, boolean seekAhead) throws IOException {
+    long min = (start - BinaryLogfile.HEADER_SIZE) / BinaryLogfile.RECORD_SIZE;
+    long max = (end - BinaryLogfile.HEADER_SIZE) / BinaryLogfile.RECORD_SIZE;
+    long mid;
+
+    while(min < max) {
       if(NetworkLog.state == NetworkLog.State.EXITING) {
         closeLogfile();
         return -1;
       }
 
-      mid = (max + min) / 2;
+      mid = (min + max) >>> 1;
 
-      if(MyLog.enabled && MyLog.level >= 7) {
-        MyLog.d(7, "[LogfileLoader] testing position " + mid);
+      if(LogfileIndex.matches(getRecordTimestamp(mid), target, seekAhead)) {
+        max = mid;
+      } else {
+        min = mid + 1;
       }
+    }
 
-      logfile.seek(mid);
+    return getRecordPosition(min);
+  }
 
-      // discard line as we may be anywhere within it
-      line = logfile.readLine();
+  // binary search over the lines between start (a line start) and end (a
+  // line start or end of file) for the first line matching the search,
+  // finishing with a linear scan once the range is small
+  long searchLines(long start, long end, long target, boolean seekAhead) throws IOException {
+    long min = start;
+    long max = end;
+    long mid;
+    long lineStart;
+    long timestamp;
 
-      if(line != null) {
-        result = mid + line.length() + 1;
+    while(max - min > SCAN_SIZE) {
+      if(NetworkLog.state == NetworkLog.State.EXITING) {
+        closeLogfile();
+        return -1;
       }
 
-      line = logfile.readLine();
-      if(line == null) {
-        MyLog.d("[LogfileLoader] No packets found within time range");
-        return -1;
+      mid = (min + max) >>> 1;
+      lineStart = getLineStart(mid);
+
+      if(lineStart < mid) {
+        lineStart = nextLine;
       }
 
-      result += line.length() + 1;
-      timestamp = Long.parseLong(line.split("[^0-9-]+", 2)[0]);
+      // skip lines without a timestamp
+      timestamp = NO_TIMESTAMP;
 
-      if(timestamp < target) {
-        min = mid + 1;
-      } else if(timestamp > target) {
-        max = mid - 1;
-      } else {
-        // found exact match
+      while(lineStart < max && (timestamp = readLineTimestamp(lineStart)) == NO_TIMESTAMP) {
+        lineStart = nextLine;
+      }
+
+      if(lineStart >= max) {
         break;
       }
+
+      if(LogfileIndex.matches(timestamp, target, seekAhead)) {
+        max = lineStart;
+      } else {
+        min = nextLine;
+      }
     }
 
-    if(seekAhead == true) {
-      // seek to latest match
-      long position = result;
-      logfile.seek(position);
+    lineStart = min;
 
-      // read and discard since we may be anywhere within a line
-      position += logfile.readLine().length() + 1;
+    while(lineStart < max) {
+      timestamp = readLineTimestamp(lineStart);
 
-      while(true) {
-        line = logfile.readLine();
-        if(line == null) {
-          break;
+      if(timestamp != NO_TIMESTAMP && LogfileIndex.matches(timestamp, target, seekAhead)) {
+        return lineStart;
+      }
+
+      lineStart = nextLine;
+    }
+
+    return max;
+  }
+
+  // reads probe at position; returns bytes read, or -1 at end of file
+  int readProbe(long position) throws IOException {
+    if(position >= length) {
+      return -1;
+    }
+
+    logfile.seek(position);
+    return logfile.read(probe, 0, (int) Math.min(probe.length, length - position));
+  }
+
+  /**
+   * @return start of the line containing position; also sets nextLine to
+   * the start of the following line
+   */
+  long getLineStart(long position) throws IOException {
+    long lineStart = position;
+    long windowStart;
+    int read;
+
+    // scan backwards for the previous newline
+    search:
+    while(lineStart > 0) {
+      windowStart = Math.max(0, lineStart - probe.length);
+      read = readProbe(windowStart);
+
+      for(int i = (int) (lineStart - windowStart) - 1; i >= 0 && i < read; i--) {
+        if(probe[i] == '\n') {
+          lineStart = windowStart + i + 1;
+          break search;
         }
+      }
 
-        timestamp = Long.parseLong(line.split("[^0-9-]+", 2)[0]);
+      lineStart = windowStart;
+    }
+
+    findNextLine(position);
+    return lineStart;
+  }
 
-        if(timestamp > target) {
-          break;
+  // sets nextLine to the start of the line after the one holding position
+  void findNextLine(long position) throws IOException {
+    int read;
+
+    while((read = readProbe(position)) > 0) {
+      for(int i = 0; i < read; i++) {
+        if(probe[i] == '\n') {
+          nextLine = position + i + 1;
+          return;
         }
+      }
+
+      position += read;
+    }
+
+    nextLine = length;
+  }
 
-        // update new result position
-        result = position + line.length() + 1;
+  /**
+   * Parses the timestamp at the start of the line at lineStart and sets
+   * nextLine to the start of the following line.
+   * @return timestamp, or NO_TIMESTAMP if the line does not start with one
+   */
+  long readLineTimestamp(long lineStart) throws IOException {
+    int read = readProbe(lineStart);
+    long timestamp = 0;
+    boolean negative = false;
+    int i = 0;
+
+    if(read > 0 && probe[0] == '-') {
+      negative = true;
+      i++;
+    }
+
+    int digits = i;
+
+    while(i < read && probe[i] >= '0' && probe[i] <= '9') {
+      timestamp = timestamp * 10 + (probe[i] - '0');
+      i++;
+    }
+
+    boolean valid = i > digits && i < read && probe[i] != '\n';
+
+    // usually the whole line is within the probe
+    for(; i < read; i++) {
+      if(probe[i] == '\n') {
+        nextLine = lineStart + i + 1;
+        return valid ? (negative ? -timestamp : timestamp) : NO_TIMESTAMP;
       }
     }
 
-    logfile.seek(result);
-    return result;
+    findNextLine(lineStart + Math.max(read, 0));
+    return valid ? (negative ? -timestamp : timestamp) : NO_TIMESTAMP;
   }
 
   public byte[] getBuffer() {
@@ -181,8 +407,6 @@ public class LogfileLoader {
   }
 
   public boolean readChunk() throws IOException {
-    int i;
-
     buffer_length = logfile.read(buffer);
     buffer_pos = 0;
 
@@ -200,121 +424,170 @@ public class LogfileLoader {
       return false;
     }
 
-    // reset line
-    line_length = 0;
+    return true;
+  }
+
+  // reads more data after the unfinished line at buffer_pos, which is
+  // moved to the start of the buffer
+  boolean fillBuffer() throws IOException {
+    int remaining = buffer_length - buffer_pos;
 
-    // start line with previous unfinished line
-    if(partial_buffer_length > 0) {
-      for(i = 0; i < partial_buffer_length; i++) {
-        line[line_length++] = partial_buffer[i];
+    if(remaining > 0 && buffer_pos > 0) {
+      System.arraycopy(buffer, buffer_pos, buffer, 0, remaining);
+    }
+
+    scan_pos -= buffer_pos;
+    buffer_pos = 0;
+    buffer_length = remaining;
+
+    if(skipping) {
+      // still no end to the too long line
+      buffer_length = 0;
+      scan_pos = 0;
+    } else if(buffer_length == buffer.length) {
+      if(buffer.length >= MAX_LINE_SIZE) {
+        Log.w("NetworkLog", "Skipping too long entry: [" + new String(buffer, 0, 128) + "...]");
+        skipping = true;
+        buffer_length = 0;
+        scan_pos = 0;
+      } else {
+        byte[] newBuffer = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, newBuffer, 0, buffer_length);
+        buffer = newBuffer;
       }
+    }
+
+    int read = logfile.read(buffer, buffer_length, buffer.length - buffer_length);
+
+    if(read == -1) {
+      // end of file; an unterminated last line is still being written
+      MyLog.d("[LogfileLoader] Reached end of file");
+      return false;
+    }
 
-      // reset partial buffer
-      partial_buffer_length = 0;
+    read_so_far += read;
+    buffer_length += read;
+
+    if(MyLog.enabled && MyLog.level >= 6) {
+      MyLog.d(6, "[LogfileLoader] read " + read + "; so far: " + read_so_far + " out of " + length);
     }
 
     return true;
   }
 
   public LogEntry readEntry() throws IOException {
-    int i;
+    if(mapped != null) {
+      return mapped.readEntry();
+    }
+
+    if(binary) {
+      return readRecord();
+    }
+
+    int lineStart, lineEnd;
 
     while(true) {
-      if(buffer_pos >= buffer_length) {
-        if(readChunk() == false) {
-          // reached end of file
+      while(scan_pos < buffer_length && buffer[scan_pos] != '\n') {
+        scan_pos++;
+      }
+
+      if(scan_pos >= buffer_length) {
+        if(fillBuffer() == false) {
           return null;
         }
+        continue;
       }
 
-      // extract and parse lines
-      while(buffer_pos < buffer_length) {
-        if(line_length >= line.length - 1) {
-          Log.w("NetworkLog", "Skipping too long entry: [" + new String(line, 0, line.length - 1) + "]");
-          line_length = 0;
-
-          // read remainder of long line
-          while(buffer_pos < buffer_length && buffer[buffer_pos] != '\n') {
-            buffer_pos++;
-          }
-          continue;
-        }
+      // got line
+      lineStart = buffer_pos;
+      lineEnd = scan_pos;
+      buffer_pos = ++scan_pos;
 
-        if(buffer[buffer_pos] != '\n') {
-          line[line_length++] = buffer[buffer_pos++];
-        } else {
-          // got line
-          buffer_pos++;
-
-          if(line_length == 0) {
-            continue;
-          }
-
-          processed_so_far += line_length;
-
-          for(i = 0; i < line_length; i++) {
-            chars[i] = (char)line[i];
-          }
-
-          String value;
-          parser.setLine(chars, line_length);
-
-          try {
-            entry.timestamp = parser.getLong();
-
-            value = parser.getString();
-            if(value == null) {
-              entry.in = null;
-            } else {
-              entry.in = value;
-            }
-
-            value = parser.getString();
-            if(value == null) {
-              entry.out = null;
-            } else {
-              entry.out = value;
-            }
-
-            entry.uidString = parser.getString();
-            entry.uid = Integer.parseInt(entry.uidString);
-            entry.src = parser.getString();
-            entry.spt = parser.getInt();
-            entry.dst = parser.getString();
-            entry.dpt = parser.getInt();
-            entry.len = parser.getInt();
-
-            // Check hasMore() to support legacy logfile entries that did not include a protocol field
-            if(parser.hasMore()) {
-              entry.proto = parser.getString();
-            } else {
-              entry.proto = "";
-            }
-          } catch (Exception e) {
-            Log.w("NetworkLog", "Skipping malformed entry", e);
-            line_length = 0;
-            continue;
-          }
-
-          // reset line
-          line_length = 0;
-
-          return entry;
-        }
+      if(skipping) {
+        // end of a too long line
+        skipping = false;
+        continue;
+      }
+
+      if(lineEnd == lineStart) {
+        continue;
+      }
+
+      processed_so_far += lineEnd - lineStart;
+      parser.setLine(buffer, lineStart, lineEnd);
+
+      if(parseEntry(parser, entry)) {
+        return entry;
+      }
+    }
+  }
+
+  // timestamp,in,out,uid,src,spt,dst,dpt,len[,proto]
+  static boolean parseEntry(FastByteParser parser, LogEntry entry) {
+    try {
+      entry.timestamp = parser.getLong();
+      entry.in = parser.getString();
+      entry.out = parser.getString();
+      entry.uidString = parser.getString();
+      entry.uid = Integer.parseInt(entry.uidString);
+      entry.src = parser.getString();
+      entry.spt = parser.getInt();
+      entry.dst = parser.getString();
+      entry.dpt = parser.getInt();
+      entry.len = parser.getInt();
+
+      // Check hasMore() to support legacy logfile entries that did not include a protocol field
+      if(parser.hasMore()) {
+        entry.proto = parser.getString();
+      } else {
+        entry.proto = "";
       }
+    } catch (Exception e) {
+      Log.w("NetworkLog", "Skipping malformed entry", e);
+      return false;
+    }
 
-      if(buffer[buffer_pos - 1] != '\n') {
-        // no newline; must be last line of buffer
-        partial_buffer_length = 0;
+    return true;
+  }
 
-        for(i = 0; i < line_length; i++) {
-          partial_buffer[partial_buffer_length++] = line[i];
+  LogEntry readRecord() throws IOException {
+    int remaining = buffer_length - buffer_pos;
+
+    if(buffer_length == -1 || remaining < BinaryLogfile.RECORD_SIZE) {
+      // carry partial record over to the next chunk
+      if(remaining > 0) {
+        System.arraycopy(buffer, buffer_pos, buffer, 0, remaining);
+      } else {
+        remaining = 0;
+      }
+
+      buffer_length = remaining;
+      buffer_pos = 0;
+
+      while(buffer_length < BinaryLogfile.RECORD_SIZE) {
+        int read = logfile.read(buffer, buffer_length, buffer.length - buffer_length);
+
+        if(read == -1) {
+          MyLog.d("[LogfileLoader] Reached end of file");
+          return null;
         }
+
+        read_so_far += read;
+        buffer_length += read;
       }
     }
+
+    decoder.decode(buffer, buffer_pos, entry);
+    buffer_pos += BinaryLogfile.RECORD_SIZE;
+    processed_so_far += BinaryLogfile.RECORD_SIZE;
+    return entry;
   }
 
   public long getProcessedSoFar() {
+    if(mapped != null) {
+      return mapped.getProcessedSoFar();
+    }
+
     return processed_so_far;
   }
 }
@@ -0,0 +1,431 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Appends log entries to the logfile from a dedicated thread.  Entries are
+// queued and written out together once COMMIT_SIZE entries are waiting or
+// the oldest has waited commitInterval milliseconds, so that storage sees
+// one write per batch rather than one per packet.
+//
+// Entries are written either as CSV lines or as BinaryLogfile records.  An
+// existing logfile in the other format is converted before appending.
+//
+// Until the logfile is open, which waits for a previous writer and any
+// conversion, entries that do not fit the queue are dropped rather than
+// blocking the logger.
+//
+// close() only tells the writer thread to finish, so it may be called on
+// the main thread; a writer opened meanwhile waits for it to finish before
+// touching the logfile.
+
+package com.googlecode.networklog;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class LogfileWriter implements Runnable {
+  static final int QUEUE_SIZE = 4096; // must be power of 2
+  static final int COMMIT_SIZE = 512;
+  static final int BUFFER_SIZE = 64 * 1024;
+  static final int MAX_FIELD_LENGTH = 256; // characters
+
+  // five string fields of up to 3 bytes per character, five numbers and
+  // the separators
+  static final int MAX_LINE_SIZE = 5 * 3 * MAX_FIELD_LENGTH + 5 * 20 + 10;
+
+  // held by a writer thread for as long as it has its logfile open
+  static final Object openLock = new Object();
+
+  String logfile;
+  boolean binary;
+  FileOutputStream output;
+  BinaryLogfile.Encoder encoder;
+  LogfileIndex.Writer index;
+  long position; // logfile length, including written-out buffers
+  Thread thread;
+  volatile long commitInterval;
+  boolean closing = false;
+  boolean opened = false; // logfile opened, or failed to open
+  int dropped = 0; // entries dropped before opened
+
+  // ring buffer of entries waiting to be written; each holds a reference
+  final LogEntry[] queue = new LogEntry[QUEUE_SIZE];
+  int head = 0;
+  int count = 0;
+  long oldestTimestamp;
+
+  byte[] buffer = new byte[BUFFER_SIZE];
+  int length = 0;
+  LogEntry[] batch = new LogEntry[COMMIT_SIZE];
+
+  public LogfileWriter(String logfile, boolean binary, long commitInterval) {
+    this.logfile = logfile;
+    this.binary = binary;
+    this.commitInterval = commitInterval;
+  }
+
+  void open() throws IOException {
+    if(binary) {
+      File file = new File(logfile);
+
+      if(file.length() > BinaryLogfile.HEADER_SIZE) {
+        // drop a partial record left by an interrupted write
+        long records = (file.length() - BinaryLogfile.HEADER_SIZE) / BinaryLogfile.RECORD_SIZE;
+        RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+        truncate.setLength(BinaryLogfile.HEADER_SIZE + records * BinaryLogfile.RECORD_SIZE);
+        truncate.close();
+      }
+
+      output = new FileOutputStream(logfile, true);
+
+      if(file.length() == 0) {
+        BinaryLogfile.writeHeader(output);
+      }
+
+      encoder = new BinaryLogfile.Encoder(logfile);
+    } else {
+      File file = new File(logfile);
+      boolean terminated = true;
+
+      if(file.length() > 0) {
+        RandomAccessFile last = new RandomAccessFile(file, "r");
+        last.seek(file.length() - 1);
+        terminated = last.read() == '\n';
+        last.close();
+      }
+
+      output = new FileOutputStream(logfile, true);
+
+      if(!terminated) {
+        // finish a partial line left by an interrupted write so that new
+        // entries start on a line of their own
+        output.write('\n');
+      }
+    }
+
+    position = new File(logfile).length();
+    index = new LogfileIndex.Writer(logfile, position);
+  }
+
+  // also cleans up after open() failed part way
+  void closeOutput() {
+    try {
+      if(encoder != null) {
+        encoder.close();
+      }
+
+      if(index != null) {
+        index.close();
+      }
+
+      if(output != null) {
+        output.close();
+      }
+    } catch(IOException e) {
+      Log.w("NetworkLog", "Exception closing logfile [" + logfile + "]", e);
+    } finally {
+      // append() writes nothing once output is null
+      encoder = null;
+      index = null;
+      output = null;
+    }
+  }
+
+  public void start() {
+    thread = new Thread(this, "LogfileWriter");
+    thread.start();
+  }
+
+  public void setCommitInterval(long commitInterval) {
+    synchronized(queue) {
+      this.commitInterval = commitInterval;
+      queue.notify();
+    }
+  }
+
+  /**
+   * Queues entry to be written, taking a reference to it.  Blocks if the
+   * queue is full, or drops entry if the logfile is not open yet.
+   */
+  public void write(LogEntry entry) {
+    boolean interrupted = false;
+
+    synchronized(queue) {
+      if(count == QUEUE_SIZE && !opened) {
+        dropped++;
+        return;
+      }
+
+      while(count == QUEUE_SIZE && !closing) {
+        try {
+          queue.wait();
+        } catch(InterruptedException e) {
+          // keep waiting; dropping the entry would lose it from the log
+          interrupted = true;
+        }
+      }
+
+      if(interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+      if(closing) {
+        return;
+      }
+
+      entry.retain(1);
+      queue[(head + count) & (QUEUE_SIZE - 1)] = entry;
+
+      if(count++ == 0) {
+        oldestTimestamp = System.currentTimeMillis();
+      }
+
+      if(count == COMMIT_SIZE || count == 1) {
+        queue.notify();
+      }
+    }
+  }
+
+  /**
+   * Tells the writer thread to write out queued entries and close the
+   * logfile.  Does not wait for it to finish.
+   */
+  public void close() {
+    synchronized(queue) {
+      closing = true;
+      queue.notifyAll();
+    }
+  }
+
+  public void run() {
+    synchronized(openLock) {
+      writeEntries();
+    }
+
+    MyLog.d("LogfileWriter for " + logfile + " exiting");
+  }
+
+  void writeEntries() {
+    int taken;
+
+    try {
+      // converting may take a while, so it is left to the writer thread
+      LogfileConverter.convert(logfile, binary);
+      open();
+    } catch(Exception e) {
+      // entries are still drained below so their references are released;
+      // append() skips them once output is closed
+      Log.e("NetworkLog", "Exception opening logfile [" + logfile + "]", e);
+      closeOutput();
+
+      Context context = NetworkLogService.instance;
+      if(context != null) {
+        SysUtils.showError(context, context.getString(R.string.error_default_title), context.getString(R.string.error_openlogfile) + e.getMessage());
+      }
+    }
+
+    synchronized(queue) {
+      opened = true;
+
+      if(dropped > 0) {
+        Log.w("NetworkLog", "Dropped " + dropped + " entries while opening logfile [" + logfile + "]");
+      }
+    }
+
+    while(true) {
+      synchronized(queue) {
+        try {
+          while(!closing) {
+            if(count >= COMMIT_SIZE) {
+              break;
+            }
+
+            if(count == 0) {
+              queue.wait();
+              continue;
+            }
+
+            long wait = oldestTimestamp + commitInterval - System.currentTimeMillis();
+
+            if(wait <= 0) {
+              break;
+            }
+
+            queue.wait(wait);
+          }
+        } catch(InterruptedException e) {
+          // write what we have
+        }
+
+        if(closing && count == 0) {
+          break;
+        }
+
+        taken = count < COMMIT_SIZE ? count : COMMIT_SIZE;
+
+        for(int i = 0; i < taken; i++) {
+          batch[i] = queue[head];
+          queue[head] = null;
+          head = (head + 1) & (QUEUE_SIZE - 1);
+        }
+
+        // entries left over are at least as old as oldestTimestamp, so
+        // they are written out without waiting again
+        count -= taken;
+
+        // wake producer blocked on a full queue
+        queue.notifyAll();
+      }
+
+      commit(taken);
+    }
+
+    closeOutput();
+  }
+
+  void commit(int taken) {
+    LogEntry entry;
+
+    for(int i = 0; i < taken; i++) {
+      entry = batch[i];
+      batch[i] = null;
+      append(entry);
+      entry.release();
+    }
+
+    flushBuffer();
+  }
+
+  // formats entry into the write buffer, writing the buffer out when full
+  void append(LogEntry entry) {
+    if(output == null) {
+      // logfile could not be opened
+      return;
+    }
+
+    if(length + MAX_LINE_SIZE > buffer.length) {
+      flushBuffer();
+    }
+
+    index.update(entry.timestamp, position + length);
+
+    if(binary) {
+      encoder.encode(entry, buffer, length);
+      length += BinaryLogfile.RECORD_SIZE;
+    } else {
+      formatEntry(entry);
+    }
+  }
+
+  void flushBuffer() {
+    if(length == 0) {
+      return;
+    }
+
+    try {
+      if(encoder != null) {
+        encoder.flushDictionary();
+      }
+
+      output.write(buffer, 0, length);
+      position += length;
+
+      // index entries only ever point at data already written
+      index.flush();
+    } catch(IOException e) {
+      Log.e("NetworkLog", "Exception writing logfile [" + logfile + "]", e);
+    }
+
+    length = 0;
+  }
+
+  // timestamp,in,out,uid,src,spt,dst,dpt,len,proto
+  void formatEntry(LogEntry entry) {
+    appendLong(entry.timestamp);
+    buffer[length++] = ',';
+    appendString(entry.in);
+    buffer[length++] = ',';
+    appendString(entry.out);
+    buffer[length++] = ',';
+    appendLong(entry.uid);
+    buffer[length++] = ',';
+    appendString(entry.src);
+    buffer[length++] = ',';
+    appendLong(entry.spt);
+    buffer[length++] = ',';
+    appendString(entry.dst);
+    buffer[length++] = ',';
+    appendLong(entry.dpt);
+    buffer[length++] = ',';
+    appendLong(entry.len);
+    buffer[length++] = ',';
+    appendString(entry.proto);
+    buffer[length++] = '\n';
+  }
+
+  void appendLong(long value) {
+    if(value < 0) {
+      if(value == Long.MIN_VALUE) {
+        appendString(String.valueOf(value));
+        return;
+      }
+
+      buffer[length++] = '-';
+      value = -value;
+    }
+
+    int start = length;
+
+    do {
+      buffer[length++] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while(value != 0);
+
+    // digits were written least significant first
+    byte b;
+    for(int i = start, j = length - 1; i < j; i++, j--) {
+      b = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = b;
+    }
+  }
+
+  // UTF-8, truncated to MAX_FIELD_LENGTH so a line fits MAX_LINE_SIZE;
+  // no interface name, address or protocol comes near it
+  void appendString(String string) {
+    if(string == null) {
+      appendString("null");
+      return;
+    }
+
+    int stringLength = string.length();
+    char c;
+
+    if(stringLength > MAX_FIELD_LENGTH) {
+      Log.w("NetworkLog", "Truncated " + stringLength + " character field in logfile [" + logfile + "]");
+      stringLength = MAX_FIELD_LENGTH;
+    }
+
+    for(int i = 0; i < stringLength; i++) {
+      c = string.charAt(i);
+
+      if(c < 0x80) {
+        buffer[length++] = (byte) c;
+      } else if(c < 0x800) {
+        buffer[length++] = (byte) (0xc0 | (c >> 6));
+        buffer[length++] = (byte) (0x80 | (c & 0x3f));
+      } else {
+        buffer[length++] = (byte) (0xe0 | (c >> 12));
+        buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[length++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+  }
+}
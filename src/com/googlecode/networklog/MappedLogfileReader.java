@@ -0,0 +1,243 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Reads a byte range of a logfile by splitting it into segments that are
+// memory-mapped and parsed in parallel, one segment per task.  Segments
+// are handed back strictly in file order; since the logfile is written
+// in timestamp order, this also keeps the entries in timestamp order.
+
+package com.googlecode.networklog;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class MappedLogfileReader {
+  static final int SEGMENT_SIZE = 1024 * 1024;
+  static final int MAX_LINE_SIZE = 64 * 1024; // a line may run past its segment by this much
+
+  String filename;
+  boolean binary;
+  RandomAccessFile file;
+  FileChannel channel;
+  ExecutorService executor;
+  int threads;
+  int segmentSize = SEGMENT_SIZE;
+  BinaryLogfile.Decoder decoder;
+
+  long start;
+  long end;
+  long nextSegmentStart;
+
+  // segments being parsed, in file order
+  LinkedList<Future<Segment>> pending = new LinkedList<Future<Segment>>();
+  // parsed segments available for reuse
+  LinkedList<Segment> spares = new LinkedList<Segment>();
+  Segment current;
+  int currentPos;
+
+  static class Segment {
+    long start;
+    long end;
+    LogEntry[] entries = new LogEntry[4096];
+    int count;
+
+    LogEntry nextEntry() {
+      if(count == entries.length) {
+        LogEntry[] newEntries = new LogEntry[entries.length * 2];
+        System.arraycopy(entries, 0, newEntries, 0, count);
+        entries = newEntries;
+      }
+
+      if(entries[count] == null) {
+        entries[count] = new LogEntry();
+      }
+
+      return entries[count++];
+    }
+  }
+
+  /**
+   * @param start position of the first entry to read; must be at the
+   * start of a line (or record)
+   */
+  public MappedLogfileReader(String filename, boolean binary, long start, long end) throws IOException {
+    this.filename = filename;
+    this.binary = binary;
+    this.start = start;
+    this.end = end;
+
+    if(binary) {
+      // only read whole records
+      if(start < BinaryLogfile.HEADER_SIZE) {
+        this.start = start = BinaryLogfile.HEADER_SIZE;
+      }
+
+      this.end = start + (end - start) / BinaryLogfile.RECORD_SIZE * BinaryLogfile.RECORD_SIZE;
+      segmentSize = SEGMENT_SIZE / BinaryLogfile.RECORD_SIZE * BinaryLogfile.RECORD_SIZE;
+
+      // the dictionary already holds every string used by the records in
+      // range, so it is loaded once and only read by the worker threads
+      decoder = new BinaryLogfile.Decoder(filename);
+      decoder.loadDictionary();
+      decoder.reload = false;
+    }
+
+    file = new RandomAccessFile(filename, "r");
+    channel = file.getChannel();
+    threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    executor = Executors.newFixedThreadPool(threads);
+    nextSegmentStart = start;
+
+    MyLog.d("[MappedLogfileReader] Reading " + filename + " from " + start + " to " + end + " with " + threads + " threads");
+
+    // keep every thread busy, plus one segment ready for the consumer
+    for(int i = 0; i <= threads; i++) {
+      submitSegment();
+    }
+  }
+
+  void submitSegment() {
+    if(nextSegmentStart >= end) {
+      return;
+    }
+
+    final Segment segment = spares.isEmpty() ? new Segment() : spares.removeFirst();
+    segment.start = nextSegmentStart;
+    segment.end = Math.min(nextSegmentStart + segmentSize, end);
+    segment.count = 0;
+    nextSegmentStart = segment.end;
+
+    pending.add(executor.submit(new Callable<Segment>() {
+      public Segment call() throws Exception {
+        if(binary) {
+          parseRecords(segment);
+        } else {
+          parseLines(segment);
+        }
+        return segment;
+      }
+    }));
+  }
+
+  /**
+   * @return next entry in file order, or null at the end of the range;
+   * the entry is reused once the following segment is reached
+   */
+  public LogEntry readEntry() throws IOException {
+    while(current == null || currentPos >= current.count) {
+      if(current != null) {
+        spares.add(current);
+        current = null;
+        submitSegment();
+      }
+
+      if(pending.isEmpty()) {
+        return null;
+      }
+
+      try {
+        current = pending.removeFirst().get();
+        currentPos = 0;
+      } catch(InterruptedException e) {
+        throw new IOException("Interrupted while reading " + filename);
+      } catch(ExecutionException e) {
+        IOException ioe = new IOException("Error reading " + filename + ": " + e.getCause());
+        ioe.initCause(e.getCause());
+        throw ioe;
+      }
+    }
+
+    return current.entries[currentPos++];
+  }
+
+  /**
+   * @return bytes of the range that have been handed out so far
+   */
+  public long getProcessedSoFar() {
+    if(current == null) {
+      return 0;
+    }
+
+    return current.start - start + (current.end - current.start) * currentPos / Math.max(1, current.count);
+  }
+
+  public void close() {
+    executor.shutdownNow();
+
+    try {
+      file.close();
+    } catch(IOException e) {
+      // ignored
+    }
+  }
+
+  void parseRecords(Segment segment) throws IOException {
+    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, segment.start, segment.end - segment.start);
+    byte[] record = new byte[BinaryLogfile.RECORD_SIZE];
+
+    while(map.remaining() >= BinaryLogfile.RECORD_SIZE) {
+      map.get(record);
+      decoder.decode(record, 0, segment.nextEntry());
+    }
+  }
+
+  // parses the lines that start within the segment; the last one may
+  // extend past the segment's end
+  void parseLines(Segment segment) throws IOException {
+    long mapStart = segment.start > start ? segment.start - 1 : segment.start;
+    long mapEnd = Math.min(segment.end + MAX_LINE_SIZE, end);
+    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+    int segmentEnd = (int) (segment.end - mapStart);
+    int limit = map.limit();
+    int pos = 0;
+
+    if(mapStart < segment.start) {
+      // the line under way at the segment start belongs to the previous segment
+      while(pos < limit && map.get(pos) != '\n') {
+        pos++;
+      }
+      pos++;
+    }
+
+    FastByteParser parser = new FastByteParser(',');
+    int lineStart, lineEnd;
+
+    while(pos < segmentEnd) {
+      lineStart = pos;
+
+      while(pos < limit && map.get(pos) != '\n') {
+        pos++;
+      }
+
+      if(pos == limit && mapEnd < end) {
+        Log.w("NetworkLog", "Skipping too long entry at " + (mapStart + lineStart));
+        break;
+      }
+
+      lineEnd = pos++;
+
+      if(lineEnd == lineStart) {
+        continue;
+      }
+
+      parser.setLine(map, lineStart, lineEnd);
+
+      if(!LogfileLoader.parseEntry(parser, segment.nextEntry())) {
+        segment.count--;
+      }
+    }
+  }
+}
@@ -6,225 +6,428 @@
 
 package com.googlecode.networklog;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.PrintStream;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 
 import android.util.Log;
 
-public class NetStat {
-  final String states[] = { "ESTBLSH",   "SYNSENT",   "SYNRECV",   "FWAIT1",   "FWAIT2",   "TMEWAIT",
-    "CLOSED",    "CLSWAIT",   "LASTACK",   "LISTEN",   "CLOSING",  "UNKNOWN"
-  };
+// Reads the /proc/net socket tables into reused buffers and reports only
+// the sockets that are new or changed since the previous refresh
 
-  public class Connection {
-    String src;
-    String spt;
-    String dst;
-    String dpt;
-    String uid;
+public class NetStat {
+  public static class Connection {
+    int src;
+    int spt;
+    int dst;
+    int dpt;
+    int uid;
+    int proto;
+    long inode;
   }
 
-  ArrayList<Connection> connections;
+  static final int PROTO_TCP = 6;
+  static final int PROTO_UDP = 17;
+
+  static final String tables[] = { "tcp", "udp", "tcp6", "udp6" };
+  static final int tableProtos[] = { PROTO_TCP, PROTO_UDP, PROTO_TCP, PROTO_UDP };
+  static final boolean tableIpv6[] = { false, false, true, true };
+
+  RandomAccessFile[] files = new RandomAccessFile[tables.length];
+  String[] paths = new String[tables.length];
+  byte[] buffer = new byte[16384];
+  int bufferLength;
+  int pos;
+
+  // current snapshot, and the buffer the next snapshot is built in
+  Connection[] connections = new Connection[256];
+  int connectionCount;
+  Connection[] nextConnections = new Connection[256];
+  int nextConnectionCount;
+
+  // spare objects recycled from sockets that went away
+  Connection[] spares = new Connection[64];
+  int spareCount;
+
+  // inode -> index into connections
+  long[] indexKeys = new long[512];
+  int[] indexValues = new int[512];
+
+  ArrayList<Connection> changed = new ArrayList<Connection>();
 
   public NetStat() {
-    connections = new ArrayList<Connection>();
-  }
+    int pid = android.os.Process.myPid();
 
-  private final String getAddress(final String hexa) {
-    try {
-      final long v = Long.parseLong(hexa, 16);
-      final long adr = (v >>> 24) | (v << 24) |
-        ((v << 8) & 0x00FF0000) | ((v >> 8) & 0x0000FF00);
-      return ((adr >> 24) & 0xff) + "." + ((adr >> 16) & 0xff) + "." + ((adr >> 8) & 0xff) + "." + (adr & 0xff);
-    } catch(Exception e) {
-      Log.w("NetworkLog", e.toString(), e);
-      return "-1.-1.-1.-1";
+    for(int i = 0; i < tables.length; i++) {
+      paths[i] = "/proc/" + pid + "/net/" + tables[i];
     }
   }
 
-  private final String getAddress6(final String hexa) {
-    try {
-      final String ip4[] = hexa.split("0000000000000000FFFF0000");
-
-      if(ip4.length == 2) {
-        final long v = Long.parseLong(ip4[1], 16);
-        final long adr = (v >>> 24) | (v << 24) |
-          ((v << 8) & 0x00FF0000) | ((v >> 8) & 0x0000FF00);
-        return ((adr >> 24) & 0xff) + "." + ((adr >> 16) & 0xff) + "." + ((adr >> 8) & 0xff) + "." + (adr & 0xff);
-      } else {
-        return "-2.-2.-2.-2";
+  /**
+   * Re-reads the socket tables.
+   * @return the connections that are new or changed since the last call;
+   * the list and its objects are reused by the next call
+   */
+  public synchronized ArrayList<Connection> getConnections() {
+    changed.clear();
+    nextConnectionCount = 0;
+
+    for(int i = 0; i < tables.length; i++) {
+      try {
+        if(!readTable(i)) {
+          continue;
+        }
+
+        parseTable(tableProtos[i], tableIpv6[i]);
+      } catch(Exception e) {
+        Log.w("NetworkLog", e.toString(), e);
       }
-    } catch(Exception e) {
-      Log.w("NetworkLog", e.toString(), e);
-      return "-1.-1.-1.-1";
     }
-  }
 
-  private final int getInt16(final String hexa) {
-    try {
-      return Integer.parseInt(hexa, 16);
-    } catch(Exception e) {
-      Log.w("NetworkLog", e.toString(), e);
-      return -1;
+    // recycle connections that were not carried into the new snapshot
+    for(int i = 0; i < connectionCount; i++) {
+      if(connections[i] != null) {
+        addSpare(connections[i]);
+        connections[i] = null;
+      }
     }
+
+    Connection[] swap = connections;
+    connections = nextConnections;
+    connectionCount = nextConnectionCount;
+    nextConnections = swap;
+
+    rebuildIndex();
+
+    if(MyLog.enabled && MyLog.level >= 5) {
+      MyLog.d(5, "Netstat: " + connectionCount + " sockets, " + changed.size() + " changed");
+    }
+
+    return changed;
   }
 
-  public ArrayList<Connection> getConnections() {
-    connections.clear();
-    try {
-      BufferedReader in = new BufferedReader(new FileReader("/proc/" + android.os.Process.myPid() + "/net/tcp"));
-      String line;
+  /**
+   * Finds the uid of a socket in the current snapshot.
+   * @return uid, or FlowTable.NOT_FOUND
+   */
+  public synchronized int getUid(int src, int spt, int dst, int dpt, int proto) {
+    Connection connection;
 
-      while((line = in.readLine()) != null) {
-        line = line.trim();
-        if(MyLog.enabled && MyLog.level >= 5) {
-          MyLog.d(5, "Netstat: " + line);
+    for(int i = 0; i < connectionCount; i++) {
+      connection = connections[i];
+
+      if(connection.spt == spt && connection.dpt == dpt && connection.src == src
+          && connection.dst == dst && connection.proto == proto) {
+        return connection.uid;
+      }
+    }
+
+    return FlowTable.NOT_FOUND;
+  }
+
+  boolean readTable(int table) throws IOException {
+    if(files[table] == null) {
+      try {
+        files[table] = new RandomAccessFile(paths[table], "r");
+      } catch(IOException e) {
+        // table not present on this device (e.g. no IPv6)
+        if(MyLog.enabled) {
+          MyLog.d("Netstat: unable to open " + paths[table] + ": " + e);
         }
-        String[] fields = line.split("\\s+", 10);
-        int fieldn = 0;
+        return false;
+      }
+    }
+
+    RandomAccessFile file = files[table];
+    int read;
 
-        if(MyLog.enabled && MyLog.level >= 9) {
-          for(String field : fields) {
-            MyLog.d(9, "Field " + (fieldn++) + ": [" + field + "]");
-          }
+    try {
+      // seq_file regenerates its contents when rewound
+      file.seek(0);
+      bufferLength = 0;
+
+      while(true) {
+        if(bufferLength == buffer.length) {
+          byte[] newBuffer = new byte[buffer.length * 2];
+          System.arraycopy(buffer, 0, newBuffer, 0, bufferLength);
+          buffer = newBuffer;
         }
 
-        if(fields[0].equals("sl")) {
-          continue;
+        read = file.read(buffer, bufferLength, buffer.length - bufferLength);
+
+        if(read == -1) {
+          break;
         }
 
-        Connection connection = new Connection();
+        bufferLength += read;
+      }
+    } catch(IOException e) {
+      try {
+        file.close();
+      } catch(IOException e2) {
+        // ignored
+      }
+      files[table] = null;
+      throw e;
+    }
 
-        String src[] = fields[1].split(":", 2);
-        String dst[] = fields[2].split(":", 2);
+    return true;
+  }
 
-        connection.src = getAddress(src[0]);
-        connection.spt = String.valueOf(getInt16(src[1]));
-        connection.dst = getAddress(dst[0]);
-        connection.dpt = String.valueOf(getInt16(dst[1]));
-        connection.uid = fields[7];
+  void parseTable(int proto, boolean ipv6) {
+    int src, spt, dst, dpt, uid;
+    long inode;
+    boolean mapped;
+    int addressLength = ipv6 ? 32 : 8;
+
+    pos = 0;
+
+    // skip header line
+    skipLine();
+
+    while(pos < bufferLength) {
+      try {
+        // sl
+        skipField();
+
+        // local_address
+        skipSpaces();
+        mapped = !ipv6 || isIpv4Mapped(pos);
+        src = getAddress(ipv6 ? pos + 24 : pos);
+        pos += addressLength + 1;
+        spt = (int) getHex(':', ' ');
+
+        // rem_address
+        skipSpaces();
+        mapped = mapped && (!ipv6 || isIpv4Mapped(pos));
+        dst = getAddress(ipv6 ? pos + 24 : pos);
+        pos += addressLength + 1;
+        dpt = (int) getHex(':', ' ');
+
+        // st, tx_queue:rx_queue, tr:tm->when, retrnsmt
+        skipField();
+        skipField();
+        skipField();
+        skipField();
+
+        skipSpaces();
+        uid = (int) getDecimal();
+
+        // timeout
+        skipField();
+
+        skipSpaces();
+        inode = getDecimal();
+      } catch(IndexOutOfBoundsException e) {
+        Log.w("NetworkLog", "Netstat: truncated line", e);
+        return;
+      }
+
+      skipLine();
 
-        connections.add(connection);
+      if(!mapped) {
+        // IPv6 address that is not IPv4-mapped
+        continue;
       }
 
-      in.close();
+      addConnection(src, spt, dst, dpt, uid, proto, inode);
+    }
+  }
 
-      in = new BufferedReader(new FileReader("/proc/" + android.os.Process.myPid() + "/net/udp"));
+  void addConnection(int src, int spt, int dst, int dpt, int uid, int proto, long inode) {
+    Connection connection = null;
+    int index = -1;
 
-      while((line = in.readLine()) != null) {
-        line = line.trim();
-        if(MyLog.enabled && MyLog.level >= 5) {
-          MyLog.d(5, "Netstat: " + line);
-        }
-        String[] fields = line.split("\\s+", 10);
-        int fieldn = 0;
+    if(inode != 0) {
+      index = findIndex(inode);
+    }
 
-        if(MyLog.enabled && MyLog.level >= 9) {
-          for(String field : fields) {
-            MyLog.d(9, "Field " + (fieldn++) + ": [" + field + "]");
-          }
-        }
+    if(index != -1) {
+      connection = connections[index];
+    }
 
-        if(fields[0].equals("sl")) {
-          continue;
-        }
+    if(connection != null && connection.src == src && connection.spt == spt && connection.dst == dst
+        && connection.dpt == dpt && connection.uid == uid && connection.proto == proto) {
+      // unchanged socket
+      connections[index] = null;
+      addNext(connection);
+      return;
+    }
 
-        Connection connection = new Connection();
+    if(connection != null) {
+      connections[index] = null;
+    } else {
+      connection = getSpare();
+    }
 
-        String src[] = fields[1].split(":", 2);
-        String dst[] = fields[2].split(":", 2);
+    connection.src = src;
+    connection.spt = spt;
+    connection.dst = dst;
+    connection.dpt = dpt;
+    connection.uid = uid;
+    connection.proto = proto;
+    connection.inode = inode;
 
-        connection.src = getAddress(src[0]);
-        connection.spt = String.valueOf(getInt16(src[1]));
-        connection.dst = getAddress(dst[0]);
-        connection.dpt = String.valueOf(getInt16(dst[1]));
-        connection.uid = fields[7];
+    addNext(connection);
+    changed.add(connection);
+  }
 
-        connections.add(connection);
-      }
+  void addNext(Connection connection) {
+    if(nextConnectionCount == nextConnections.length) {
+      Connection[] newConnections = new Connection[nextConnections.length * 2];
+      System.arraycopy(nextConnections, 0, newConnections, 0, nextConnectionCount);
+      nextConnections = newConnections;
+    }
 
-      in.close();
+    nextConnections[nextConnectionCount++] = connection;
+  }
 
-      in = new BufferedReader(new FileReader("/proc/" + android.os.Process.myPid() + "/net/tcp6"));
+  Connection getSpare() {
+    if(spareCount > 0) {
+      Connection connection = spares[--spareCount];
+      spares[spareCount] = null;
+      return connection;
+    }
 
-      while((line = in.readLine()) != null) {
-        line = line.trim();
-        if(MyLog.enabled && MyLog.level >= 5) {
-          MyLog.d(5, "Netstat: " + line);
-        }
-        String[] fields = line.split("\\s+", 10);
-        int fieldn = 0;
+    return new Connection();
+  }
 
-        if(MyLog.enabled && MyLog.level >= 9) {
-          for(String field : fields) {
-            MyLog.d(9, "Field " + (fieldn++) + ": [" + field + "]");
-          }
-        }
+  void addSpare(Connection connection) {
+    if(spareCount < spares.length) {
+      spares[spareCount++] = connection;
+    }
+  }
 
-        if(fields[0].equals("sl")) {
-          continue;
-        }
+  void rebuildIndex() {
+    int capacity = indexKeys.length;
 
-        Connection connection = new Connection();
+    while(capacity < connectionCount * 2) {
+      capacity *= 2;
+    }
 
-        String src[] = fields[1].split(":", 2);
-        String dst[] = fields[2].split(":", 2);
+    if(capacity != indexKeys.length) {
+      indexKeys = new long[capacity];
+      indexValues = new int[capacity];
+    } else {
+      java.util.Arrays.fill(indexKeys, 0);
+    }
+
+    int mask = capacity - 1;
+    int slot;
+    long inode;
 
-        connection.src = getAddress6(src[0]);
-        connection.spt = String.valueOf(getInt16(src[1]));
-        connection.dst = getAddress6(dst[0]);
-        connection.dpt = String.valueOf(getInt16(dst[1]));
-        connection.uid = fields[7];
+    for(int i = 0; i < connectionCount; i++) {
+      inode = connections[i].inode;
 
-        connections.add(connection);
+      if(inode == 0) {
+        continue;
       }
 
-      in.close();
+      slot = hash(inode) & mask;
 
-      in = new BufferedReader(new FileReader("/proc/" + android.os.Process.myPid() + "/net/udp6"));
+      while(indexKeys[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
 
-      while((line = in.readLine()) != null) {
-        line = line.trim();
-        if(MyLog.enabled && MyLog.level >= 5) {
-          MyLog.d(5, "Netstat: " + line);
-        }
-        String[] fields = line.split("\\s+", 10);
-        int fieldn = 0;
+      indexKeys[slot] = inode;
+      indexValues[slot] = i;
+    }
+  }
 
-        if(MyLog.enabled && MyLog.level >= 9) {
-          for(String field : fields) {
-            MyLog.d(9, "Field " + (fieldn++) + ": [" + field + "]");
-          }
-        }
+  int findIndex(long inode) {
+    int mask = indexKeys.length - 1;
+    int slot = hash(inode) & mask;
 
-        if(fields[0].equals("sl")) {
-          continue;
-        }
+    while(indexKeys[slot] != 0) {
+      if(indexKeys[slot] == inode) {
+        return indexValues[slot];
+      }
+
+      slot = (slot + 1) & mask;
+    }
 
-        Connection connection = new Connection();
+    return -1;
+  }
 
-        String src[] = fields[1].split(":", 2);
-        String dst[] = fields[2].split(":", 2);
+  static int hash(long inode) {
+    int h = (int) (inode ^ (inode >>> 32));
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
 
-        connection.src = getAddress6(src[0]);
-        connection.spt = String.valueOf(getInt16(src[1]));
-        connection.dst = getAddress6(dst[0]);
-        connection.dpt = String.valueOf(getInt16(dst[1]));
-        connection.uid = fields[7];
+  // IPv4 address as printed by the kernel (host byte order, little-endian)
+  int getAddress(int offset) {
+    return Integer.reverseBytes((int) getHex(offset, 8));
+  }
 
-        connections.add(connection);
+  // IPv6 address of the form ::ffff:a.b.c.d
+  boolean isIpv4Mapped(int offset) {
+    return getHex(offset, 8) == 0 && getHex(offset + 8, 8) == 0 && getHex(offset + 16, 8) == 0xFFFF0000L;
+  }
+
+  long getHex(int offset, int length) {
+    long value = 0;
+    int end = offset + length;
+    byte b;
+
+    for(int i = offset; i < end; i++) {
+      b = buffer[i];
+      value <<= 4;
+
+      if(b >= '0' && b <= '9') {
+        value |= b - '0';
+      } else if(b >= 'A' && b <= 'F') {
+        value |= b - 'A' + 10;
+      } else if(b >= 'a' && b <= 'f') {
+        value |= b - 'a' + 10;
       }
+    }
 
-      in.close();
-    } catch(Exception e) {
-      Log.w("NetworkLog", e.toString(), e);
+    return value;
+  }
+
+  // hex value at pos up to either terminator; advances pos past it
+  long getHex(char terminator1, char terminator2) {
+    int start = pos;
+
+    while(pos < bufferLength && buffer[pos] != terminator1 && buffer[pos] != terminator2) {
+      pos++;
     }
 
-    return connections;
+    return getHex(start, pos - start);
   }
-}
 
+  long getDecimal() {
+    long value = 0;
+    byte b;
 
+    while(pos < bufferLength && (b = buffer[pos]) >= '0' && b <= '9') {
+      value = value * 10 + (b - '0');
+      pos++;
+    }
+
+    return value;
+  }
+
+  void skipSpaces() {
+    while(pos < bufferLength && buffer[pos] == ' ') {
+      pos++;
+    }
+  }
+
+  void skipField() {
+    skipSpaces();
+
+    while(pos < bufferLength && buffer[pos] != ' ' && buffer[pos] != '\n') {
+      pos++;
+    }
+  }
+
+  void skipLine() {
+    while(pos < bufferLength && buffer[pos] != '\n') {
+      pos++;
+    }
+
+    pos++;
+  }
+}
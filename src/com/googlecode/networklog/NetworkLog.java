@@ -159,6 +159,19 @@ public class NetworkLog extends SherlockFragmentActivity {
             appFragment.onNewLogEntry(entry);
             break;
 
+          case NetworkLogService.MSG_BROADCAST_LOG_ENTRIES:
+            LogEntry[] entries = (LogEntry[]) msg.obj;
+            if(MyLog.enabled && MyLog.level >= 2) {
+              MyLog.d(2, "Received entries: " + entries.length);
+            }
+            for(LogEntry logEntry : entries) {
+              logFragment.onNewLogEntry(logEntry);
+              appFragment.onNewLogEntry(logEntry);
+              // fragments copy out what they keep; return entry to pool
+              logEntry.release();
+            }
+            break;
+
           default:
             super.handleMessage(msg);
         }
@@ -407,7 +420,7 @@ public class NetworkLog extends SherlockFragmentActivity {
         }
       } else {
         MyLog.d("Fresh run");
-        resolver = new NetworkResolver();
+        resolver = new NetworkResolver(this);
 
         logFragment = (LogFragment) Fragment.instantiate(this, LogFragment.class.getName());
         appFragment = (AppFragment) Fragment.instantiate(this, AppFragment.class.getName());
@@ -31,12 +31,10 @@ import android.content.IntentFilter;
 import android.graphics.drawable.GradientDrawable;
 
 import java.util.HashMap;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 import java.io.File;
-import java.io.PrintWriter;
-import java.io.FileWriter;
-import java.io.BufferedWriter;
 import java.lang.Thread;
 import java.lang.Runnable;
 
@@ -48,6 +46,11 @@ public class NetworkLogService extends Service {
   static final int MSG_UPDATE_NOTIFICATION = 3;
   static final int MSG_BROADCAST_LOG_ENTRY = 4;
   static final int MSG_TOGGLE_FOREGROUND   = 5;
+  static final int MSG_BROADCAST_LOG_ENTRIES = 6;
+  static final int ENTRY_BATCH_SIZE = 128;
+  static final int ENTRY_BATCH_WINDOW = 100; // milliseconds
+  static final int NETSTAT_REFRESH_INTERVAL = 250; // milliseconds
+  static final int PENDING_ENTRIES_MAX = 256;
   final Messenger messenger = new Messenger(new IncomingHandler(this));
   boolean has_root = false;
   boolean has_binaries = false;
@@ -71,6 +74,8 @@ public class NetworkLogService extends Service {
   public static boolean behindFirewall;
   public static boolean watchRules;
   public static int watchRulesTimeout;
+  public static int logfileCommitInterval;
+  public static boolean logfileBinary;
   public static boolean throughputBps;
 
   private class IncomingHandler extends Handler {
@@ -114,6 +119,7 @@ public class NetworkLogService extends Service {
             break;
 
           case MSG_BROADCAST_LOG_ENTRY:
+          case MSG_BROADCAST_LOG_ENTRIES:
             MyLog.d("[service] got MSG_BROADCOAST_LOG_ENTRY unexpectedly");
             break;
 
@@ -134,18 +140,20 @@ public class NetworkLogService extends Service {
       }
     }
 
-  private static HashMap<String, Integer> logEntriesMap = new HashMap<String, Integer>();
+  private static FlowTable logEntriesMap = new FlowTable();
   private InteractiveShell loggerShell;
   private NetworkLogger logger;
   private static String logfile = null;
-  private PrintWriter logWriter = null;
+  private LogfileWriter logWriter = null;
   private static NotificationManager nManager;
   private static Notification notification;
   private static int notificationIcon;
   private static LogEntry entry;
   private static Boolean start_foreground = true;
   private NetStat netstat = new NetStat();
-  private FastParser parser = new FastParser();
+  private NetstatRefresher netstatRefresher;
+  private LogEntryParser entryParser = new LogEntryParser();
+  private char[] resultChars = new char[512];
 
   public void startForeground(Notification n) {
     startForeground(NOTIFICATION_ID, n);
@@ -338,6 +346,8 @@ public class NetworkLogService extends Service {
       behindFirewall = NetworkLog.settings.getBehindFirewall();
       watchRules = NetworkLog.settings.getWatchRules();
       watchRulesTimeout = NetworkLog.settings.getWatchRulesTimeout();
+      logfileCommitInterval = NetworkLog.settings.getLogfileCommitInterval();
+      logfileBinary = NetworkLog.settings.getLogfileBinary();
       throughputBps = NetworkLog.settings.getThroughputBps();
 
       updateLogfileString();
@@ -431,36 +441,50 @@ public class NetworkLogService extends Service {
     return instance;
   }
 
+  // only sockets that changed since the last refresh are reported by netstat;
+  // flows the table evicted meanwhile are looked up with lookupNetstat()
   public void initEntriesMap() {
     ArrayList<NetStat.Connection> connections = netstat.getConnections();
 
-    for(NetStat.Connection connection : connections) {
-      String mapKey = connection.src + ":" + connection.spt + " -> " + connection.dst + ":" + connection.dpt;
+    synchronized(entryLock) {
+      for(NetStat.Connection connection : connections) {
+        if(MyLog.enabled && MyLog.level >= 5) {
+          MyLog.d(5, "[netstat] New entry " + connection.uid + " for [" + connection.src + ":" + connection.spt + " <-> " + connection.dst + ":" + connection.dpt + "]");
+        }
 
-      if(MyLog.enabled && MyLog.level >= 5) {
-        MyLog.d(5, "[netstat src-dst] New entry " + connection.uid + " for [" + mapKey + "]");
+        logEntriesMap.put(connection.src, connection.spt, connection.dst, connection.dpt, connection.proto, connection.uid);
+        logEntriesMap.put(connection.dst, connection.dpt, connection.src, connection.spt, connection.proto, connection.uid);
       }
+    }
+  }
 
-      logEntriesMap.put(mapKey, Integer.valueOf(connection.uid));
-
-      mapKey = connection.dst + ":" + connection.dpt + " -> " + connection.src + ":" + connection.spt;
+  public int lookupNetstat(int src, int spt, int dst, int dpt, int proto) {
+    int uid = netstat.getUid(src, spt, dst, dpt, proto);
 
-      if(MyLog.enabled && MyLog.level >= 5) {
-        MyLog.d(5, "[netstat dst-src] New entry " + connection.uid + " for [" + mapKey + "]");
-      }
+    if(uid == FlowTable.NOT_FOUND) {
+      uid = netstat.getUid(dst, dpt, src, spt, proto);
+    }
 
-      logEntriesMap.put(mapKey, Integer.valueOf(connection.uid));
+    if(uid != FlowTable.NOT_FOUND) {
+      logEntriesMap.put(src, spt, dst, dpt, proto, uid);
+      logEntriesMap.put(dst, dpt, src, spt, proto, uid);
     }
+
+    return uid;
   }
 
   public void parseResult(String result) {
     if(MyLog.enabled && MyLog.level >= 10) {
       MyLog.d(10, "--------------- parsing network entry --------------");
     }
-    int pos = 0, lastpos, thisEntry, nextEntry, newline, space;
-    String in, out, src, dst, proto, uidString;
-    int spt, dpt, len, uid;
-    parser.setLine(result.toCharArray(), result.length() - 1);
+    int pos = 0, thisEntry, nextEntry, newline;
+    int length = result.length();
+
+    if(resultChars.length < length) {
+      resultChars = new char[length * 2];
+    }
+
+    result.getChars(0, length, resultChars, 0);
 
     while((pos = result.indexOf("{NL}", pos)) > -1) {
       if(MyLog.enabled && MyLog.level >= 10) {
@@ -470,11 +494,11 @@ public class NetworkLogService extends Service {
       pos += "{NL}".length(); // skip past "{NL}"
 
       thisEntry = pos;
-      newline = result.indexOf("\n", pos);
+      newline = result.indexOf('\n', pos);
       nextEntry = result.indexOf("{NL}", pos);
 
       if(newline == -1) {
-        newline = result.length();
+        newline = length;
       }
 
       if(nextEntry != -1 && nextEntry < newline) {
@@ -483,310 +507,237 @@ public class NetworkLogService extends Service {
         continue;
       }
 
-      try {
-        pos = result.indexOf("IN=", pos);
-
-        if(pos == -1 || pos > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
-
-        space = result.indexOf(" ", pos);
-
-        if(space == -1 || space > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
-
-        parser.setPos(pos + 3);
-        in = parser.getString();
-
-        pos = result.indexOf("OUT=", pos);
-
-        if(pos == -1 || pos > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
-
-        space = result.indexOf(" ", pos);
-
-        if(space == -1 || space > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
-
-        parser.setPos(pos + 4);
-        out = parser.getString();
-
-        pos = result.indexOf("SRC=", pos);
-
-        if(pos == -1 || pos > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
-
-        space = result.indexOf(" ", pos);
-
-        if(space == -1 || space > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
-
-        parser.setPos(pos + 4);
-        src = parser.getString();
-
-        pos = result.indexOf("DST=", pos);
+      // reuse entry left over from a skipped line
+      if(entry == null) {
+        entry = LogEntryPool.obtain();
+      }
 
-        if(pos == -1 || pos > newline) {
+      try {
+        if(!entryParser.parseEntry(resultChars, thisEntry, newline, entry)) {
           // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
           pos = newline;
           continue;
         }
+      } catch(Exception e) {
+        Log.e("NetworkLog", "Bad data for: [" + result.substring(thisEntry, newline) + "]", e);
+        pos = newline;
+        continue;
+      }
 
-        space = result.indexOf(" ", pos);
+      pos = newline;
 
-        if(space == -1 || space > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
-
-        parser.setPos(pos + 4);
-        dst = parser.getString();
+      if(MyLog.enabled && MyLog.level >= 9) {
+        MyLog.d(9, "Setting map key: src=[" + entry.src + "] spt=" + entry.spt + " dst=[" + entry.dst + "] dpt=" + entry.dpt);
+      }
 
-        pos = result.indexOf("LEN=", pos);
+      entry.timestamp = System.currentTimeMillis();
+      processEntry(entry);
 
-        if(pos == -1 || pos > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
+      // entry now belongs to its consumers
+      entry = null;
+    }
+  }
 
-        space = result.indexOf(" ", pos);
+  // guards logEntriesMap, the pending entries and delivery of entries,
+  // which happens on both the logger and the netstat refresher threads
+  private final Object entryLock = new Object();
+  private LogEntry[] pendingEntries = new LogEntry[PENDING_ENTRIES_MAX];
+  private int pendingCount = 0;
+
+  public void processEntry(LogEntry entry) {
+    synchronized(entryLock) {
+      // entries queue behind pending ones so that delivery stays in order
+      if(pendingCount == 0 && resolveEntry(entry, false)) {
+        notifyNewEntry(entry);
+        return;
+      }
 
-        if(space == -1 || space > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
+      if(pendingCount == PENDING_ENTRIES_MAX) {
+        // refresher can't keep up; resolve with what netstat last saw
+        if(MyLog.enabled) {
+          MyLog.d("[service] Pending entries full, resolving without refresh");
         }
+        drainPending(pendingCount);
+      }
 
-        parser.setPos(pos + 4);
-        len = parser.getInt();
+      pendingEntries[pendingCount++] = entry;
+    }
 
-        pos = result.indexOf("PROTO=", pos);
+    if(netstatRefresher != null) {
+      netstatRefresher.requestRefresh();
+    } else {
+      // logging is stopping
+      drainPending(Integer.MAX_VALUE);
+    }
+  }
 
-        if(pos == -1 || pos > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
+  // resolves and delivers the oldest count pending entries
+  void drainPending(int count) {
+    synchronized(entryLock) {
+      if(count > pendingCount) {
+        count = pendingCount;
+      }
 
-        space = result.indexOf(" ", pos);
+      LogEntry entry;
 
-        if(space == -1 || space > newline) {
-          // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-          pos = newline;
-          continue;
-        }
+      for(int i = 0; i < count; i++) {
+        entry = pendingEntries[i];
+        resolveEntry(entry, true);
+        notifyNewEntry(entry);
+      }
 
-        parser.setPos(pos + 6);
-        proto = parser.getString();
+      System.arraycopy(pendingEntries, count, pendingEntries, 0, pendingCount - count);
+      Arrays.fill(pendingEntries, pendingCount - count, pendingCount, null);
+      pendingCount -= count;
+    }
+  }
 
-        lastpos = pos;
-        pos = result.indexOf("SPT=", pos);
+  int getPendingCount() {
+    synchronized(entryLock) {
+      return pendingCount;
+    }
+  }
 
-        if(pos == -1 || pos > newline) {
-          // no SPT field, probably a broadcast packet
-          spt = 0;
-          pos = lastpos;
-        } else {
-          space = result.indexOf(" ", pos);
+  /**
+   * Attributes entry's flow to a uid using logEntriesMap.
+   * @param refreshed whether netstat has been refreshed since entry arrived
+   * @return false if entry needs a netstat refresh and refreshed is false
+   */
+  boolean resolveEntry(LogEntry entry, boolean refreshed) {
+    int spt = entry.spt;
+    int dpt = entry.dpt;
+    int uid = entry.uid;
+    String uidString = entry.uidString;
+    long srcAddress = FlowTable.parseAddress(entry.src);
+    long dstAddress = FlowTable.parseAddress(entry.dst);
+
+    if(srcAddress == -1 || dstAddress == -1) {
+      // not an IPv4 flow, can't be looked up
+      return true;
+    }
 
-          if(space == -1 || space > newline) {
-            // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-            pos = newline;
-            continue;
-          }
+    int src = (int) srcAddress;
+    int dst = (int) dstAddress;
+    int proto = FlowTable.getProtocolNumber(entry.proto);
 
-          parser.setPos(pos + 4);
-          spt = parser.getInt();
-        }
+    if(MyLog.enabled && MyLog.level >= 10) {
+      MyLog.d(10, "Checking entry for " + uid + " " + entry.src + ":" + spt + " <-> " + entry.dst + ":" + dpt + " proto " + proto);
+    }
 
-        lastpos = pos;
-        pos = result.indexOf("DPT=", pos);
+    int srcDstMapUid = logEntriesMap.get(src, spt, dst, dpt, proto);
+    int dstSrcMapUid = logEntriesMap.get(dst, dpt, src, spt, proto);
 
-        if(pos == -1 || pos > newline) {
-          // no DPT field, probably a broadcast packet
-          dpt = 0;
-          pos = lastpos;
-        } else {
-          space = result.indexOf(" ", pos);
+    if(uid < 0) {
+      // Unknown uid, retrieve from entries map
+      if(MyLog.enabled && MyLog.level >= 9) {
+        MyLog.d(9, "Unknown uid");
+      }
 
-          if(space == -1 || space > newline) {
-            // Log.w("NetworkLog", "Skipping corrupted entry [" + result.substring(thisEntry, newline) + "]");
-            pos = newline;
-            continue;
+      if(srcDstMapUid == FlowTable.NOT_FOUND || dstSrcMapUid == FlowTable.NOT_FOUND) {
+        if(!refreshed) {
+          // hold entry until netstat has been refreshed
+          if(MyLog.enabled && MyLog.level >= 9) {
+            MyLog.d(9, "Deferring entry until netstat refresh ...");
           }
-
-          parser.setPos(pos + 4);
-          dpt = parser.getInt();
+          return false;
         }
 
-        lastpos = pos;
-        pos = result.indexOf("UID=", pos);
-
-        if(pos == -1 || pos > newline) {
-          uid = -1;
-          uidString = "-1";
-          pos = lastpos;
-        } else {
-          parser.setPos(pos + 4);
-          uid = parser.getInt();
-          parser.setPos(pos + 4);
-          uidString = parser.getString();
+        if(srcDstMapUid == FlowTable.NOT_FOUND && dstSrcMapUid == FlowTable.NOT_FOUND
+            && lookupNetstat(src, spt, dst, dpt, proto) != FlowTable.NOT_FOUND) {
+          srcDstMapUid = logEntriesMap.get(src, spt, dst, dpt, proto);
+          dstSrcMapUid = logEntriesMap.get(dst, dpt, src, spt, proto);
         }
-      } catch(Exception e) {
-        Log.e("NetworkLog", "Bad data for: [" + result.substring(thisEntry, newline) + "]", e);
-        pos = newline;
-        continue;
-      }
-
-      if(MyLog.enabled && MyLog.level >= 9) {
-        MyLog.d(9, "Setting map key: src=[" + src + "] spt=" + spt + " dst=[" + dst + "] dpt=" + dpt);
       }
 
-      String srcDstMapKey = src + ":" + spt + "->" + dst + ":" + dpt;
-      String dstSrcMapKey = dst + ":" + dpt + "->" + src + ":" + spt;
-
-      if(MyLog.enabled && MyLog.level >= 10) {
-        MyLog.d(10, "Checking entry for " + uid + " " + srcDstMapKey + " and " + dstSrcMapKey);
-      }
-
-      Integer srcDstMapUid = logEntriesMap.get(srcDstMapKey);
-      Integer dstSrcMapUid = logEntriesMap.get(dstSrcMapKey);
-
-      if(uid < 0) {
-        // Unknown uid, retrieve from entries map
+      if(srcDstMapUid == FlowTable.NOT_FOUND) {
         if(MyLog.enabled && MyLog.level >= 9) {
-          MyLog.d(9, "Unknown uid");
+          MyLog.d(9, "[src-dst] No entry uid for " + uid);
         }
 
-        if(srcDstMapUid == null || dstSrcMapUid == null) {
-          // refresh netstat and try again
-          if(MyLog.enabled && MyLog.level >= 9) {
-            MyLog.d(9, "Refreshing netstat ...");
-          }
-          initEntriesMap();
-          srcDstMapUid = logEntriesMap.get(srcDstMapKey);
-          dstSrcMapUid = logEntriesMap.get(dstSrcMapKey);
-        }
-
-        if(srcDstMapUid == null) {
-          if(MyLog.enabled && MyLog.level >= 9) {
-            MyLog.d(9, "[src-dst] No entry uid for " + uid + " [" + srcDstMapKey + "]");
-          }
-
-          if(uid == -1) {
-            if(dstSrcMapUid != null) {
-              if(MyLog.enabled && MyLog.level >= 9) {
-                MyLog.d(9, "[dst-src] Reassigning kernel packet -1 to " + dstSrcMapUid);
-              }
-              uid = dstSrcMapUid;
-              uidString = StringPool.get(dstSrcMapUid);
-            } else {
-              if(MyLog.enabled && MyLog.level >= 9) {
-                MyLog.d(9, "[src-dst] New kernel entry -1 for [" + srcDstMapKey + "]");
-              }
-              srcDstMapUid = uid;
-              logEntriesMap.put(srcDstMapKey, srcDstMapUid);
+        if(uid == -1) {
+          if(dstSrcMapUid != FlowTable.NOT_FOUND) {
+            if(MyLog.enabled && MyLog.level >= 9) {
+              MyLog.d(9, "[dst-src] Reassigning kernel packet -1 to " + dstSrcMapUid);
             }
+            uid = dstSrcMapUid;
+            uidString = StringPool.get(dstSrcMapUid);
           } else {
             if(MyLog.enabled && MyLog.level >= 9) {
-              MyLog.d(9, "[src-dst] New entry " + uid + " for [" + srcDstMapKey + "]");
+              MyLog.d(9, "[src-dst] New kernel entry -1");
             }
             srcDstMapUid = uid;
-            logEntriesMap.put(srcDstMapKey, srcDstMapUid);
+            logEntriesMap.put(src, spt, dst, dpt, proto, srcDstMapUid);
           }
         } else {
           if(MyLog.enabled && MyLog.level >= 9) {
-            MyLog.d(9, "[src-dst] Found entry uid " + srcDstMapUid + " for " + uid + " [" + srcDstMapKey + "]");
+            MyLog.d(9, "[src-dst] New entry " + uid);
           }
-          uid = srcDstMapUid;
-          uidString = StringPool.get(srcDstMapUid);
+          srcDstMapUid = uid;
+          logEntriesMap.put(src, spt, dst, dpt, proto, srcDstMapUid);
+        }
+      } else {
+        if(MyLog.enabled && MyLog.level >= 9) {
+          MyLog.d(9, "[src-dst] Found entry uid " + srcDstMapUid + " for " + uid);
         }
+        uid = srcDstMapUid;
+        uidString = StringPool.get(srcDstMapUid);
+      }
 
-        if(dstSrcMapUid == null) {
-          if(MyLog.enabled && MyLog.level >= 9) {
-            MyLog.d(9, "[dst-src] No entry uid for " + uid + " [" + dstSrcMapKey + "]");
-          }
+      if(dstSrcMapUid == FlowTable.NOT_FOUND) {
+        if(MyLog.enabled && MyLog.level >= 9) {
+          MyLog.d(9, "[dst-src] No entry uid for " + uid);
+        }
 
-          if(uid == -1) {
-            if(srcDstMapUid != null) {
-              if(MyLog.enabled && MyLog.level >= 9) {
-                MyLog.d(9, "[src-dst] Reassigning kernel packet -1 to " + srcDstMapUid);
-              }
-              uid = srcDstMapUid;
-              uidString = StringPool.get(srcDstMapUid);
-            } else {
-              if(MyLog.enabled && MyLog.level >= 9) {
-                MyLog.d(9, "[dst-src] New kernel entry -1 for [" + dstSrcMapKey + "]");
-              }
-              dstSrcMapUid = uid;
-              logEntriesMap.put(dstSrcMapKey, dstSrcMapUid);
+        if(uid == -1) {
+          if(srcDstMapUid != FlowTable.NOT_FOUND) {
+            if(MyLog.enabled && MyLog.level >= 9) {
+              MyLog.d(9, "[src-dst] Reassigning kernel packet -1 to " + srcDstMapUid);
             }
+            uid = srcDstMapUid;
+            uidString = StringPool.get(srcDstMapUid);
           } else {
             if(MyLog.enabled && MyLog.level >= 9) {
-              MyLog.d(9, "[dst-src] New entry " + uid + " for [" + dstSrcMapKey + "]");
+              MyLog.d(9, "[dst-src] New kernel entry -1");
             }
             dstSrcMapUid = uid;
-            logEntriesMap.put(dstSrcMapKey, dstSrcMapUid);
+            logEntriesMap.put(dst, dpt, src, spt, proto, dstSrcMapUid);
           }
         } else {
           if(MyLog.enabled && MyLog.level >= 9) {
-            MyLog.d(9, "[dst-src] Found entry uid " + dstSrcMapUid + " for " + uid + " [" + dstSrcMapKey + "]");
+            MyLog.d(9, "[dst-src] New entry " + uid);
           }
-          uid = dstSrcMapUid;
-          uidString = StringPool.get(dstSrcMapUid);
+          dstSrcMapUid = uid;
+          logEntriesMap.put(dst, dpt, src, spt, proto, dstSrcMapUid);
         }
       } else {
         if(MyLog.enabled && MyLog.level >= 9) {
-          MyLog.d(9, "Known uid");
+          MyLog.d(9, "[dst-src] Found entry uid " + dstSrcMapUid + " for " + uid);
         }
+        uid = dstSrcMapUid;
+        uidString = StringPool.get(dstSrcMapUid);
+      }
+    } else {
+      if(MyLog.enabled && MyLog.level >= 9) {
+        MyLog.d(9, "Known uid");
+      }
 
-        if(srcDstMapUid == null || dstSrcMapUid == null || srcDstMapUid != uid || dstSrcMapUid != uid) {
-          if(MyLog.enabled && MyLog.level >= 9) {
-            MyLog.d(9, "Updating uid " + uid + " to netstat map for " + srcDstMapKey + " and " + dstSrcMapKey);
-          }
-          logEntriesMap.put(srcDstMapKey, uid);
-          logEntriesMap.put(dstSrcMapKey, uid);
+      if(srcDstMapUid != uid || dstSrcMapUid != uid) {
+        if(MyLog.enabled && MyLog.level >= 9) {
+          MyLog.d(9, "Updating uid " + uid + " to netstat map");
         }
+        logEntriesMap.put(src, spt, dst, dpt, proto, uid);
+        logEntriesMap.put(dst, dpt, src, spt, proto, uid);
       }
+    }
 
-      entry = new LogEntry();
-      entry.uid = uid;
-      entry.uidString = uidString;
-      entry.in = in;
-      entry.out = out;
-      entry.src = src;
-      entry.spt = spt;
-      entry.dst = dst;
-      entry.dpt = dpt;
-      entry.proto = proto;
-      entry.len = len;
-      entry.timestamp = System.currentTimeMillis();
-
-      if(MyLog.enabled && MyLog.level >= 10) {
-        MyLog.d(10, "+++ entry: (" + entry.uid + ") in=" + entry.in + " out=" + entry.out + " " + entry.src + ":" + entry.spt + " -> " + entry.dst + ":" + entry.dpt + " proto=" + entry.proto + " len=" + entry.len);
-      }
+    entry.uid = uid;
+    entry.uidString = uidString;
 
-      notifyNewEntry(entry);
+    if(MyLog.enabled && MyLog.level >= 10) {
+      MyLog.d(10, "+++ entry: (" + entry.uid + ") in=" + entry.in + " out=" + entry.out + " " + entry.src + ":" + entry.spt + " -> " + entry.dst + ":" + entry.dpt + " proto=" + entry.proto + " len=" + entry.len);
     }
+
+    return true;
   }
 
   private static ApplicationsTracker.AppEntry appEntry;
@@ -796,56 +747,114 @@ public class NetworkLogService extends Service {
 
     // check if logging is disabled for this entry's app
     if(appEntry != null && blockedApps.get(appEntry.packageName) != null) {
+      entry.release();
       return;
     }
 
     // check if logfile needs to be opened and that external storage is available
     if(logWriter == null) {
       if(android.os.Environment.getExternalStorageState().equals(android.os.Environment.MEDIA_MOUNTED)) {
-        try {
-          logWriter = new PrintWriter(new BufferedWriter(new FileWriter(logfile, true)), true);
-          Log.d("NetworkLog", "Opened " + logfile + " for logging");
-        } catch(final Exception e) {
-          Log.e("NetworkLog", "Exception opening logfile [" + logfile +"]", e);
-          handler.post(new Runnable() {
-            public void run() {
-              SysUtils.showError(context, getString(R.string.error_default_title), getString(R.string.error_openlogfile) + e.getMessage());
-            }
-          });
-          return;
-        }
+        // opened on the writer thread, which reports any error
+        logWriter = new LogfileWriter(logfile, logfileBinary, logfileCommitInterval);
+        logWriter.start();
+        Log.d("NetworkLog", "Opened " + logfile + " for logging");
       } else {
         Log.w("NetworkLog", "External storage " + logfile + " not available");
       }
     }
 
     if(!entry.isValid()) {
+      entry.release();
       return;
     }
 
-    // log entry to logfile
+    // log entry to logfile; the writer takes its own reference
     if(logWriter != null) {
-      logWriter.println(entry.timestamp + "," + entry.in + "," + entry.out + "," + entry.uid + "," + entry.src + "," + entry.spt + "," + entry.dst + "," + entry.dpt + "," + entry.len + "," + entry.proto);
+      logWriter.write(entry);
     }
 
-    if(MyLog.enabled && MyLog.level >= 5) {
-      MyLog.d(5, "[service] notifyNewEntry: clients: " + clients.size());
+    ThroughputTracker.updateEntry(entry);
+
+    // hands off our reference to the entry
+    queueEntry(entry);
+  }
+
+  private final Object entryBatchLock = new Object();
+  private LogEntry[] entryBatch = new LogEntry[ENTRY_BATCH_SIZE];
+  private int entryBatchCount = 0;
+
+  Runnable flushEntriesRunner = new Runnable() {
+    public void run() {
+      flushEntries();
     }
+  };
 
-    for(int i = clients.size() - 1; i >= 0; i--) {
-      try {
-        if(MyLog.enabled && MyLog.level >= 5) {
-          MyLog.d(5, "[service] Sending entry to " + clients.get(i));
-        }
-        clients.get(i).send(Message.obtain(null, MSG_BROADCAST_LOG_ENTRY, entry));
-      } catch(RemoteException e) {
-        // client dead
-        MyLog.d("[service] Dead client " + clients.get(i));
-        clients.remove(i);
+  // entries are sent to clients in batches, flushed when the batch is
+  // full or ENTRY_BATCH_WINDOW after the first entry was queued
+  void queueEntry(LogEntry entry) {
+    boolean full;
+
+    synchronized(entryBatchLock) {
+      entryBatch[entryBatchCount++] = entry;
+      full = entryBatchCount == ENTRY_BATCH_SIZE;
+
+      if(entryBatchCount == 1 && !full && handler != null) {
+        handler.postDelayed(flushEntriesRunner, ENTRY_BATCH_WINDOW);
       }
     }
 
-    ThroughputTracker.updateEntry(entry);
+    if(full) {
+      flushEntries();
+    }
+  }
+
+  void flushEntries() {
+    // sent while holding the lock so batches reach clients in order
+    synchronized(entryBatchLock) {
+      if(entryBatchCount == 0) {
+        return;
+      }
+
+      LogEntry[] entries = new LogEntry[entryBatchCount];
+      System.arraycopy(entryBatch, 0, entries, 0, entryBatchCount);
+      Arrays.fill(entryBatch, 0, entryBatchCount, null);
+      entryBatchCount = 0;
+
+      if(handler != null) {
+        handler.removeCallbacks(flushEntriesRunner);
+      }
+
+      if(MyLog.enabled && MyLog.level >= 5) {
+        MyLog.d(5, "[service] flushEntries: entries: " + entries.length + "; clients: " + clients.size());
+      }
+
+      // each client releases the entries once it has copied them out
+      int receivers = clients.size();
+      for(LogEntry entry : entries) {
+        entry.retain(receivers);
+      }
+
+      for(int i = clients.size() - 1; i >= 0; i--) {
+        try {
+          if(MyLog.enabled && MyLog.level >= 5) {
+            MyLog.d(5, "[service] Sending entries to " + clients.get(i));
+          }
+          clients.get(i).send(Message.obtain(null, MSG_BROADCAST_LOG_ENTRIES, entries));
+        } catch(RemoteException e) {
+          // client dead
+          MyLog.d("[service] Dead client " + clients.get(i));
+          clients.remove(i);
+          for(LogEntry entry : entries) {
+            entry.release();
+          }
+        }
+      }
+
+      // release the service's own reference
+      for(LogEntry entry : entries) {
+        entry.release();
+      }
+    }
   }
 
   public void stopLogger() {
@@ -854,6 +863,22 @@ public class NetworkLogService extends Service {
     }
   }
 
+  public void stopNetstatRefresher() {
+    if(netstatRefresher != null) {
+      netstatRefresher.stop();
+      netstatRefresher = null;
+    }
+
+    // deliver whatever is still waiting on a refresh
+    drainPending(Integer.MAX_VALUE);
+  }
+
+  public void setLogfileCommitInterval(int value) {
+    if(logWriter != null) {
+      logWriter.setCommitInterval(value);
+    }
+  }
+
   public void closeLogfile() {
     if(logWriter != null) {
       logWriter.close();
@@ -963,6 +988,9 @@ public class NetworkLogService extends Service {
       return false;
     }
 
+    netstatRefresher = new NetstatRefresher();
+    new Thread(netstatRefresher, "NetstatRefresher").start();
+
     logger = new NetworkLogger();
     new Thread(logger, "NetworkLogger").start();
 
@@ -977,36 +1005,103 @@ public class NetworkLogService extends Service {
     Iptables.removeRules(this);
     stopWatchingExternalStorage();
     stopLogger();
+    stopNetstatRefresher();
+    flushEntries();
     closeLogfile();
     killLoggerCommand();
   }
 
+  // Refreshes netstat off the logger thread for entries whose uid is
+  // unknown.  Requests arriving while a refresh is pending are coalesced,
+  // and refreshes happen at most every NETSTAT_REFRESH_INTERVAL.
+  public class NetstatRefresher implements Runnable {
+    volatile boolean running = false;
+    boolean requested = false;
+    long lastRefresh = 0;
+
+    public synchronized void requestRefresh() {
+      if(!requested) {
+        requested = true;
+        notify();
+      }
+    }
+
+    public synchronized void stop() {
+      running = false;
+      notify();
+    }
+
+    public void run() {
+      MyLog.d("NetstatRefresher " + this + " starting");
+      running = true;
+      long delay;
+      int count;
+
+      while(running) {
+        try {
+          synchronized(this) {
+            while(running && !requested) {
+              wait();
+            }
+          }
+
+          delay = lastRefresh + NETSTAT_REFRESH_INTERVAL - System.currentTimeMillis();
+
+          if(delay > 0) {
+            Thread.sleep(delay);
+          }
+        } catch(InterruptedException e) {
+          // checked by loop
+        }
+
+        if(!running) {
+          break;
+        }
+
+        // entries queued after this point will request another refresh
+        synchronized(this) {
+          requested = false;
+        }
+
+        count = getPendingCount();
+
+        if(MyLog.enabled && MyLog.level >= 9) {
+          MyLog.d(9, "Refreshing netstat for " + count + " pending entries ...");
+        }
+
+        initEntriesMap();
+        lastRefresh = System.currentTimeMillis();
+        drainPending(count);
+      }
+
+      MyLog.d("NetstatRefresher " + this + " exiting");
+    }
+  }
+
   public class NetworkLogger implements Runnable {
-    boolean running = false;
+    volatile boolean running = false;
+    Thread thread;
 
     public void stop() {
       running = false;
+
+      // wake up blocking read so that it does not consume shell output
+      // meant for killLoggerCommand()
+      if(thread != null) {
+        thread.interrupt();
+      }
     }
 
     public void run() {
       Log.d("NetworkLog", "Network logger " + this + " starting");
       String result;
+      thread = Thread.currentThread();
       running = true;
 
       while(true) {
-        while(running && loggerShell.checkForExit() == false) {
-          if(loggerShell.stdoutAvailable()) {
-            result = loggerShell.readLine();
-          } else {
-            try {
-              Thread.sleep(500);
-            }
-            catch(Exception e) {
-              Log.d("NetworkLog", "NetworkLogger exception while sleeping", e);
-            }
-
-            continue;
-          }
+        while(running && loggerShell != null) {
+          // blocks until the logger outputs a line or its output ends
+          result = loggerShell.readLine();
 
           if(running == false) {
             break;
@@ -1038,6 +1133,7 @@ public class NetworkLogService extends Service {
         }
       }
     }
+
   }
 
   public static void updateLogfileString() {
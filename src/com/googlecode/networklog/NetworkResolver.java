@@ -6,418 +6,414 @@
 
 package com.googlecode.networklog;
 
-import android.util.Log;
+import android.content.Context;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.net.InetAddress;
-import java.lang.Runnable;
 
 public class NetworkResolver {
-  final HashMap<String, String> serviceMap = new HashMap<String, String>();
-  final HashMap<String, String> protocolMap = new HashMap<String, String>();
-  final HashMap<String, String> resolvedHostMap = new HashMap<String, String>();
-  final HashMap<String, Object> resolvingHostMap = new HashMap<String, Object>();
-  final HashMap<String, ArrayList<NetworkResolverUpdater>> hostUpdatersMap = new HashMap<String, ArrayList<NetworkResolverUpdater>>();
-
-  public NetworkResolver() {
-    serviceMap.put("1", "TCPMUX");
-    serviceMap.put("5", "JOB");
-    serviceMap.put("7", "ECHO");
-    serviceMap.put("11", "SYSTAT");
-    serviceMap.put("13", "DAYTIME");
-    serviceMap.put("15", "NETSTAT");
-    serviceMap.put("17", "QUOTE");
-    serviceMap.put("18", "MSGSEND");
-    serviceMap.put("19", "CHARGEN");
-    serviceMap.put("20", "FTPT");
-    serviceMap.put("21", "FTP");
-    serviceMap.put("42", "HOSTNAME");
-    serviceMap.put("42", "WINS");
-    serviceMap.put("43", "WHOIS");
-    serviceMap.put("47", "NIFTP");
-    serviceMap.put("53", "DNS");
-    serviceMap.put("56", "RAP");
-    serviceMap.put("57", "MAIL");
-    serviceMap.put("67", "BOOTP");
-    serviceMap.put("68", "BOOTP");
-    serviceMap.put("69", "TFTP");
-    serviceMap.put("70", "GOPHER");
-    serviceMap.put("71", "NETRJS");
-    serviceMap.put("72", "NETRJS");
-    serviceMap.put("73", "NETRJS");
-    serviceMap.put("74", "NETRJS");
-    serviceMap.put("79", "FINGER");
-    serviceMap.put("80", "HTTP");
-    serviceMap.put("107", "RTELNET");
-    serviceMap.put("109", "POP2");
-    serviceMap.put("110", "POP3");
-    serviceMap.put("111", "SUNRPC");
-    serviceMap.put("113", "AUTH");
-    serviceMap.put("115", "SFTP");
-    serviceMap.put("117", "UUCP");
-    serviceMap.put("118", "SQL");
-    serviceMap.put("119", "NNTP");
-    serviceMap.put("123", "NTP");
-    serviceMap.put("135", "DCE");
-    serviceMap.put("135", "RPCL");
-    serviceMap.put("137", "NETBIOSN");
-    serviceMap.put("138", "NETBIOSD");
-    serviceMap.put("139", "NETBIOSS");
-    serviceMap.put("143", "IMAP");
-    serviceMap.put("152", "BFTP");
-    serviceMap.put("153", "SGMP");
-    serviceMap.put("156", "SQL");
-    serviceMap.put("158", "DMSP");
-    serviceMap.put("161", "SNMP");
-    serviceMap.put("162", "SNMPTRAP");
-    serviceMap.put("177", "XDMCP");
-    serviceMap.put("179", "BORDER GATEWAY PROTOCOL");
-    serviceMap.put("194", "IRC");
-    serviceMap.put("199", "SMUX");
-    serviceMap.put("201", "APPLETALK");
-    serviceMap.put("213", "IPX");
-    serviceMap.put("218", "MPP");
-    serviceMap.put("220", "IMAP3");
-    serviceMap.put("259", "ESRO");
-    serviceMap.put("264", "BGMP");
-    serviceMap.put("280", "HTTP-MGMT");
-    serviceMap.put("369", "RPC2PORTMAP");
-    serviceMap.put("370", "SECURECAST1");
-    serviceMap.put("389", "LDAP");
-    serviceMap.put("401", "UPS");
-    serviceMap.put("427", "SLP");
-    serviceMap.put("443", "HTTPS");
-    serviceMap.put("444", "SNPP");
-    serviceMap.put("445", "SMB");
-    serviceMap.put("464", "KERBEROS");
-    serviceMap.put("500", "ISAKMP");
-    serviceMap.put("517", "TALK");
-    serviceMap.put("518", "NTALK");
-    serviceMap.put("520", "EFS");
-    serviceMap.put("520", "RIP");
-    serviceMap.put("524", "NCP");
-    serviceMap.put("525", "TIMED");
-    serviceMap.put("530", "RPC");
-    serviceMap.put("531", "AIM");
-    serviceMap.put("532", "NETNEWS");
-    serviceMap.put("533", "NETWALL");
-    serviceMap.put("540", "UUCP");
-    serviceMap.put("542", "COMMERCE");
-    serviceMap.put("543", "KLOGIN");
-    serviceMap.put("544", "KSHELL");
-    serviceMap.put("546", "DHCPV6C");
-    serviceMap.put("547", "DHCPV6S");
-    serviceMap.put("548", "AFP");
-    serviceMap.put("550", "RWHO");
-    serviceMap.put("554", "RTSP");
-    serviceMap.put("556", "REMOTEFS");
-    serviceMap.put("560", "RMONITOR");
-    serviceMap.put("561", "MONITOR");
-    serviceMap.put("563", "NNTPS");
-    serviceMap.put("587", "SMTP");
-    serviceMap.put("591", "HTTP2");
-    serviceMap.put("593", "HTTP-RPC");
-    serviceMap.put("604", "TUNNEL");
-    serviceMap.put("623", "ASF-RMCP");
-    serviceMap.put("631", "IPP");
-    serviceMap.put("631", "CUPS");
-    serviceMap.put("635", "RLZ-DBASE");
-    serviceMap.put("636", "LDAPS");
-    serviceMap.put("639", "MSDP");
-    serviceMap.put("646", "LDP");
-    serviceMap.put("647", "DHCPF");
-    serviceMap.put("648", "RRP");
-    serviceMap.put("651", "IEEE-MMS");
-    serviceMap.put("654", "MMS");
-    serviceMap.put("657", "RMC");
-    serviceMap.put("666", "DOOM");
-    serviceMap.put("674", "ACAP");
-    serviceMap.put("691", "MSEXCHANGE");
-    serviceMap.put("694", "HEARTBEAT");
-    serviceMap.put("695", "MMS-SSL");
-    serviceMap.put("698", "OLSR");
-    serviceMap.put("700", "EPP");
-    serviceMap.put("701", "LMP");
-    serviceMap.put("702", "IRIS");
-    serviceMap.put("706", "SILC");
-    serviceMap.put("711", "MPLS");
-    serviceMap.put("712", "TBRPF");
-    serviceMap.put("749", "KERBEROS");
-    serviceMap.put("750", "KERBEROS4");
-    serviceMap.put("751", "KERBEROS");
-    serviceMap.put("752", "KPASSWD");
-    serviceMap.put("753", "RRH");
-    serviceMap.put("753", "RRH");
-    serviceMap.put("753", "USERREG");
-    serviceMap.put("754", "TELLSEND");
-    serviceMap.put("754", "KRB5PROP");
-    serviceMap.put("754", "TELLSEND");
-    serviceMap.put("760", "KRBUPDATE");
-    serviceMap.put("782", "CONSERVER");
-    serviceMap.put("783", "SPAMD");
-    serviceMap.put("843", "FLASH");
-    serviceMap.put("847", "DHCPF");
-    serviceMap.put("848", "GDOI");
-    serviceMap.put("860", "ISCSI");
-    serviceMap.put("873", "RSYNC");
-    serviceMap.put("888", "CDDBP");
-    serviceMap.put("901", "SWAT");
-    serviceMap.put("901", "VMWARE");
-    serviceMap.put("901", "VMWARE");
-    serviceMap.put("902", "IDEAFARM-DOOR");
-    serviceMap.put("902", "VMWARE");
-    serviceMap.put("902", "IDEAFARM-DOOR");
-    serviceMap.put("902", "VMWARE");
-    serviceMap.put("903", "VMWARE");
-    serviceMap.put("904", "VMWARE");
-    serviceMap.put("911", "NCA");
-    serviceMap.put("944", "NFS");
-    serviceMap.put("953", "RNDC");
-    serviceMap.put("973", "NFS6");
-    serviceMap.put("989", "FTPSD");
-    serviceMap.put("990", "FTPSC");
-    serviceMap.put("991", "NAS");
-    serviceMap.put("992", "STELNET");
-    serviceMap.put("993", "IMAPS");
-    serviceMap.put("995", "POP3S");
-
-    protocolMap.put("0", "HOPOPT");
-    protocolMap.put("1", "ICMP");
-    protocolMap.put("2", "IGMP");
-    protocolMap.put("3", "GGP");
-    protocolMap.put("4", "IPv4");
-    protocolMap.put("5", "ST");
-    protocolMap.put("6", "TCP");
-    protocolMap.put("7", "CBT");
-    protocolMap.put("8", "EGP");
-    protocolMap.put("9", "IGP");
-    protocolMap.put("10", "BBN");
-    protocolMap.put("11", "NVP2");
-    protocolMap.put("12", "PUP");
-    protocolMap.put("13", "ARGUS");
-    protocolMap.put("14", "EMCON");
-    protocolMap.put("15", "XNET");
-    protocolMap.put("16", "CHAOS");
-    protocolMap.put("17", "UDP");
-    protocolMap.put("18", "MUX");
-    protocolMap.put("19", "DCN");
-    protocolMap.put("20", "HMP");
-    protocolMap.put("21", "PRM");
-    protocolMap.put("22", "XNS");
-    protocolMap.put("27", "RDP");
-    protocolMap.put("28", "IRTP");
-    protocolMap.put("29", "ISO");
-    protocolMap.put("30", "BLT");
-    protocolMap.put("31", "MFE-NSP");
-    protocolMap.put("32", "MERIT-INP");
-    protocolMap.put("33", "DCCP");
-    protocolMap.put("34", "3PC");
-    protocolMap.put("35", "IDPR");
-    protocolMap.put("36", "XTP");
-    protocolMap.put("37", "DDP");
-    protocolMap.put("38", "IDPR-CMTP");
-    protocolMap.put("39", "TP++");
-    protocolMap.put("40", "IL");
-    protocolMap.put("41", "IPv6");
-    protocolMap.put("42", "SDRP");
-    protocolMap.put("43", "IPv6-Route");
-    protocolMap.put("44", "IPv6-Frag");
-    protocolMap.put("45", "IDRP");
-    protocolMap.put("46", "RSVP");
-    protocolMap.put("47", "GRE");
-    protocolMap.put("48", "MHRP");
-    protocolMap.put("49", "BNA");
-    protocolMap.put("50", "ESP");
-    protocolMap.put("51", "AH");
-    protocolMap.put("52", "I-NLSP");
-    protocolMap.put("53", "SWIPE");
-    protocolMap.put("54", "NARP");
-    protocolMap.put("55", "MOBILE");
-    protocolMap.put("56", "TLSP");
-    protocolMap.put("57", "SKIP");
-    protocolMap.put("58", "IPv6-ICMP");
-    protocolMap.put("59", "IPv6-NoNxt");
-    protocolMap.put("60", "IPv6-Opts");
-    protocolMap.put("62", "CFTP");
-    protocolMap.put("64", "SAT-EXPAK");
-    protocolMap.put("65", "KRYPTOLAN");
-    protocolMap.put("66", "RVD");
-    protocolMap.put("67", "IPPC");
-    protocolMap.put("69", "SAT-MON");
-    protocolMap.put("70", "VISA");
-    protocolMap.put("71", "IPCV");
-    protocolMap.put("72", "CPNX");
-    protocolMap.put("73", "CPHB");
-    protocolMap.put("74", "WSN");
-    protocolMap.put("75", "PVP");
-    protocolMap.put("76", "BR-SAT-MON");
-    protocolMap.put("77", "SUN-ND");
-    protocolMap.put("78", "WB-MON");
-    protocolMap.put("79", "WB-EXPAK");
-    protocolMap.put("80", "ISO-IP");
-    protocolMap.put("81", "VMTP");
-    protocolMap.put("82", "SECURE-VMTP");
-    protocolMap.put("83", "VINES");
-    protocolMap.put("84", "TTP");
-    protocolMap.put("84", "IPTM");
-    protocolMap.put("85", "NSFNET-IGP");
-    protocolMap.put("86", "DGP");
-    protocolMap.put("87", "TCF");
-    protocolMap.put("88", "EIGRP");
-    protocolMap.put("89", "OSPF");
-    protocolMap.put("90", "SPRITE-RPC");
-    protocolMap.put("91", "LARP");
-    protocolMap.put("92", "MTP");
-    protocolMap.put("93", "AX.25");
-    protocolMap.put("94", "IPIP");
-    protocolMap.put("95", "MICP");
-    protocolMap.put("96", "SCC-SP");
-    protocolMap.put("97", "ETHERIP");
-    protocolMap.put("98", "ENCAP");
-    protocolMap.put("100", "GMTP");
-    protocolMap.put("101", "IFMP");
-    protocolMap.put("102", "PNNI");
-    protocolMap.put("103", "PIM");
-    protocolMap.put("104", "ARIS");
-    protocolMap.put("105", "SCPS");
-    protocolMap.put("106", "QNX");
-    protocolMap.put("107", "A/N");
-    protocolMap.put("108", "IPComp");
-    protocolMap.put("109", "SNP");
-    protocolMap.put("110", "Compaq-Peer");
-    protocolMap.put("111", "IPX-in-IP");
-    protocolMap.put("112", "VRRP");
-    protocolMap.put("113", "PGM");
-    protocolMap.put("115", "L2TP");
-    protocolMap.put("116", "DDX");
-    protocolMap.put("117", "IATP");
-    protocolMap.put("118", "STP");
-    protocolMap.put("119", "SRP");
-    protocolMap.put("120", "UTI");
-    protocolMap.put("121", "SMP");
-    protocolMap.put("122", "SM");
-    protocolMap.put("123", "PTP");
-    protocolMap.put("125", "FIRE");
-    protocolMap.put("126", "CRTP");
-    protocolMap.put("127", "CRUDP");
-    protocolMap.put("128", "SSCOPMCE");
-    protocolMap.put("129", "IPLT");
-    protocolMap.put("130", "SPS");
-    protocolMap.put("131", "PIPE");
-    protocolMap.put("132", "SCTP");
-    protocolMap.put("133", "FC");
-    protocolMap.put("138", "MANET");
-    protocolMap.put("139", "HIP");
-    protocolMap.put("140", "SHIM6");
+  // service names by port; ports without one get their number once asked
+  // for, so resolving a port does not allocate after the first time
+  final String[] services = new String[65536];
+  // protocol names by protocol number
+  final String[] protocols = new String[256];
+  final HostResolver hostResolver;
+
+  public NetworkResolver(Context context) {
+    File file = new File(context.getDir("data", Context.MODE_PRIVATE), "hostnames.cache");
+    hostResolver = new HostResolver(HostResolver.DNS, new HostCacheFile(file));
+
+    services[1] = "TCPMUX";
+    services[5] = "JOB";
+    services[7] = "ECHO";
+    services[11] = "SYSTAT";
+    services[13] = "DAYTIME";
+    services[15] = "NETSTAT";
+    services[17] = "QUOTE";
+    services[18] = "MSGSEND";
+    services[19] = "CHARGEN";
+    services[20] = "FTPT";
+    services[21] = "FTP";
+    services[42] = "HOSTNAME";
+    services[42] = "WINS";
+    services[43] = "WHOIS";
+    services[47] = "NIFTP";
+    services[53] = "DNS";
+    services[56] = "RAP";
+    services[57] = "MAIL";
+    services[67] = "BOOTP";
+    services[68] = "BOOTP";
+    services[69] = "TFTP";
+    services[70] = "GOPHER";
+    services[71] = "NETRJS";
+    services[72] = "NETRJS";
+    services[73] = "NETRJS";
+    services[74] = "NETRJS";
+    services[79] = "FINGER";
+    services[80] = "HTTP";
+    services[107] = "RTELNET";
+    services[109] = "POP2";
+    services[110] = "POP3";
+    services[111] = "SUNRPC";
+    services[113] = "AUTH";
+    services[115] = "SFTP";
+    services[117] = "UUCP";
+    services[118] = "SQL";
+    services[119] = "NNTP";
+    services[123] = "NTP";
+    services[135] = "DCE";
+    services[135] = "RPCL";
+    services[137] = "NETBIOSN";
+    services[138] = "NETBIOSD";
+    services[139] = "NETBIOSS";
+    services[143] = "IMAP";
+    services[152] = "BFTP";
+    services[153] = "SGMP";
+    services[156] = "SQL";
+    services[158] = "DMSP";
+    services[161] = "SNMP";
+    services[162] = "SNMPTRAP";
+    services[177] = "XDMCP";
+    services[179] = "BORDER GATEWAY PROTOCOL";
+    services[194] = "IRC";
+    services[199] = "SMUX";
+    services[201] = "APPLETALK";
+    services[213] = "IPX";
+    services[218] = "MPP";
+    services[220] = "IMAP3";
+    services[259] = "ESRO";
+    services[264] = "BGMP";
+    services[280] = "HTTP-MGMT";
+    services[369] = "RPC2PORTMAP";
+    services[370] = "SECURECAST1";
+    services[389] = "LDAP";
+    services[401] = "UPS";
+    services[427] = "SLP";
+    services[443] = "HTTPS";
+    services[444] = "SNPP";
+    services[445] = "SMB";
+    services[464] = "KERBEROS";
+    services[500] = "ISAKMP";
+    services[517] = "TALK";
+    services[518] = "NTALK";
+    services[520] = "EFS";
+    services[520] = "RIP";
+    services[524] = "NCP";
+    services[525] = "TIMED";
+    services[530] = "RPC";
+    services[531] = "AIM";
+    services[532] = "NETNEWS";
+    services[533] = "NETWALL";
+    services[540] = "UUCP";
+    services[542] = "COMMERCE";
+    services[543] = "KLOGIN";
+    services[544] = "KSHELL";
+    services[546] = "DHCPV6C";
+    services[547] = "DHCPV6S";
+    services[548] = "AFP";
+    services[550] = "RWHO";
+    services[554] = "RTSP";
+    services[556] = "REMOTEFS";
+    services[560] = "RMONITOR";
+    services[561] = "MONITOR";
+    services[563] = "NNTPS";
+    services[587] = "SMTP";
+    services[591] = "HTTP2";
+    services[593] = "HTTP-RPC";
+    services[604] = "TUNNEL";
+    services[623] = "ASF-RMCP";
+    services[631] = "IPP";
+    services[631] = "CUPS";
+    services[635] = "RLZ-DBASE";
+    services[636] = "LDAPS";
+    services[639] = "MSDP";
+    services[646] = "LDP";
+    services[647] = "DHCPF";
+    services[648] = "RRP";
+    services[651] = "IEEE-MMS";
+    services[654] = "MMS";
+    services[657] = "RMC";
+    services[666] = "DOOM";
+    services[674] = "ACAP";
+    services[691] = "MSEXCHANGE";
+    services[694] = "HEARTBEAT";
+    services[695] = "MMS-SSL";
+    services[698] = "OLSR";
+    services[700] = "EPP";
+    services[701] = "LMP";
+    services[702] = "IRIS";
+    services[706] = "SILC";
+    services[711] = "MPLS";
+    services[712] = "TBRPF";
+    services[749] = "KERBEROS";
+    services[750] = "KERBEROS4";
+    services[751] = "KERBEROS";
+    services[752] = "KPASSWD";
+    services[753] = "RRH";
+    services[753] = "RRH";
+    services[753] = "USERREG";
+    services[754] = "TELLSEND";
+    services[754] = "KRB5PROP";
+    services[754] = "TELLSEND";
+    services[760] = "KRBUPDATE";
+    services[782] = "CONSERVER";
+    services[783] = "SPAMD";
+    services[843] = "FLASH";
+    services[847] = "DHCPF";
+    services[848] = "GDOI";
+    services[860] = "ISCSI";
+    services[873] = "RSYNC";
+    services[888] = "CDDBP";
+    services[901] = "SWAT";
+    services[901] = "VMWARE";
+    services[901] = "VMWARE";
+    services[902] = "IDEAFARM-DOOR";
+    services[902] = "VMWARE";
+    services[902] = "IDEAFARM-DOOR";
+    services[902] = "VMWARE";
+    services[903] = "VMWARE";
+    services[904] = "VMWARE";
+    services[911] = "NCA";
+    services[944] = "NFS";
+    services[953] = "RNDC";
+    services[973] = "NFS6";
+    services[989] = "FTPSD";
+    services[990] = "FTPSC";
+    services[991] = "NAS";
+    services[992] = "STELNET";
+    services[993] = "IMAPS";
+    services[995] = "POP3S";
+
+    protocols[0] = "HOPOPT";
+    protocols[1] = "ICMP";
+    protocols[2] = "IGMP";
+    protocols[3] = "GGP";
+    protocols[4] = "IPv4";
+    protocols[5] = "ST";
+    protocols[6] = "TCP";
+    protocols[7] = "CBT";
+    protocols[8] = "EGP";
+    protocols[9] = "IGP";
+    protocols[10] = "BBN";
+    protocols[11] = "NVP2";
+    protocols[12] = "PUP";
+    protocols[13] = "ARGUS";
+    protocols[14] = "EMCON";
+    protocols[15] = "XNET";
+    protocols[16] = "CHAOS";
+    protocols[17] = "UDP";
+    protocols[18] = "MUX";
+    protocols[19] = "DCN";
+    protocols[20] = "HMP";
+    protocols[21] = "PRM";
+    protocols[22] = "XNS";
+    protocols[27] = "RDP";
+    protocols[28] = "IRTP";
+    protocols[29] = "ISO";
+    protocols[30] = "BLT";
+    protocols[31] = "MFE-NSP";
+    protocols[32] = "MERIT-INP";
+    protocols[33] = "DCCP";
+    protocols[34] = "3PC";
+    protocols[35] = "IDPR";
+    protocols[36] = "XTP";
+    protocols[37] = "DDP";
+    protocols[38] = "IDPR-CMTP";
+    protocols[39] = "TP++";
+    protocols[40] = "IL";
+    protocols[41] = "IPv6";
+    protocols[42] = "SDRP";
+    protocols[43] = "IPv6-Route";
+    protocols[44] = "IPv6-Frag";
+    protocols[45] = "IDRP";
+    protocols[46] = "RSVP";
+    protocols[47] = "GRE";
+    protocols[48] = "MHRP";
+    protocols[49] = "BNA";
+    protocols[50] = "ESP";
+    protocols[51] = "AH";
+    protocols[52] = "I-NLSP";
+    protocols[53] = "SWIPE";
+    protocols[54] = "NARP";
+    protocols[55] = "MOBILE";
+    protocols[56] = "TLSP";
+    protocols[57] = "SKIP";
+    protocols[58] = "IPv6-ICMP";
+    protocols[59] = "IPv6-NoNxt";
+    protocols[60] = "IPv6-Opts";
+    protocols[62] = "CFTP";
+    protocols[64] = "SAT-EXPAK";
+    protocols[65] = "KRYPTOLAN";
+    protocols[66] = "RVD";
+    protocols[67] = "IPPC";
+    protocols[69] = "SAT-MON";
+    protocols[70] = "VISA";
+    protocols[71] = "IPCV";
+    protocols[72] = "CPNX";
+    protocols[73] = "CPHB";
+    protocols[74] = "WSN";
+    protocols[75] = "PVP";
+    protocols[76] = "BR-SAT-MON";
+    protocols[77] = "SUN-ND";
+    protocols[78] = "WB-MON";
+    protocols[79] = "WB-EXPAK";
+    protocols[80] = "ISO-IP";
+    protocols[81] = "VMTP";
+    protocols[82] = "SECURE-VMTP";
+    protocols[83] = "VINES";
+    protocols[84] = "TTP";
+    protocols[84] = "IPTM";
+    protocols[85] = "NSFNET-IGP";
+    protocols[86] = "DGP";
+    protocols[87] = "TCF";
+    protocols[88] = "EIGRP";
+    protocols[89] = "OSPF";
+    protocols[90] = "SPRITE-RPC";
+    protocols[91] = "LARP";
+    protocols[92] = "MTP";
+    protocols[93] = "AX.25";
+    protocols[94] = "IPIP";
+    protocols[95] = "MICP";
+    protocols[96] = "SCC-SP";
+    protocols[97] = "ETHERIP";
+    protocols[98] = "ENCAP";
+    protocols[100] = "GMTP";
+    protocols[101] = "IFMP";
+    protocols[102] = "PNNI";
+    protocols[103] = "PIM";
+    protocols[104] = "ARIS";
+    protocols[105] = "SCPS";
+    protocols[106] = "QNX";
+    protocols[107] = "A/N";
+    protocols[108] = "IPComp";
+    protocols[109] = "SNP";
+    protocols[110] = "Compaq-Peer";
+    protocols[111] = "IPX-in-IP";
+    protocols[112] = "VRRP";
+    protocols[113] = "PGM";
+    protocols[115] = "L2TP";
+    protocols[116] = "DDX";
+    protocols[117] = "IATP";
+    protocols[118] = "STP";
+    protocols[119] = "SRP";
+    protocols[120] = "UTI";
+    protocols[121] = "SMP";
+    protocols[122] = "SM";
+    protocols[123] = "PTP";
+    protocols[125] = "FIRE";
+    protocols[126] = "CRTP";
+    protocols[127] = "CRUDP";
+    protocols[128] = "SSCOPMCE";
+    protocols[129] = "IPLT";
+    protocols[130] = "SPS";
+    protocols[131] = "PIPE";
+    protocols[132] = "SCTP";
+    protocols[133] = "FC";
+    protocols[138] = "MANET";
+    protocols[139] = "HIP";
+    protocols[140] = "SHIM6";
   }
 
   public String getResolvedAddress(final String address) {
-    return resolvedHostMap.get(address);
+    return hostResolver.getCached(address);
   }
 
   public String resolveAddress(final String address) {
-    return resolveAddress(address, null);
+    return hostResolver.resolve(address, null);
   }
 
   public String resolveAddress(final String address, final NetworkResolverUpdater updater) {
-    String resolved;
-    synchronized(resolvedHostMap) {
-      resolved = resolvedHostMap.get(address);
+    return hostResolver.resolve(address, updater);
+  }
+
+  public String resolveService(int port) {
+    if(port < 0 || port >= services.length) {
+      return String.valueOf(port);
     }
 
-    if(resolved == null && updater != null) {
-      synchronized(hostUpdatersMap) {
-        ArrayList<NetworkResolverUpdater> updaters = hostUpdatersMap.get(address);
-        if(updaters == null) {
-          updaters = new ArrayList<NetworkResolverUpdater>();
-          hostUpdatersMap.put(address, updaters);
-        }
-        updaters.add(updater);
-      }
+    String name = services[port];
+
+    if(name == null) {
+      name = String.valueOf(port);
+      services[port] = name;
     }
 
-    Object resolving;
-    synchronized(resolvingHostMap) {
-      resolving = resolvingHostMap.get(address);
+    return name;
+  }
+
+  public String resolveProtocol(int protocol) {
+    if(protocol < 0 || protocol >= protocols.length || protocols[protocol] == null) {
+      return String.valueOf(protocol);
     }
 
-    if(resolving != null) {
-      return null;
+    return protocols[protocol];
+  }
+
+  /**
+   * @param protocol protocol name, or number as logged
+   */
+  public String resolveProtocol(String protocol) {
+    int length = protocol == null ? 0 : protocol.length();
+
+    if(length == 0 || length > 3) {
+      return protocol;
     }
 
-    if(resolved == null) {
-      synchronized(resolvingHostMap) {
-        resolvingHostMap.put(address, address);
+    int number = 0;
+
+    for(int i = 0; i < length; i++) {
+      char c = protocol.charAt(i);
+
+      if(c < '0' || c > '9') {
+        return protocol;
       }
 
-      new Thread(new Runnable() {
-        public void run() {
-          try {
-            if(MyLog.enabled && MyLog.level >= 1) {
-              MyLog.d(1, "Resolving " + address);
-            }
-
-            InetAddress inetAddress = InetAddress.getByName(address);
-            String resolved = inetAddress.getHostName();
-            
-            synchronized(resolvedHostMap) {
-              resolvedHostMap.put(address, resolved);
-            }
-
-            synchronized(resolvingHostMap) {
-              resolvingHostMap.remove(address);
-            }
-
-            if(MyLog.enabled && MyLog.level >= 1) {
-              MyLog.d(1, "Resolved " + address + " to " + resolved);
-            }
-
-            synchronized(hostUpdatersMap) {
-              ArrayList<NetworkResolverUpdater> updaters = hostUpdatersMap.get(address);
-              if(updaters != null) {
-                Iterator<NetworkResolverUpdater> iterator = updaters.iterator();
-                while(iterator.hasNext()) {
-                  NetworkResolverUpdater update = iterator.next();
-                  update.setResolved(resolved);
-                  NetworkLog.handler.postDelayed(update, 500);
-                }
-                updaters.clear();
-                hostUpdatersMap.remove(address);
-              }
-            }
-          } catch(Exception e) {
-            Log.d("NetworkLog", e.toString(), e);
-          }
-        }
-      }, "NetResolv:" + address).start();
-
-      return null;
-    } else {
-      return resolved;
+      number = number * 10 + (c - '0');
     }
+
+    if(number >= protocols.length || protocols[number] == null) {
+      return protocol;
+    }
+
+    return protocols[number];
   }
 
-  public String resolveService(String service) {
-    String name = serviceMap.get(service);
+  /**
+   * @return ports whose service is named name, ignoring case
+   */
+  public int[] getServicePorts(String name) {
+    ArrayList<Integer> ports = new ArrayList<Integer>();
 
-    if(name == null) {
-      return service;
+    for(int port = 0; port < services.length; port++) {
+      String service = services[port];
+
+      // skip ports holding their own number
+      if(service != null && !Character.isDigit(service.charAt(0)) && service.equalsIgnoreCase(name)) {
+        ports.add(port);
+      }
     }
-    else {
-      return name;
+
+    int[] result = new int[ports.size()];
+
+    for(int i = 0; i < result.length; i++) {
+      result[i] = ports.get(i);
     }
+
+    return result;
   }
 
-  public String resolveProtocol(String protocol) {
-    String name = protocolMap.get(protocol);
+  /**
+   * @return numbers, as logged, of protocols named name, ignoring case
+   */
+  public String[] getProtocols(String name) {
+    ArrayList<String> numbers = new ArrayList<String>();
 
-    if(name == null) {
-      return protocol;
-    }
-    else {
-      return name;
+    for(int protocol = 0; protocol < protocols.length; protocol++) {
+      if(protocols[protocol] != null && protocols[protocol].equalsIgnoreCase(name)) {
+        numbers.add(String.valueOf(protocol));
+      }
     }
+
+    return numbers.toArray(new String[numbers.size()]);
   }
 }
@@ -6,12 +6,59 @@
 
 package com.googlecode.networklog;
 
+import android.view.View;
+
 import java.lang.Runnable;
+import java.lang.ref.WeakReference;
 
 public abstract class NetworkResolverUpdater implements Runnable {
   protected String resolved;
 
+  // view showing the address, if bound; held weakly so that lookups still
+  // queued don't keep views of a finished activity alive
+  WeakReference<View> view;
+  String address;
+
+  public NetworkResolverUpdater() {
+  }
+
+  /**
+   * Binds the updater to view, which is tagged with address; it is not run
+   * once the view is gone or has been recycled for another address.
+   */
+  public NetworkResolverUpdater(View view, String address) {
+    this.view = new WeakReference<View>(view);
+    this.address = address;
+  }
+
   public void setResolved(String resolved) {
     this.resolved = resolved;
   }
+
+  /**
+   * @return bound view, or null if there is none
+   */
+  protected View getBoundView() {
+    return view == null ? null : view.get();
+  }
+
+  boolean isBoundTo(View other) {
+    return view != null && view.get() == other;
+  }
+
+  // call on the UI thread only, as it reads the view's tag
+  boolean isStale() {
+    if(view == null) {
+      return false;
+    }
+
+    View boundView = view.get();
+
+    if(boundView == null) {
+      return true;
+    }
+
+    Object tag = boundView.getTag();
+    return tag != address && (address == null || !address.equals(tag));
+  }
 }
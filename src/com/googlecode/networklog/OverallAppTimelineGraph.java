@@ -41,14 +41,19 @@ public class OverallAppTimelineGraph extends GraphActivity
 
       graphView.graphSeries.clear();
 
-      if(NetworkLog.logFragment == null || NetworkLog.logFragment.listData == null || NetworkLog.logFragment.listData.size() == 0) {
+      if(NetworkLog.logFragment == null || NetworkLog.logFragment.getItemCount() == 0) {
         SysUtils.showError(this, getString(R.string.graph_error_nodata_title), getString(R.string.graph_error_nodata_text));
         finish();
         return;
       }
 
-      synchronized(NetworkLog.logFragment.listData) {
-        for(LogFragment.ListItem item : NetworkLog.logFragment.listData) {
+      synchronized(NetworkLog.logFragment.logEntries) {
+        LogFragment.ListItem item = new LogFragment.ListItem();
+        int count = NetworkLog.logFragment.getItemCount();
+
+        for(int i = 0; i < count; i++) {
+          NetworkLog.logFragment.getItem(i, item);
+
           packetList = appMap.get(item.app.uid);
 
           if(packetList == null) {
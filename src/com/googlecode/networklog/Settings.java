@@ -62,6 +62,14 @@ public class Settings implements OnSharedPreferenceChangeListener {
     return Integer.parseInt(prefs.getString("watch_rules_timeout", "120000"));
   }
 
+  public int getLogfileCommitInterval() {
+    return Integer.parseInt(prefs.getString("logfile_commit_interval", "1000"));
+  }
+
+  public boolean getLogfileBinary() {
+    return prefs.getBoolean("logfile_binary", false);
+  }
+
   public boolean getBehindFirewall() {
     return prefs.getBoolean("behind_firewall", false);
   }
@@ -442,6 +450,18 @@ public class Settings implements OnSharedPreferenceChangeListener {
     editor.commit();
   }
 
+  public void setLogfileCommitInterval(int value) {
+    SharedPreferences.Editor editor = prefs.edit();
+    editor.putString("logfile_commit_interval", String.valueOf(value));
+    editor.commit();
+  }
+
+  public void setLogfileBinary(boolean value) {
+    SharedPreferences.Editor editor = prefs.edit();
+    editor.putBoolean("logfile_binary", value);
+    editor.commit();
+  }
+
   public void setBehindFirewall(boolean value) {
     SharedPreferences.Editor editor = prefs.edit();
     editor.putBoolean("behind_firewall", value);
@@ -713,6 +733,27 @@ public class Settings implements OnSharedPreferenceChangeListener {
         return;
       }
 
+      if(key.equals("logfile_commit_interval")) {
+        int value = Integer.parseInt(prefs.getString(key, "1000"));
+        MyLog.d("New " + key + " value [" + value + "]");
+        NetworkLogService.logfileCommitInterval = value;
+        if(NetworkLogService.instance != null) {
+          NetworkLogService.instance.setLogfileCommitInterval(value);
+        }
+        return;
+      }
+
+      if(key.equals("logfile_binary")) {
+        boolean value = prefs.getBoolean(key, false);
+        MyLog.d("New " + key + " value [" + value + "]");
+        NetworkLogService.logfileBinary = value;
+        if(NetworkLogService.instance != null) {
+          // reopened in the new format (and converted) on the next entry
+          NetworkLogService.instance.closeLogfile();
+        }
+        return;
+      }
+
       if(key.equals("behind_firewall")) {
         boolean value = prefs.getBoolean(key, false);
         MyLog.d("New " + key + " value [" + value + "]");
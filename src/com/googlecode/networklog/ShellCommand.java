@@ -18,7 +18,6 @@ import java.io.IOException;
 import java.lang.Thread;
 import java.util.Arrays;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 public class ShellCommand {
   Runtime rt;
@@ -63,6 +62,7 @@ public class ShellCommand {
 
     if(waitForExit) {
       waitForExit();
+      stdout.buffer.remove(StreamReader.EOF);
       String[] output = stdout.buffer.toArray(new String[stdout.buffer.size()]);
       return output;
     }
@@ -116,7 +116,7 @@ public class ShellCommand {
       if(ignoreStdout == true) {
         MyLog.d("ShellCommand exited: [" + tag + "] exit " + exitval);
         return true;
-      } else if(stdout.buffer.size() == 0) {
+      } else if(stdout.isDrained()) {
         MyLog.d("ShellCommand exited: [" + tag + "] exit " + exitval);
         return true;
       } else {
@@ -187,7 +187,10 @@ public class ShellCommand {
     return true;
   }
 
-  class StreamReader extends Thread {
+  static class StreamReader extends Thread {
+    // marks end of stream in buffer so blocked readers wake up
+    static final String EOF = new String("..StreamReader EOF..");
+
     InputStream is;
     String tag;
     LinkedBlockingQueue<String> buffer = new LinkedBlockingQueue<String>();
@@ -223,36 +226,39 @@ public class ShellCommand {
       } catch (IOException e) {
         e.printStackTrace();
       }
+
+      buffer.offer(EOF);
       System.out.println("StreamReader done");
     }
 
     public boolean lineAvailable() {
-      return buffer.size() != 0;
+      String head = buffer.peek();
+      return head != null && head != EOF;
+    }
+
+    public boolean isDrained() {
+      String head = buffer.peek();
+      return head == null || head == EOF;
     }
 
+    // blocks until a line is available; returns null at end of stream
+    // or if the calling thread is interrupted
     public String readLine() {
       String result;
 
       try {
-        if(checkForExit() && buffer.size() == 0) {
-          return null;
-        }
+        result = buffer.take();
 
-        while(checkForExit() == false) {
-          result = buffer.poll(200, TimeUnit.MILLISECONDS);
-          if(result != null) {
-            return result;
-          }
+        if(result == EOF) {
+          // leave marker in place for any other readers
+          buffer.offer(EOF);
+          return null;
         }
 
-        if(buffer.size() != 0) {
-          result = buffer.take();
-          return result;
-        }
+        return result;
       } catch (InterruptedException e) {
-        e.printStackTrace();
+        return null;
       }
-      return null;
     }
 
     public void close() {
@@ -0,0 +1,275 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Fixed-capacity string interner.
+//
+// Strings are kept in a set-associative hash table: a string can only live
+// in one of the WAYS slots of the set picked by its hash.  Lookups scan the
+// set without locking; since Strings are immutable, a slot read while it is
+// being replaced yields either the old or the new String, and a mismatch
+// merely falls through to the insertion path.  Insertions are serialized, and when a set is full
+// they evict with the CLOCK algorithm: slots are marked when hit, and the
+// hand skips (and unmarks) marked slots before evicting an unmarked one.
+//
+// Keys can be given as chars, ASCII bytes or Strings; the hash matches
+// String.hashCode() so all of them find the same entry.
+
+package com.googlecode.networklog;
+
+import java.nio.ByteBuffer;
+
+public class StringInterner {
+  static final int WAYS = 4;
+
+  final String[] slots;
+  final int[] hashes;
+  final boolean[] referenced;
+  final byte[] hands;
+  final int setMask;
+
+  // approximate; updated without synchronization
+  int hits;
+  int misses;
+  int evictions;
+
+  /**
+   * @param capacity number of strings held, rounded up to a power of 2
+   */
+  public StringInterner(int capacity) {
+    int sets = 1;
+
+    while(sets * WAYS < capacity) {
+      sets <<= 1;
+    }
+
+    slots = new String[sets * WAYS];
+    hashes = new int[sets * WAYS];
+    referenced = new boolean[sets * WAYS];
+    hands = new byte[sets];
+    setMask = sets - 1;
+  }
+
+  // spread low-entropy hashes (e.g. of similar addresses) across sets
+  int getSet(int hash) {
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return hash & setMask;
+  }
+
+  public String get(char[] chars, int offset, int length) {
+    int hash = 0;
+
+    for(int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+
+    int first = getSet(hash) * WAYS;
+    String string;
+
+    for(int slot = first; slot < first + WAYS; slot++) {
+      string = slots[slot];
+
+      if(string != null && hashes[slot] == hash && equals(string, chars, offset, length)) {
+        return hit(slot, string);
+      }
+    }
+
+    return insert(new String(chars, offset, length), hash);
+  }
+
+  public String get(byte[] bytes, int offset, int length) {
+    int hash = 0;
+
+    for(int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + (bytes[i] & 0xff);
+    }
+
+    int first = getSet(hash) * WAYS;
+    String string;
+
+    for(int slot = first; slot < first + WAYS; slot++) {
+      string = slots[slot];
+
+      if(string != null && hashes[slot] == hash && equals(string, bytes, offset, length)) {
+        return hit(slot, string);
+      }
+    }
+
+    char[] chars = new char[length];
+
+    for(int i = 0; i < length; i++) {
+      chars[i] = (char) (bytes[offset + i] & 0xff);
+    }
+
+    return insert(new String(chars), hash);
+  }
+
+  public String get(ByteBuffer bytes, int offset, int length) {
+    int hash = 0;
+
+    for(int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + (bytes.get(i) & 0xff);
+    }
+
+    int first = getSet(hash) * WAYS;
+    String string;
+
+    for(int slot = first; slot < first + WAYS; slot++) {
+      string = slots[slot];
+
+      if(string != null && hashes[slot] == hash && equals(string, bytes, offset, length)) {
+        return hit(slot, string);
+      }
+    }
+
+    char[] chars = new char[length];
+
+    for(int i = 0; i < length; i++) {
+      chars[i] = (char) (bytes.get(offset + i) & 0xff);
+    }
+
+    return insert(new String(chars), hash);
+  }
+
+  public String get(String key) {
+    int hash = key.hashCode();
+    int first = getSet(hash) * WAYS;
+    String string;
+
+    for(int slot = first; slot < first + WAYS; slot++) {
+      string = slots[slot];
+
+      if(string != null && hashes[slot] == hash && string.equals(key)) {
+        return hit(slot, string);
+      }
+    }
+
+    return insert(new String(key), hash); // decouple string from substring(), etc
+  }
+
+  String hit(int slot, String string) {
+    referenced[slot] = true;
+    hits++;
+    return string;
+  }
+
+  synchronized String insert(String string, int hash) {
+    misses++;
+
+    int set = getSet(hash);
+    int first = set * WAYS;
+    int slot;
+
+    // another thread may have added it since the lookup
+    for(slot = first; slot < first + WAYS; slot++) {
+      if(slots[slot] != null && hashes[slot] == hash && slots[slot].equals(string)) {
+        return slots[slot];
+      }
+    }
+
+    for(slot = first; slot < first + WAYS; slot++) {
+      if(slots[slot] == null) {
+        break;
+      }
+    }
+
+    if(slot == first + WAYS) {
+      // advance the hand past recently used slots
+      while(referenced[first + hands[set]]) {
+        referenced[first + hands[set]] = false;
+        hands[set] = (byte) ((hands[set] + 1) % WAYS);
+      }
+
+      slot = first + hands[set];
+      hands[set] = (byte) ((hands[set] + 1) % WAYS);
+      evictions++;
+    }
+
+    // a concurrent lookup may pair the string with a stale hash; hashes
+    // only filter, the contents are always compared
+    hashes[slot] = hash;
+    referenced[slot] = false;
+    slots[slot] = string;
+    return string;
+  }
+
+  static boolean equals(String string, char[] chars, int offset, int length) {
+    if(string.length() != length) {
+      return false;
+    }
+
+    for(int i = 0; i < length; i++) {
+      if(string.charAt(i) != chars[offset + i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  static boolean equals(String string, byte[] bytes, int offset, int length) {
+    if(string.length() != length) {
+      return false;
+    }
+
+    for(int i = 0; i < length; i++) {
+      if(string.charAt(i) != (bytes[offset + i] & 0xff)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  static boolean equals(String string, ByteBuffer bytes, int offset, int length) {
+    if(string.length() != length) {
+      return false;
+    }
+
+    for(int i = 0; i < length; i++) {
+      if(string.charAt(i) != (bytes.get(offset + i) & 0xff)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  public synchronized void clear() {
+    for(int slot = 0; slot < slots.length; slot++) {
+      slots[slot] = null;
+      referenced[slot] = false;
+    }
+  }
+
+  public int size() {
+    int size = 0;
+
+    for(int slot = 0; slot < slots.length; slot++) {
+      if(slots[slot] != null) {
+        size++;
+      }
+    }
+
+    return size;
+  }
+
+  public int capacity() {
+    return slots.length;
+  }
+
+  public int getHits() {
+    return hits;
+  }
+
+  public int getMisses() {
+    return misses;
+  }
+
+  public int getEvictions() {
+    return evictions;
+  }
+}
@@ -6,21 +6,35 @@
 
 package com.googlecode.networklog;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
 
 public class StringPool {
-  final static int maxPoolSize = 1024;
-  final public static ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<String, String>(maxPoolSize);
-  final public static ConcurrentHashMap<String, String> lowercasePool = new ConcurrentHashMap<String, String>(maxPoolSize);
-  final public static ConcurrentHashMap<Integer, String> integerPool = new ConcurrentHashMap<Integer, String>(maxPoolSize);
-  final public static CharArrayStringAATree charPool = new CharArrayStringAATree();
-  static int poolSize = 0;
-  static int lowercasePoolSize = 0;
-  static int integerPoolSize = 0;
-  static CharArray charBuffer = new CharArray();
-
-  public static void clearCharPool() {
-    charPool.clear();
+  final static int maxPoolSize = 4096;
+  final static int maxCacheSize = 1024; // must be power of 2
+  final public static StringInterner pool = new StringInterner(maxPoolSize);
+
+  // direct-mapped caches; a colliding entry simply replaces the old one
+  final static LowercaseEntry[] lowercaseCache = new LowercaseEntry[maxCacheSize];
+  final static IntegerEntry[] integerCache = new IntegerEntry[maxCacheSize];
+
+  static class LowercaseEntry {
+    final String string;
+    final String lowercase;
+
+    LowercaseEntry(String string, String lowercase) {
+      this.string = string;
+      this.lowercase = lowercase;
+    }
+  }
+
+  static class IntegerEntry {
+    final int integer;
+    final String string;
+
+    IntegerEntry(int integer, String string) {
+      this.integer = integer;
+      this.string = string;
+    }
   }
 
   public static String get(CharArray chars) {
@@ -28,17 +42,16 @@ public class StringPool {
   }
 
   public static String get(char[] chars, int offset, int length) {
-    synchronized(charBuffer) {
-      charBuffer.setValue(chars, offset, length);
+    return pool.get(chars, offset, length);
+  }
 
-      if (charPool.size + 1 >= maxPoolSize) {
-        // clear pool to free memory and allow pool to rebuild
-        MyLog.d("[StringPool] Clearing charPool");
-        charPool.clear();
-      }
+  // ASCII bytes; a String is only built if they are not already pooled
+  public static String get(byte[] bytes, int offset, int length) {
+    return pool.get(bytes, offset, length);
+  }
 
-      return charPool.insert(charBuffer);
-    }
+  public static String get(ByteBuffer bytes, int offset, int length) {
+    return pool.get(bytes, offset, length);
   }
 
   public static String get(String string) {
@@ -46,29 +59,7 @@ public class StringPool {
       return "";
     }
 
-    String result = pool.get(string);
-
-    if(result == null) {
-      String newString = new String(string); // decouple string from substring(), etc
-      
-      pool.put(newString, newString);
-      poolSize++;
-
-      if(MyLog.enabled && MyLog.level >= 8) {
-        MyLog.d(8, "[StringPool] new addition [" + newString + "]; pool size: " + poolSize);
-      }
-
-      if (poolSize >= maxPoolSize) {
-        // clear pool to free memory and allow pool to rebuild
-        MyLog.d("[StringPool] Clearing pool");
-        pool.clear();
-        poolSize = 0;
-      }
-
-      return newString;
-    } else {
-      return result;
-    }
+    return pool.get(string);
   }
 
   public static String getLowerCase(String string) {
@@ -76,29 +67,21 @@ public class StringPool {
       return "";
     }
 
-    String result = lowercasePool.get(string);
+    int index = string.hashCode() & (maxCacheSize - 1);
+    LowercaseEntry entry = lowercaseCache[index];
 
-    if(result == null) {
-      String newString = new String(string.toLowerCase());
-
-      lowercasePool.put(string, newString);
-      lowercasePoolSize++;
-
-      if(MyLog.enabled && MyLog.level >= 8) {
-        MyLog.d(8, "[StringPool] new lowercase addition [" + newString + "]; pool size: " + lowercasePoolSize);
-      }
+    if(entry != null && entry.string.equals(string)) {
+      return entry.lowercase;
+    }
 
-      if (lowercasePoolSize >= maxPoolSize) {
-        // clear pool to free memory and allow pool to rebuild
-        MyLog.d("[StringPool] Clearing lowercase pool");
-        lowercasePool.clear();
-        lowercasePoolSize = 0;
-      }
+    String lowercase = string.toLowerCase();
+    lowercaseCache[index] = new LowercaseEntry(string, lowercase);
 
-      return newString;
-    } else {
-      return result;
+    if(MyLog.enabled && MyLog.level >= 8) {
+      MyLog.d(8, "[StringPool] new lowercase addition [" + lowercase + "]");
     }
+
+    return lowercase;
   }
 
   public static String get(Integer integer) {
@@ -106,28 +89,31 @@ public class StringPool {
       return "";
     }
 
-    String result = integerPool.get(integer);
+    return get(integer.intValue());
+  }
+
+  public static String get(int value) {
+    int index = (value ^ (value >>> 16)) & (maxCacheSize - 1);
+    IntegerEntry entry = integerCache[index];
 
-    if(result == null) {
-      String newString = String.valueOf(integer);
+    if(entry != null && entry.integer == value) {
+      return entry.string;
+    }
 
-      integerPool.put(integer, newString);
-      integerPoolSize++;
+    String string = String.valueOf(value);
+    integerCache[index] = new IntegerEntry(value, string);
 
-      if(MyLog.enabled && MyLog.level >= 8) {
-        MyLog.d(8, "[StringPool] new integer addition [" + newString + "]; pool size: " + integerPoolSize);
-      }
+    if(MyLog.enabled && MyLog.level >= 8) {
+      MyLog.d(8, "[StringPool] new integer addition [" + string + "]");
+    }
 
-      if (integerPoolSize >= maxPoolSize) {
-        // clear pool to free memory and allow pool to rebuild
-        MyLog.d("[StringPool] Clearing integer pool");
-        integerPool.clear();
-        integerPoolSize = 0;
-      }
+    return string;
+  }
 
-      return newString;
-    } else {
-      return result;
+  public static void logStats() {
+    if(MyLog.enabled) {
+      MyLog.d("[StringPool] size: " + pool.size() + "/" + pool.capacity() + " hits: " + pool.getHits()
+          + " misses: " + pool.getMisses() + " evictions: " + pool.getEvictions());
     }
   }
 }
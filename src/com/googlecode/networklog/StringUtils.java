@@ -7,6 +7,35 @@
 package com.googlecode.networklog;
 
 public class StringUtils {
+  static final int MAX_ADDRESS_LENGTH = 45; // IPv6 ending in dotted IPv4
+
+  /**
+   * @return true if string has only the characters of an IPv4 or IPv6
+   * address
+   */
+  public static boolean isAddress(String string) {
+    if(string == null) {
+      return false;
+    }
+
+    int length = string.length();
+    char c;
+
+    if(length == 0 || length > MAX_ADDRESS_LENGTH) {
+      return false;
+    }
+
+    for(int i = 0; i < length; i++) {
+      c = string.charAt(i);
+
+      if(!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '.' || c == ':')) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
   public static boolean contains(String string, String chars) {
     int stringLength = string.length();
     int charsLength = chars.length();
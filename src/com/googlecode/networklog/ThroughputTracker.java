@@ -4,80 +4,133 @@
    file, You can obtain one at http://mozilla.org/MPL/2.0/
  */
 
+// Throughput of each app is counted into a ThroughputData of its own, held
+// in a dense array indexed by ThroughputData.index, which is also kept on
+// the AppEntry so that counting a packet needs no lookup.  Packets are
+// counted with atomic adds and the updater takes the counts with atomic
+// swaps, so neither ever waits for the other; only adding an app takes a
+// lock.  Counts are kept in bytes and converted for display.
+
 package com.googlecode.networklog;
 
 import android.util.Log;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ThroughputTracker {
   public static String throughputString = "";
 
   static class ThroughputData {
-    ApplicationsTracker.AppEntry app;
-    String address;
-    long upload;
-    long download;
-    long clearTime;
-    boolean displayed;
+    volatile ApplicationsTracker.AppEntry app;
+    final int index;
+
+    // written when counting packets
+    final AtomicLong upload = new AtomicLong();
+    final AtomicLong download = new AtomicLong();
+    volatile String address; // pooled by the parser
+    volatile int port;
+    volatile long clearTime;
+
+    // read and written by the updater only
+    long shownUpload;
+    long shownDownload;
+    boolean shown;
+
+    ThroughputData(ApplicationsTracker.AppEntry app, int index) {
+      this.app = app;
+      this.index = index;
+    }
   }
 
-  public static HashMap<String, ThroughputData> throughputMap = new HashMap<String, ThroughputData>();
-  public static HashMap<String, ThroughputData> resetMap = new HashMap<String, ThroughputData>();
-  
-  private static ApplicationsTracker.AppEntry appEntry;
+  // apps seen so far; replaced by a longer copy when full
+  static volatile ThroughputData[] apps = new ThroughputData[64];
+  static volatile int appCount = 0;
+  static final Object appsLock = new Object();
+
+  static ThroughputData getData(ApplicationsTracker.AppEntry appEntry) {
+    int index = appEntry.throughputIndex;
+    ThroughputData[] current = apps;
+
+    // index may have been set by another thread after it grew apps
+    if(index >= 0 && index < current.length) {
+      return current[index];
+    }
+
+    synchronized(appsLock) {
+      if(appEntry.throughputIndex >= 0) {
+        return apps[appEntry.throughputIndex];
+      }
+
+      // the app list may have been reloaded with new entries for known uids
+      for(int i = 0; i < appCount; i++) {
+        if(apps[i].app.uid == appEntry.uid) {
+          apps[i].app = appEntry;
+          appEntry.throughputIndex = i;
+          return apps[i];
+        }
+      }
+
+      ThroughputData[] newApps = apps;
+
+      if(appCount == newApps.length) {
+        newApps = new ThroughputData[appCount * 2];
+        System.arraycopy(apps, 0, newApps, 0, appCount);
+      }
+
+      ThroughputData data = new ThroughputData(appEntry, appCount);
+      newApps[appCount] = data;
+      apps = newApps;
+      appCount++;
+      appEntry.throughputIndex = data.index;
+      return data;
+    }
+  }
 
   public static void updateEntry(LogEntry entry) {
-    appEntry = ApplicationsTracker.uidMap.get(entry.uidString);
+    ApplicationsTracker.AppEntry appEntry = ApplicationsTracker.uidMap.get(entry.uidString);
 
     if(appEntry == null) {
       Log.w("NetworkLog", "[ThroughputTracker] No app entry for uid " + entry.uidString);
       return;
     }
 
-    synchronized(throughputMap) {
-      ThroughputData throughput = throughputMap.get(appEntry.packageName);
+    ThroughputData throughput = getData(appEntry);
 
-      if(throughput == null) {
-        throughput = new ThroughputData();
-        throughput.app = appEntry;
-        throughputMap.put(appEntry.packageName, throughput);
-      }
+    if(entry.in != null && entry.in.length() > 0) {
+      throughput.download.addAndGet(entry.len);
+      throughput.address = entry.src;
+      throughput.port = entry.spt;
+    } else {
+      throughput.upload.addAndGet(entry.len);
+      throughput.address = entry.dst;
+      throughput.port = entry.dpt;
+    }
 
-      if(throughput.displayed == true) {
-        throughput.download = 0;
-        throughput.upload = 0;
-      }
+    throughput.clearTime = System.currentTimeMillis() + NetworkLogService.toastDuration;
+  }
 
-      if(entry.in != null && entry.in.length() > 0) {
-        if(NetworkLogService.throughputBps) {
-          throughput.download += entry.len * Byte.SIZE;
-        } else {
-          throughput.download += entry.len;
-        }
-        throughput.address = entry.src + ":" + entry.spt;
-      } else {
-        if(NetworkLogService.throughputBps) {
-          throughput.upload += entry.len * Byte.SIZE;
-        } else {
-          throughput.upload += entry.len;
-        }
-        throughput.address = entry.dst + ":" + entry.dpt;
-      }
+  // bytes in the unit shown
+  static long toDisplayUnit(long bytes) {
+    return NetworkLogService.throughputBps ? bytes * Byte.SIZE : bytes;
+  }
 
-      throughput.clearTime = System.currentTimeMillis() + NetworkLogService.toastDuration;
-      throughput.displayed = false;
+  static String formatThroughput(long upload, long download) {
+    if(NetworkLogService.invertUploadDownload) {
+      return StringUtils.formatToBytes(toDisplayUnit(download)) + (NetworkLogService.throughputBps ? "bps/" : "B/") + StringUtils.formatToBytes(toDisplayUnit(upload)) + (NetworkLogService.throughputBps ? "bps" : "B");
+    } else {
+      return StringUtils.formatToBytes(toDisplayUnit(upload)) + (NetworkLogService.throughputBps ? "bps/" : "B/") + StringUtils.formatToBytes(toDisplayUnit(download)) + (NetworkLogService.throughputBps ? "bps" : "B");
     }
   }
 
   static class ThroughputUpdater implements Runnable {
     boolean running = false;
-    long totalUpload;
-    long totalDownload;
+    // bytes counted in the last second
+    volatile long totalUpload;
+    volatile long totalDownload;
     StringBuilder toastString = new StringBuilder(512);
+    // apps whose throughput was set in the Apps tab in the last second
+    ArrayList<ThroughputData> resetList = new ArrayList<ThroughputData>();
 
     public void stop() {
       running = false;
@@ -90,82 +143,84 @@ public class ThroughputTracker {
       String newline;
 
       while(running) {
-        synchronized(throughputMap) {
-          if(isDirty) {
-            isDirty = false;
-            if(!resetMap.isEmpty()) {
-              for(ThroughputData entry : resetMap.values()) {
-                if(NetworkLog.appFragment != null) {
-                  NetworkLog.appFragment.updateAppThroughput(entry.app.uid, 0, 0);
-                }
-              }
-              resetMap.clear();
+        if(isDirty) {
+          isDirty = false;
+          for(ThroughputData entry : resetList) {
+            if(NetworkLog.appFragment != null) {
+              NetworkLog.appFragment.updateAppThroughput(entry.app.uid, 0, 0);
+            }
+          }
+          resetList.clear();
+          totalUpload = 0;
+          totalDownload = 0;
+          updateThroughput(0, 0);
+        }
+
+        // getData() stores apps before counting the app it added, so read
+        // in the opposite order to never see more apps than the array holds
+        int count = appCount;
+        ThroughputData[] apps = ThroughputTracker.apps;
+        long currentTime = System.currentTimeMillis();
+        long upload = 0;
+        long download = 0;
+        boolean showToast = false;
+        toastString.setLength(0);
+        newline = "";
+
+        for(int i = 0; i < count; i++) {
+          ThroughputData value = apps[i];
+          long sent = value.upload.getAndSet(0);
+          long received = value.download.getAndSet(0);
+
+          if(sent != 0 || received != 0) {
+            // shown until the app is cleared, or counts bytes again
+            value.shownUpload = sent;
+            value.shownDownload = received;
+            value.shown = true;
+
+            upload += sent;
+            download += received;
+
+            if(NetworkLog.appFragment != null) {
+              NetworkLog.appFragment.updateAppThroughput(value.app.uid, toDisplayUnit(sent), toDisplayUnit(received));
+              resetList.add(value);
             }
-            updateThroughput(0, 0);
-            totalUpload = 0;
-            totalDownload = 0;
+          } else if(value.shown == false) {
+            continue;
           }
 
-          if(!throughputMap.isEmpty()) {
-            isDirty = true;
-            toastString.setLength(0);
-            newline = "";
-            long currentTime = System.currentTimeMillis();
-            boolean showToast = false;
-
-            Iterator entries = throughputMap.entrySet().iterator();
-            while(entries.hasNext()) {
-              Map.Entry entry = (Map.Entry) entries.next();
-              ThroughputData value = (ThroughputData) entry.getValue();
-
-              if(value.displayed == false) {
-                totalUpload += value.upload;
-                totalDownload += value.download;
-
-                if(NetworkLog.appFragment != null) {
-                  NetworkLog.appFragment.updateAppThroughput(value.app.uid, value.upload, value.download);
-                  resetMap.put(value.app.packageName, value);
-                }
-              }
-
-              if(NetworkLogService.toastBlockedApps.get(value.app.packageName) == null) {
-                showToast = true;
-
-                if(NetworkLogService.invertUploadDownload) {
-                  throughput = StringUtils.formatToBytes(value.download) + (NetworkLogService.throughputBps ? "bps/" : "B/")  + StringUtils.formatToBytes(value.upload) + (NetworkLogService.throughputBps ? "bps" : "B");
-                } else {
-                  throughput = StringUtils.formatToBytes(value.upload) + (NetworkLogService.throughputBps ? "bps/" : "B/") + StringUtils.formatToBytes(value.download) + (NetworkLogService.throughputBps ? "bps" : "B");
-                }
-
-                if(MyLog.enabled && MyLog.level >= 2 && value.displayed == false) {
-                  MyLog.d(2, value.app.name + " throughput: " + throughput);
-                }
-
-                if(NetworkLogService.toastShowAddress) {
-                  toastString.append(newline + "<b>" +  value.app.name + "</b>: <u>" + value.address + "</u> <i>" + throughput + "</i>");
-                } else {
-                  toastString.append(newline + "<b>" +  value.app.name + "</b>: " + throughput);
-                }
-
-                newline = "<br>";
-              }
-
-              value.displayed = true;
-
-              if(currentTime >= value.clearTime) {
-                entries.remove();
-              }
+          if(NetworkLogService.toastBlockedApps.get(value.app.packageName) == null) {
+            showToast = true;
+            throughput = formatThroughput(value.shownUpload, value.shownDownload);
+
+            if(MyLog.enabled && MyLog.level >= 2 && (sent != 0 || received != 0)) {
+              MyLog.d(2, value.app.name + " throughput: " + throughput);
             }
 
-            if(showToast) {
-              NetworkLogService.showToast(toastString);
+            if(NetworkLogService.toastShowAddress) {
+              toastString.append(newline + "<b>" +  value.app.name + "</b>: <u>" + value.address + ":" + value.port + "</u> <i>" + throughput + "</i>");
+            } else {
+              toastString.append(newline + "<b>" +  value.app.name + "</b>: " + throughput);
             }
 
-            updateThroughput(totalUpload, totalDownload);
+            newline = "<br>";
+          }
+
+          if(currentTime >= value.clearTime) {
+            value.shown = false;
+          }
+        }
+
+        if(upload != 0 || download != 0 || showToast) {
+          isDirty = true;
 
-            totalUpload = 0;
-            totalDownload = 0;
+          if(showToast) {
+            NetworkLogService.showToast(toastString);
           }
+
+          totalUpload = upload;
+          totalDownload = download;
+          updateThroughput(toDisplayUnit(upload), toDisplayUnit(download));
         }
 
         try { Thread.sleep(1000); } catch (Exception e) { Log.d("NetworkLog", "ThroughputUpdater", e); }
@@ -226,30 +281,11 @@ public class ThroughputTracker {
   }
 
   public static void updateThroughputBps() {
-    if(updater != null) {
-      synchronized(throughputMap) {
-        for(ThroughputData item : throughputMap.values()) {
-          if(item.displayed == false) {
-            if(NetworkLogService.throughputBps) {
-              item.upload *= Byte.SIZE;
-              item.download *= Byte.SIZE;
-            } else {
-              item.upload /= Byte.SIZE;
-              item.download /= Byte.SIZE;
-            }
-          }
-        }
+    ThroughputUpdater current = updater;
 
-        if(NetworkLogService.throughputBps) {
-          updater.totalUpload *= Byte.SIZE;
-          updater.totalDownload *= Byte.SIZE;
-        } else {
-          updater.totalUpload /= Byte.SIZE;
-          updater.totalDownload /= Byte.SIZE;
-        }
-
-        updateThroughput(updater.totalUpload, updater.totalDownload);
-      }
+    // counts are kept in bytes, so only what is shown needs converting
+    if(current != null) {
+      updateThroughput(toDisplayUnit(current.totalUpload), toDisplayUnit(current.totalDownload));
     }
 
     if(NetworkLog.appFragment != null) {
@@ -0,0 +1,82 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Apps of the Apps tab by uid, in an open-addressing table.
+//
+// An index is never changed once built; when the apps change a new one is
+// built and replaces it, so it can be read without locking.
+
+package com.googlecode.networklog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class UidIndex {
+  static final AppFragment.GroupItem[] NO_ITEMS = new AppFragment.GroupItem[0];
+
+  final int[] uids;
+  final AppFragment.GroupItem[][] items;
+  final boolean[] used;
+  final int mask;
+
+  /**
+   * @param groupItems apps sorted by uid
+   */
+  public UidIndex(List<AppFragment.GroupItem> groupItems) {
+    int capacity = 16;
+
+    // at most half full
+    while(capacity < groupItems.size() * 2) {
+      capacity <<= 1;
+    }
+
+    uids = new int[capacity];
+    items = new AppFragment.GroupItem[capacity][];
+    used = new boolean[capacity];
+    mask = capacity - 1;
+
+    ArrayList<AppFragment.GroupItem> sameUid = new ArrayList<AppFragment.GroupItem>();
+    int count = groupItems.size();
+
+    for(int i = 0; i < count; i++) {
+      sameUid.add(groupItems.get(i));
+
+      if(i + 1 == count || groupItems.get(i + 1).app.uid != groupItems.get(i).app.uid) {
+        put(groupItems.get(i).app.uid, sameUid.toArray(new AppFragment.GroupItem[sameUid.size()]));
+        sameUid.clear();
+      }
+    }
+  }
+
+  static int hash(int uid) {
+    return uid ^ (uid >>> 16);
+  }
+
+  void put(int uid, AppFragment.GroupItem[] groupItems) {
+    int slot = hash(uid) & mask;
+
+    while(used[slot]) {
+      slot = (slot + 1) & mask;
+    }
+
+    used[slot] = true;
+    uids[slot] = uid;
+    items[slot] = groupItems;
+  }
+
+  /**
+   * @return apps with the uid; several apps may share one
+   */
+  public AppFragment.GroupItem[] get(int uid) {
+    for(int slot = hash(uid) & mask; used[slot]; slot = (slot + 1) & mask) {
+      if(uids[slot] == uid) {
+        return items[slot];
+      }
+    }
+
+    return NO_ITEMS;
+  }
+}
@@ -0,0 +1,89 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Checks that FlowTable.evict() frees a quarter of the table when few
+// flows have expired, whether or not they were used at the same time
+
+package com.googlecode.networklog;
+
+public class FlowTableCheck {
+  static final long TTL = 60 * 60 * 1000;
+
+  public static void main(String[] args) {
+    MyLog.enabled = false;
+
+    // a netstat refresh adds its flows in the same millisecond
+    FlowTable table = fill(16, 12);
+    setAllUsed(table, System.currentTimeMillis());
+    table.put(100, 1, 100, 2, 6, 100);
+    check(table.size() == 12 - 3 + 1, "burst of equal timestamps keeps 3/4, size " + table.size());
+
+    // one flow older than the rest
+    table = fill(16, 12);
+    long now = System.currentTimeMillis();
+    setAllUsed(table, now);
+    table.lastUsed[slotOf(table, 0)] = now - 1000;
+    table.put(100, 1, 100, 2, 6, 100);
+    check(table.size() == 12 - 3 + 1, "one older flow still frees 1/4, size " + table.size());
+    check(table.get(0, 1, 0, 2, 6) == FlowTable.NOT_FOUND, "oldest flow evicted first");
+
+    // flows past their ttl all go, even when more than a quarter
+    table = fill(16, 12);
+    setAllUsed(table, now - 2 * TTL);
+    table.lastUsed[slotOf(table, 11)] = now;
+    table.put(100, 1, 100, 2, 6, 100);
+    check(table.size() == 2, "expired flows evicted, size " + table.size());
+
+    // distinct times evict the least recently used quarter
+    table = fill(8192, 6144);
+    for(int i = 0; i < 6144; i++) {
+      table.lastUsed[slotOf(table, i)] = now - 6144 + i;
+    }
+    table.put(100000, 1, 100000, 2, 6, 1);
+    check(table.size() == 6144 - 1536 + 1, "large table frees 1/4, size " + table.size());
+    check(table.get(1535, 1, 1535, 2, 6) == FlowTable.NOT_FOUND && table.get(1536, 1, 1536, 2, 6) == 1536, "least recently used evicted");
+
+    System.out.println("FlowTableCheck passed");
+  }
+
+  // table filled up to maxSize with flows keyed by their uid
+  static FlowTable fill(int capacity, int count) {
+    FlowTable table = new FlowTable(capacity, TTL);
+
+    for(int i = 0; i < count; i++) {
+      table.put(i, 1, i, 2, 6, i);
+    }
+
+    return table;
+  }
+
+  static void setAllUsed(FlowTable table, long time) {
+    for(int i = 0; i < table.capacity; i++) {
+      if(table.used[i]) {
+        table.lastUsed[i] = time;
+      }
+    }
+  }
+
+  static int slotOf(FlowTable table, int src) {
+    for(int i = 0; i < table.capacity; i++) {
+      if(table.used[i] && table.srcs[i] == src) {
+        return i;
+      }
+    }
+
+    throw new IllegalStateException("flow " + src + " not found");
+  }
+
+  static void check(boolean condition, String description) {
+    if(!condition) {
+      System.out.println("FAILED: " + description);
+      System.exit(1);
+    }
+
+    System.out.println("ok: " + description);
+  }
+}
@@ -0,0 +1,183 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// The indexOf-based field extraction that NetworkLogService.parseResult()
+// used before LogEntryParser, kept as the baseline for
+// LogEntryParserBenchmark.  Each field is searched for from the previous
+// one with String.indexOf() and its end checked with another indexOf().
+
+package com.googlecode.networklog;
+
+public class IndexOfLogParser {
+  FastParser parser = new FastParser();
+
+  public void setLine(String result) {
+    parser.setLine(result.toCharArray(), result.length() - 1);
+  }
+
+  /**
+   * Parses the entry of the line last given to setLine() that starts at
+   * pos, after its {NL}, and ends at newline.
+   * @return false if a required field is missing
+   */
+  public boolean parseEntry(String result, int pos, int newline, LogEntry entry) {
+    int lastpos, space;
+    String in, out, src, dst, proto, uidString;
+    int spt, dpt, len, uid;
+
+    pos = result.indexOf("IN=", pos);
+
+    if(pos == -1 || pos > newline) {
+      return false;
+    }
+
+    space = result.indexOf(" ", pos);
+
+    if(space == -1 || space > newline) {
+      return false;
+    }
+
+    parser.setPos(pos + 3);
+    in = parser.getString();
+
+    pos = result.indexOf("OUT=", pos);
+
+    if(pos == -1 || pos > newline) {
+      return false;
+    }
+
+    space = result.indexOf(" ", pos);
+
+    if(space == -1 || space > newline) {
+      return false;
+    }
+
+    parser.setPos(pos + 4);
+    out = parser.getString();
+
+    pos = result.indexOf("SRC=", pos);
+
+    if(pos == -1 || pos > newline) {
+      return false;
+    }
+
+    space = result.indexOf(" ", pos);
+
+    if(space == -1 || space > newline) {
+      return false;
+    }
+
+    parser.setPos(pos + 4);
+    src = parser.getString();
+
+    pos = result.indexOf("DST=", pos);
+
+    if(pos == -1 || pos > newline) {
+      return false;
+    }
+
+    space = result.indexOf(" ", pos);
+
+    if(space == -1 || space > newline) {
+      return false;
+    }
+
+    parser.setPos(pos + 4);
+    dst = parser.getString();
+
+    pos = result.indexOf("LEN=", pos);
+
+    if(pos == -1 || pos > newline) {
+      return false;
+    }
+
+    space = result.indexOf(" ", pos);
+
+    if(space == -1 || space > newline) {
+      return false;
+    }
+
+    parser.setPos(pos + 4);
+    len = parser.getInt();
+
+    pos = result.indexOf("PROTO=", pos);
+
+    if(pos == -1 || pos > newline) {
+      return false;
+    }
+
+    space = result.indexOf(" ", pos);
+
+    if(space == -1 || space > newline) {
+      return false;
+    }
+
+    parser.setPos(pos + 6);
+    proto = parser.getString();
+
+    lastpos = pos;
+    pos = result.indexOf("SPT=", pos);
+
+    if(pos == -1 || pos > newline) {
+      // no SPT field, probably a broadcast packet
+      spt = 0;
+      pos = lastpos;
+    } else {
+      space = result.indexOf(" ", pos);
+
+      if(space == -1 || space > newline) {
+        return false;
+      }
+
+      parser.setPos(pos + 4);
+      spt = parser.getInt();
+    }
+
+    lastpos = pos;
+    pos = result.indexOf("DPT=", pos);
+
+    if(pos == -1 || pos > newline) {
+      // no DPT field, probably a broadcast packet
+      dpt = 0;
+      pos = lastpos;
+    } else {
+      space = result.indexOf(" ", pos);
+
+      if(space == -1 || space > newline) {
+        return false;
+      }
+
+      parser.setPos(pos + 4);
+      dpt = parser.getInt();
+    }
+
+    lastpos = pos;
+    pos = result.indexOf("UID=", pos);
+
+    if(pos == -1 || pos > newline) {
+      uid = -1;
+      uidString = "-1";
+      pos = lastpos;
+    } else {
+      parser.setPos(pos + 4);
+      uid = parser.getInt();
+      parser.setPos(pos + 4);
+      uidString = parser.getString();
+    }
+
+    entry.in = in;
+    entry.out = out;
+    entry.src = src;
+    entry.dst = dst;
+    entry.len = len;
+    entry.proto = proto;
+    entry.spt = spt;
+    entry.dpt = dpt;
+    entry.uid = uid;
+    entry.uidString = uidString;
+    return true;
+  }
+}
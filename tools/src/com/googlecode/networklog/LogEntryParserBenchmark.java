@@ -0,0 +1,205 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Compares LogEntryParser with the indexOf-based IndexOfLogParser it
+// replaced, on the same buffer of canned kmsg/nflog lines:
+//
+//    java -cp out com.googlecode.networklog.LogEntryParserBenchmark [seconds]
+//
+// The parsers take turns for [seconds], 5 by default, in ROUNDS runs each.
+// Each buffer is split into lines and handed to the parser the way
+// NetworkLogService.parseResult() does, before and after the change; each
+// entry reuses one LogEntry so that allocation is the parser's own.  The
+// parsers are first checked to agree on every line.
+
+package com.googlecode.networklog;
+
+public class LogEntryParserBenchmark {
+  static final String[] LINES = {
+    "<4>[12345.678901] {NL}IN= OUT=wlan0 SRC=192.168.1.100 DST=173.194.46.36 LEN=60 TOS=0x00 PREC=0x00 TTL=64 ID=52135 DF PROTO=TCP SPT=48213 DPT=443 WINDOW=14600 RES=0x00 SYN URGP=0 UID=10061 GID=10061",
+    "<4>[12345.679012] {NL}IN=wlan0 OUT= MAC=00:11:22:33:44:55:66:77:88:99:aa:bb:08:00 SRC=173.194.46.36 DST=192.168.1.100 LEN=52 TOS=0x00 PREC=0x00 TTL=54 ID=0 DF PROTO=TCP SPT=443 DPT=48213 WINDOW=42540 RES=0x00 ACK URGP=0",
+    "<4>[12345.679123] {NL}IN= OUT=rmnet0 SRC=10.142.27.3 DST=8.8.8.8 LEN=71 TOS=0x00 PREC=0x00 TTL=64 ID=14702 PROTO=UDP SPT=38221 DPT=53 LEN=51 UID=0 GID=1003",
+    "<4>[12345.679234] {NL}IN= OUT=wlan0 SRC=192.168.1.100 DST=192.168.1.1 LEN=84 TOS=0x00 PREC=0x00 TTL=64 ID=0 DF PROTO=ICMP TYPE=8 CODE=0 ID=2317 SEQ=1 UID=2000 GID=2000",
+    "<4>[12345.679345] {NL}IN= OUT=wlan0 SRC=2001:0db8:0000:0000:0000:0000:0000:0001 DST=2a00:1450:4001:0811:0000:0000:0000:200e LEN=80 TC=0 HOPLIMIT=64 FLOWLBL=0 PROTO=TCP SPT=51234 DPT=80 WINDOW=14400 RES=0x00 SYN URGP=0 UID=10073 GID=10073"
+  };
+
+  static final int LINES_PER_BUFFER = 200;
+  static final int ROUNDS = 10;
+
+  public static void main(String[] args) {
+    long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+    MyLog.enabled = false;
+
+    // one buffer of many lines, as read from the logger in one go
+    StringBuilder builder = new StringBuilder();
+
+    for(int i = 0; i < LINES_PER_BUFFER; i++) {
+      builder.append(LINES[i % LINES.length]).append('\n');
+    }
+
+    String result = builder.toString();
+
+    if(!agree()) {
+      System.exit(1);
+    }
+
+    Baseline baseline = new Baseline();
+    Current current = new Current();
+
+    // let the JIT compile both before measuring
+    baseline.run(result, 1000);
+    current.run(result, 1000);
+
+    // alternate short runs so that both see the same machine conditions,
+    // keeping the best of each
+    double baselineRate = 0;
+    double currentRate = 0;
+    long runMillis = seconds * 1000 / ROUNDS;
+
+    for(int i = 0; i < ROUNDS; i++) {
+      baselineRate = Math.max(baselineRate, measure(baseline, result, runMillis));
+      currentRate = Math.max(currentRate, measure(current, result, runMillis));
+    }
+
+    System.out.println("indexOf parser:        " + String.format("%10.0f", baselineRate) + " lines/sec");
+    System.out.println("LogEntryParser:        " + String.format("%10.0f", currentRate) + " lines/sec");
+    System.out.println("speedup:               " + String.format("%10.2f", currentRate / baselineRate) + "x");
+  }
+
+  static abstract class Benchmark {
+    LogEntry entry = new LogEntry();
+
+    // @return number of lines parsed
+    abstract int run(String result, int iterations);
+  }
+
+  static class Baseline extends Benchmark {
+    IndexOfLogParser parser = new IndexOfLogParser();
+
+    int run(String result, int iterations) {
+      int parsed = 0;
+      int pos, thisEntry, nextEntry, newline;
+
+      for(int i = 0; i < iterations; i++) {
+        pos = 0;
+        parser.setLine(result);
+
+        while((pos = result.indexOf("{NL}", pos)) > -1) {
+          pos += "{NL}".length();
+          thisEntry = pos;
+          newline = result.indexOf("\n", pos);
+          nextEntry = result.indexOf("{NL}", pos);
+
+          if(newline == -1) {
+            newline = result.length();
+          }
+
+          if(nextEntry != -1 && nextEntry < newline) {
+            pos = newline;
+            continue;
+          }
+
+          if(parser.parseEntry(result, thisEntry, newline, entry)) {
+            parsed++;
+          }
+
+          pos = newline;
+        }
+      }
+
+      return parsed;
+    }
+  }
+
+  static class Current extends Benchmark {
+    LogEntryParser parser = new LogEntryParser();
+    char[] resultChars = new char[1024];
+
+    int run(String result, int iterations) {
+      int parsed = 0;
+      int pos, thisEntry, nextEntry, newline;
+      int length = result.length();
+
+      for(int i = 0; i < iterations; i++) {
+        pos = 0;
+
+        if(resultChars.length < length) {
+          resultChars = new char[length * 2];
+        }
+
+        result.getChars(0, length, resultChars, 0);
+
+        while((pos = result.indexOf("{NL}", pos)) > -1) {
+          pos += "{NL}".length();
+          thisEntry = pos;
+          newline = result.indexOf('\n', pos);
+          nextEntry = result.indexOf("{NL}", pos);
+
+          if(newline == -1) {
+            newline = length;
+          }
+
+          if(nextEntry != -1 && nextEntry < newline) {
+            pos = newline;
+            continue;
+          }
+
+          if(parser.parseEntry(resultChars, thisEntry, newline, entry)) {
+            parsed++;
+          }
+
+          pos = newline;
+        }
+      }
+
+      return parsed;
+    }
+  }
+
+  // @return lines per second
+  static double measure(Benchmark benchmark, String result, long millis) {
+    long lines = 0;
+    long start = System.nanoTime();
+    long end = start + millis * 1000000L;
+    long now;
+
+    do {
+      if(benchmark.run(result, 100) != 100 * LINES_PER_BUFFER) {
+        throw new IllegalStateException("lines failed to parse");
+      }
+
+      lines += 100 * LINES_PER_BUFFER;
+      now = System.nanoTime();
+    } while(now < end);
+
+    return lines / ((now - start) / 1e9);
+  }
+
+  // whether both parsers read the same fields from each of LINES
+  static boolean agree() {
+    Baseline baseline = new Baseline();
+    Current current = new Current();
+    boolean agree = true;
+
+    for(String line : LINES) {
+      String single = line + "\n";
+      baseline.run(single, 1);
+      current.run(single, 1);
+
+      LogEntry a = baseline.entry;
+      LogEntry b = current.entry;
+
+      if(!(a.in.equals(b.in) && a.out.equals(b.out) && a.src.equals(b.src) && a.dst.equals(b.dst)
+            && a.proto.equals(b.proto) && a.len == b.len && a.spt == b.spt && a.dpt == b.dpt
+            && a.uid == b.uid && a.uidString.equals(b.uidString))) {
+        System.out.println("Parsers disagree on: " + line);
+        agree = false;
+      }
+    }
+
+    return agree;
+  }
+}
@@ -0,0 +1,44 @@
+/* (C) 2012 Pragmatic Software
+   This Source Code Form is subject to the terms of the Mozilla Public
+   License, v. 2.0. If a copy of the MPL was not distributed with this
+   file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+
+// Stands in for android.util.Log so that the tools can run off-device
+
+package android.util;
+
+public class Log {
+  public static int d(String tag, String msg) {
+    return println("D", tag, msg, null);
+  }
+
+  public static int d(String tag, String msg, Throwable tr) {
+    return println("D", tag, msg, tr);
+  }
+
+  public static int i(String tag, String msg) {
+    return println("I", tag, msg, null);
+  }
+
+  public static int w(String tag, String msg) {
+    return println("W", tag, msg, null);
+  }
+
+  public static int w(String tag, String msg, Throwable tr) {
+    return println("W", tag, msg, tr);
+  }
+
+  public static int e(String tag, String msg) {
+    return println("E", tag, msg, null);
+  }
+
+  public static int e(String tag, String msg, Throwable tr) {
+    return println("E", tag, msg, tr);
+  }
+
+  static int println(String level, String tag, String msg, Throwable tr) {
+    System.err.println(level + "/" + tag + ": " + msg + (tr == null ? "" : " " + tr));
+    return 0;
+  }
+}